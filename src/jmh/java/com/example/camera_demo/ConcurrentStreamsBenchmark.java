@@ -0,0 +1,198 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of a camera wall: {@link #streams} {@link CameraSession}s running at once in one
+ * {@link CameraStreamManager}, each reading its own copy of a generated H.264 clip paced by PTS
+ * like a camera. Views are either native size or 4x4 wall tiles. Each operation streams for
+ * {@link #MEASURE_MILLIS} once every session has delivered its first frame, then prints the frame
+ * rate of every stream and the process CPU over that window. Every stream should hold the clip's
+ * 25 fps; a lower rate means the machine cannot keep up with that many cameras.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ConcurrentStreamsBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int FRAME_COUNT = 250; // 10 s at 25 fps, enough for one operation
+    private static final int GOP_SIZE = 50;
+    private static final long MEASURE_MILLIS = 5000;
+
+    @Param({"16"})
+    public int streams;
+
+    // "native" decodes at camera size, "tile" at the size of one tile of a 4x4 wall on a 1080p screen
+    @Param({"native", "tile"})
+    public String view;
+
+    private final List<File> files = new ArrayList<>();
+    private CameraStreamManager manager;
+
+    // Counts one stream's frames, and is the viewer that sizes its decoding
+    private static class Counter implements CameraSession.FrameConsumer {
+        final AtomicLong frames = new AtomicLong();
+
+        @Override
+        public void onFrame(CameraSession session, VideoFrame frame) {
+            frames.incrementAndGet();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        File file = File.createTempFile("concurrent-streams-", ".mp4");
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, WIDTH, HEIGHT);
+        recorder.setFormat("mp4");
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(25);
+        recorder.setGopSize(GOP_SIZE);
+        recorder.setVideoBitrate(WIDTH * HEIGHT * 2);
+        recorder.start();
+
+        Frame frame = new Frame(WIDTH, HEIGHT, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        byte[] row = new byte[WIDTH * 3];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < row.length; x++) {
+                    row[x] = (byte) (x / 3 + y + i * 4);
+                }
+                pixels.put(y * frame.imageStride, row);
+            }
+            recorder.record(frame);
+        }
+        recorder.stop();
+        recorder.release();
+
+        // Sessions are shared per URL, so every stream needs a file of its own
+        files.add(file);
+        for (int i = 1; i < streams; i++) {
+            File copy = File.createTempFile("concurrent-streams-", ".mp4");
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            files.add(copy);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startManager() {
+        manager = new CameraStreamManager(new CameraStreamManager.CameraStreamListener() {
+            @Override
+            public void onSessionStatus(CameraSession session, String status) {
+            }
+
+            @Override
+            public void onWebSocketStatusUpdate(String status) {
+            }
+
+            @Override
+            public void onCameraListReceived(List<String> cameras) {
+            }
+        });
+    }
+
+    @Benchmark
+    public double streamConcurrently() throws InterruptedException {
+        List<CameraSession> sessions = new ArrayList<>();
+        List<Counter> counters = new ArrayList<>();
+        for (File file : files) {
+            Counter counter = new Counter();
+            CameraSession session = manager.openSession(file.getAbsolutePath(), StreamPacer.Mode.TIMESTAMP);
+            session.addConsumer(counter);
+            if ("tile".equals(view)) {
+                session.requestViewport(counter, 480, 270);
+            } else {
+                session.setVisibility(counter, CameraSession.Visibility.VISIBLE);
+            }
+            sessions.add(session);
+            counters.add(counter);
+        }
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            for (Counter counter : counters) {
+                while (counter.frames.get() == 0) {
+                    if (System.nanoTime() > deadline) {
+                        throw new IllegalStateException("Not every stream started within 10 s");
+                    }
+                    Thread.sleep(10);
+                }
+            }
+
+            com.sun.management.OperatingSystemMXBean os =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            long[] startFrames = new long[counters.size()];
+            for (int i = 0; i < counters.size(); i++) {
+                startFrames[i] = counters.get(i).frames.get();
+            }
+            long startCpu = os.getProcessCpuTime();
+            long startNanos = System.nanoTime();
+            Thread.sleep(MEASURE_MILLIS);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            double cpuCores = (os.getProcessCpuTime() - startCpu) / (double) elapsedNanos;
+
+            double total = 0;
+            double slowest = Double.MAX_VALUE;
+            StringBuilder perStream = new StringBuilder();
+            for (int i = 0; i < counters.size(); i++) {
+                double fps = (counters.get(i).frames.get() - startFrames[i]) * 1e9 / elapsedNanos;
+                total += fps;
+                slowest = Math.min(slowest, fps);
+                perStream.append(String.format(" %.1f", fps));
+            }
+            System.out.printf("%n%d streams (%s): %.1f fps total, slowest %.1f, CPU %.2f of %d cores%n  per stream:%s%n",
+                    streams, view, total, slowest, cpuCores, os.getAvailableProcessors(), perStream);
+            return total;
+        } finally {
+            for (int i = 0; i < sessions.size(); i++) {
+                sessions.get(i).removeConsumer(counters.get(i));
+                sessions.get(i).releaseViewport(counters.get(i));
+                manager.closeSession(files.get(i).getAbsolutePath());
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopManager() {
+        manager.cleanup();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grab-and-decode throughput in frames per second, from an H.264 file generated at setup so runs
+ * do not depend on a camera. Compares the session pipeline (grabPacket into VideoDecoder, optionally
+ * scaled to a smaller view) with JavaCV's own grabImage() decoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final int FRAME_COUNT = 250; // 10 s at 25 fps
+    private static final int GOP_SIZE = 50;     // 2 s, typical for IP cameras
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"1", "4"})
+    public int decoderThreads;
+
+    // Output size relative to the stream, 0.5 is a view half the camera's size
+    @Param({"1.0", "0.5"})
+    public double scale;
+
+    private int width;
+    private int height;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        file = File.createTempFile("decode-benchmark-" + resolution + "-", ".mp4");
+
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, width, height);
+        recorder.setFormat("mp4");
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(25);
+        recorder.setGopSize(GOP_SIZE);
+        recorder.setVideoBitrate(width * height * 2);
+        recorder.start();
+
+        Frame frame = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        byte[] row = new byte[width * 3];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            // A moving gradient gives the encoder real motion to code
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < row.length; x++) {
+                    row[x] = (byte) (x / 3 + y + i * 4);
+                }
+                pixels.put(y * frame.imageStride, row);
+            }
+            recorder.record(frame);
+        }
+        recorder.stop();
+        recorder.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAME_COUNT)
+    public long decodePackets(Blackhole blackhole) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        grabber.setVideoOption("threads", "1");
+        grabber.start();
+        AVStream stream = CameraSession.findVideoStream(grabber);
+        long frames = 0;
+
+        try (VideoDecoder decoder = new VideoDecoder(stream, decoderThreads)) {
+            if (scale < 1.0) {
+                decoder.setOutputSize((int) (width * scale) & ~1, (int) (height * scale) & ~1);
+            }
+
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.stream_index() == stream.index()) {
+                    VideoFrame frame = decoder.decode(packet, true);
+                    if (frame != null) {
+                        blackhole.consume(frame);
+                        frames++;
+                    }
+                }
+                avcodec.av_packet_unref(packet);
+            }
+            // Drains the frames held back by frame threading
+            blackhole.consume(decoder.decode(null, true));
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+        return frames;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAME_COUNT)
+    public long grabImage(Blackhole blackhole) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_BGRA);
+        grabber.setVideoOption("threads", String.valueOf(decoderThreads));
+        if (scale < 1.0) {
+            grabber.setImageWidth((int) (width * scale) & ~1);
+            grabber.setImageHeight((int) (height * scale) & ~1);
+        }
+        grabber.start();
+        long frames = 0;
+
+        try {
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null) {
+                blackhole.consume(frame);
+                frames++;
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+        return frames;
+    }
+}
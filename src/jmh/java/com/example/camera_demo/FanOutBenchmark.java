@@ -0,0 +1,166 @@
+package com.example.camera_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load test of the remote viewer fan-out: one camera's JPEG frames published to many
+ * subscribers, each written to its own loopback socket and read by its own client, half as MJPEG
+ * and half as WebSocket. The score is frames published per second. After each iteration the
+ * frames and bytes the clients actually received and the frames dropped for slow clients are
+ * printed, which shows whether every subscriber keeps up at the camera's frame rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"1", "100"})
+    public int subscriberCount;
+
+    private ExecutorService threads;
+    private ServerSocket serverSocket;
+    private CameraFeed feed;
+    private CameraFeed.EncodedFrame frame;
+    private final List<CameraFeed.Subscriber> subscribers = new ArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private long iterationStartNanos;
+    private long sentAtStart;
+    private long droppedAtStart;
+    private long bytesAtStart;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        threads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        feed = new CameraFeed("rtsp://benchmark", threads, StreamServer.DEFAULT_FPS, 0.75f);
+
+        // A 720p gradient, about the size a real camera frame encodes to
+        BufferedImage image = new BufferedImage(StreamServer.DEFAULT_WIDTH, StreamServer.DEFAULT_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x & 0xFF) << 16 | (y & 0xFF) << 8 | ((x + y) & 0xFF));
+            }
+        }
+        frame = new CameraFeed.EncodedFrame(feed.encodeJpeg(image));
+
+        serverSocket = new ServerSocket(0, subscriberCount, InetAddress.getLoopbackAddress());
+        for (int i = 0; i < subscriberCount; i++) {
+            Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            Socket server = serverSocket.accept();
+            sockets.add(client);
+            sockets.add(server);
+
+            CameraFeed.Subscriber subscriber = new CameraFeed.Subscriber(i % 2 == 1);
+            subscribers.add(subscriber);
+            feed.addSubscriber(subscriber);
+            threads.submit(() -> serve(subscriber, server.getOutputStream()));
+            threads.submit(() -> drain(client.getInputStream()));
+        }
+    }
+
+    // The same loop StreamServer runs per client
+    private Void serve(CameraFeed.Subscriber subscriber, OutputStream socketOutput) throws IOException, InterruptedException {
+        OutputStream output = new BufferedOutputStream(socketOutput, 64 * 1024);
+        while (!subscriber.isClosed()) {
+            CameraFeed.EncodedFrame next = subscriber.take(100);
+            if (next != null) {
+                subscriber.write(next, output);
+            }
+        }
+        return null;
+    }
+
+    private Void drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            receivedBytes.addAndGet(read);
+        }
+        return null;
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        iterationStartNanos = System.nanoTime();
+        sentAtStart = totalSent();
+        droppedAtStart = totalDropped();
+        bytesAtStart = receivedBytes.get();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIteration() {
+        double seconds = (System.nanoTime() - iterationStartNanos) / 1e9;
+        System.out.printf("%n%d subscribers: %.0f frames/s delivered per subscriber, %.0f MB/s received in total, "
+                        + "%.0f frames/s dropped per subscriber%n", subscriberCount,
+                (totalSent() - sentAtStart) / seconds / subscriberCount,
+                (receivedBytes.get() - bytesAtStart) / seconds / (1024 * 1024),
+                (totalDropped() - droppedAtStart) / seconds / subscriberCount);
+    }
+
+    private long totalSent() {
+        long total = 0;
+        for (CameraFeed.Subscriber subscriber : subscribers) {
+            total += subscriber.getSent();
+        }
+        return total;
+    }
+
+    private long totalDropped() {
+        long total = 0;
+        for (CameraFeed.Subscriber subscriber : subscribers) {
+            total += subscriber.getDropped();
+        }
+        return total;
+    }
+
+    // One encoded frame handed to every subscriber's queue
+    @Benchmark
+    public void publish() {
+        feed.publish(frame);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        feed.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        serverSocket.close();
+        threads.shutdownNow();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.camera_demo;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting one decoded frame ready for display: the original BufferedImage -> JPEG -> Image
+ * round-trip against the direct BGRA copy FXFrameConverter does into a PixelBuffer.
+ *
+ * JavaFX's Image decoder needs a running FX toolkit, so ImageIO's JPEG decoder stands in for
+ * {@code new Image(stream)} in the round-trip. The PixelBuffer itself is replaced by a plain
+ * direct buffer of the same size for the same reason.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameConversionBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private final Java2DFrameConverter java2DConverter = new Java2DFrameConverter();
+    private Frame bgrFrame;         // What the grabber produced before the BGRA pipeline
+    private VideoFrame packedFrame;
+    private VideoFrame paddedFrame; // Rows padded the way FFmpeg aligns linesizes
+    private ByteBuffer destination;
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+
+        bgrFrame = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+        fill((ByteBuffer) bgrFrame.image[0]);
+        packedFrame = videoFrame(width, height, width * VideoFrame.BYTES_PER_PIXEL);
+        paddedFrame = videoFrame(width, height, width * VideoFrame.BYTES_PER_PIXEL + 64);
+        destination = ByteBuffer.allocateDirect(width * height * VideoFrame.BYTES_PER_PIXEL);
+    }
+
+    private static VideoFrame videoFrame(int width, int height, int stride) {
+        VideoFrame frame = new VideoFrame();
+        frame.width = width;
+        frame.height = height;
+        frame.stride = stride;
+        frame.pixels = ByteBuffer.allocateDirect(stride * height);
+        fill(frame.pixels);
+        return frame;
+    }
+
+    // A smooth pattern, noise would make the JPEG encoder unrealistically slow
+    private static void fill(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.capacity()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i / 3 + i / 7919);
+        }
+        buffer.put(0, bytes);
+    }
+
+    @Benchmark
+    public BufferedImage java2DConvert() {
+        return java2DConverter.convert(bgrFrame);
+    }
+
+    @Benchmark
+    public BufferedImage jpegRoundTrip() throws IOException {
+        BufferedImage bufferedImage = java2DConverter.convert(bgrFrame);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, "jpg", baos);
+        return ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    @Benchmark
+    public ByteBuffer directCopy() {
+        FXFrameConverter.copyPixels(packedFrame, destination);
+        return destination;
+    }
+
+    @Benchmark
+    public ByteBuffer directCopyPadded() {
+        FXFrameConverter.copyPixels(paddedFrame, destination);
+        return destination;
+    }
+}
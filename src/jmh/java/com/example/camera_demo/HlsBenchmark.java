@@ -0,0 +1,164 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of low-latency HLS per camera: 10 s of 720p H.264 muxed into fMP4 parts by one
+ * {@link HlsSegmenter} per stream, each stream on its own thread as on the ingest threads.
+ * The score is passes per second, one pass muxes the clip once per stream. After each iteration
+ * the muxing time per packet and the delay from a part's first packet to the part being listed
+ * are printed; fed in real time, a part is listed one frame interval plus this delay after its
+ * last packet arrives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HlsBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int FRAME_COUNT = 250; // 10 s at 25 fps
+    private static final int GOP_SIZE = 50;     // 2 s, typical for IP cameras
+
+    @Param({"1", "16"})
+    public int streams;
+
+    private File file;
+    private FFmpegFrameGrabber grabber; // Holds the format context the segmenters copy parameters from
+    private AVFormatContext formatContext;
+    private final List<AVPacket> packets = new ArrayList<>();
+    private ExecutorService ingestThreads;
+    private final List<HlsSegmenter> lastSegmenters = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        file = File.createTempFile("hls-benchmark-", ".mp4");
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, WIDTH, HEIGHT);
+        recorder.setFormat("mp4");
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(25);
+        recorder.setGopSize(GOP_SIZE);
+        recorder.setVideoBitrate(WIDTH * HEIGHT * 2);
+        recorder.start();
+
+        Frame frame = new Frame(WIDTH, HEIGHT, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        byte[] row = new byte[WIDTH * 3];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            // A moving gradient gives the encoder real motion to code
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < row.length; x++) {
+                    row[x] = (byte) (x / 3 + y + i * 4);
+                }
+                pixels.put(y * frame.imageStride, row);
+            }
+            recorder.record(frame);
+        }
+        recorder.stop();
+        recorder.release();
+
+        // Demuxed once, every invocation replays the same packets
+        grabber = new FFmpegFrameGrabber(file);
+        grabber.start();
+        formatContext = grabber.getFormatContext();
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            packets.add(avcodec.av_packet_clone(packet));
+            avcodec.av_packet_unref(packet);
+        }
+
+        ingestThreads = Executors.newFixedThreadPool(streams, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Benchmark
+    public void segment() throws Exception {
+        List<HlsSegmenter> segmenters = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            HlsSegmenter segmenter = new HlsSegmenter("rtsp://benchmark/" + i, HlsSegmenter.Settings.DEFAULT, null);
+            segmenters.add(segmenter);
+            tasks.add(() -> {
+                segmenter.onStreamStart(null, formatContext);
+                for (AVPacket packet : packets) {
+                    segmenter.onPacket(null, packet);
+                }
+                segmenter.onStreamEnd(null);
+                return null;
+            });
+        }
+        for (Future<Void> result : ingestThreads.invokeAll(tasks)) {
+            result.get();
+        }
+        for (HlsSegmenter segmenter : segmenters) {
+            segmenter.close();
+        }
+        synchronized (lastSegmenters) {
+            lastSegmenters.clear();
+            lastSegmenters.addAll(segmenters);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIteration() {
+        double muxMicros = 0;
+        double delayMillis = 0;
+        synchronized (lastSegmenters) {
+            for (HlsSegmenter segmenter : lastSegmenters) {
+                muxMicros += segmenter.getMuxMicrosPerPacket();
+                delayMillis += segmenter.getAveragePartDelayMillis();
+            }
+            int count = Math.max(1, lastSegmenters.size());
+            System.out.printf("%n%d streams: %.1f us muxing per packet, %.2f ms part delay per camera%n",
+                    streams, muxMicros / count, delayMillis / count);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ingestThreads.shutdownNow();
+        for (AVPacket packet : packets) {
+            avcodec.av_packet_free(packet);
+        }
+        packets.clear();
+        grabber.stop();
+        grabber.release();
+        file.delete();
+    }
+}
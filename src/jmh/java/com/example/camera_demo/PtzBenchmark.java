@@ -0,0 +1,133 @@
+package com.example.camera_demo;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Press-to-move and release-to-stop latency of {@link PtzController} against a local stub of
+ * {@code /cgi-bin/ptz.cgi} that answers after a configurable delay, like a slow camera. Each
+ * operation presses a direction, holds it for a few repeats and releases it. The stub records
+ * when each request arrives; after each iteration the average time from press to the first move
+ * arriving and from release to the stop arriving is printed, along with the moves per press.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PtzBenchmark {
+
+    private static final long HOLD_MILLIS = 300;
+
+    // How long the stub camera takes to answer each command
+    @Param({"0", "250"})
+    public long responseMillis;
+
+    private HttpServer stub;
+    private PtzController controller;
+    private PtzController.Camera camera;
+    private final BlockingQueue<Long> moveArrivals = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Long> stopArrivals = new LinkedBlockingQueue<>();
+    private long presses;
+    private long moves;
+    private long pressToMoveNanos;
+    private long releaseToStopNanos;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        stub.createContext("/cgi-bin/ptz.cgi", exchange -> {
+            try {
+                long arrival = System.nanoTime();
+                String query = exchange.getRequestURI().getQuery();
+                (query.startsWith("action=stop") ? stopArrivals : moveArrivals).add(arrival);
+                Thread.sleep(responseMillis);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        stub.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }));
+        stub.start();
+
+        controller = new PtzController();
+        camera = new PtzController.Camera("127.0.0.1:" + stub.getAddress().getPort(), "admin", "admin");
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        presses = 0;
+        moves = 0;
+        pressToMoveNanos = 0;
+        releaseToStopNanos = 0;
+    }
+
+    @Benchmark
+    public void pressHoldRelease() throws InterruptedException {
+        moveArrivals.clear();
+        long pressed = System.nanoTime();
+        controller.press(camera, "up", 4);
+        Long firstMove = moveArrivals.poll(5, TimeUnit.SECONDS);
+        Thread.sleep(HOLD_MILLIS);
+
+        long released = System.nanoTime();
+        controller.stop(camera);
+        Long stop;
+        do {
+            // Skips a late repeated stop from the previous press
+            stop = stopArrivals.poll(5, TimeUnit.SECONDS);
+        } while (stop != null && stop < released);
+        if (firstMove == null || stop == null) {
+            throw new IllegalStateException("The stub camera received no " + (firstMove == null ? "move" : "stop"));
+        }
+        presses++;
+        moves += 1 + moveArrivals.size();
+        pressToMoveNanos += firstMove - pressed;
+        releaseToStopNanos += stop - released;
+
+        // Lets a move in flight be answered, so the next press starts idle
+        Thread.sleep(responseMillis);
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIteration() {
+        if (presses > 0) {
+            System.out.printf("%nCamera answering in %d ms: press to move %.1f ms, release to stop %.1f ms, "
+                            + "%.1f moves per %d ms press%n", responseMillis, pressToMoveNanos / 1e6 / presses,
+                    releaseToStopNanos / 1e6 / presses, (double) moves / presses, HOLD_MILLIS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        controller.close();
+        stub.stop(0);
+    }
+}
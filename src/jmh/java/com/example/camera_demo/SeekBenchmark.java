@@ -0,0 +1,98 @@
+package com.example.camera_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Seeking to random times across a day of one camera's footage: 5 minute segments, each with the
+ * keyframe index SegmentRecorder writes. The segments themselves are empty, what is measured is
+ * finding the segment and keyframe to open, which is all that precedes the one decoder open.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeekBenchmark {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long SEGMENT_MILLIS = RecordingManager.DEFAULT_SEGMENT_MILLIS;
+    private static final int TARGET_COUNT = 1024;
+
+    // Seconds between keyframes, IP cameras commonly use 1 to 4
+    @Param({"1", "4"})
+    public int gopSeconds;
+
+    private Path directory;
+    private RecordingTimeline timeline;
+    private final long[] targets = new long[TARGET_COUNT];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("seek-benchmark");
+        long dayStart = LocalDateTime.of(2024, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        for (long segmentStart = dayStart; segmentStart < dayStart + DAY_MILLIS; segmentStart += SEGMENT_MILLIS) {
+            LocalDateTime name = LocalDateTime.ofInstant(Instant.ofEpochMilli(segmentStart), ZoneId.systemDefault());
+            Path segment = Files.createFile(directory.resolve(name.format(SegmentRecorder.FILE_TIME) + ".mp4"));
+            try (KeyframeIndex.Writer index = new KeyframeIndex.Writer(KeyframeIndex.sidecarFor(segment))) {
+                for (long offset = 0; offset < SEGMENT_MILLIS; offset += gopSeconds * 1000L) {
+                    index.append(segmentStart + offset, offset * 1000);
+                }
+            }
+        }
+
+        timeline = RecordingTimeline.load(directory);
+        Random random = new Random(42);
+        for (int i = 0; i < TARGET_COUNT; i++) {
+            targets[i] = dayStart + (long) (random.nextDouble() * DAY_MILLIS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private long nextTarget() {
+        next = (next + 1) & (TARGET_COUNT - 1);
+        return targets[next];
+    }
+
+    // Timeline already loaded, as when scrubbing
+    @Benchmark
+    public RecordingTimeline.Position seek() {
+        return timeline.seek(nextTarget());
+    }
+
+    // Listing the directory and mapping one index, as for the first seek after opening a camera
+    @Benchmark
+    public RecordingTimeline.Position loadAndSeek() throws IOException {
+        return RecordingTimeline.load(directory).seek(nextTarget());
+    }
+}
@@ -16,6 +16,10 @@ public class CameraApplication extends Application {
         stage.setScene(scene);
         stage.show();
 
+        // A minimised window drops every camera to keyframe-only decoding
+        CameraController cameraController = fxmlLoader.getController();
+        stage.iconifiedProperty().addListener((obs, wasMinimised, minimised) -> cameraController.setWindowMinimised(minimised));
+
         // Handle cleanup on close
         stage.setOnCloseRequest(e -> {
             CameraController controller = fxmlLoader.getController();
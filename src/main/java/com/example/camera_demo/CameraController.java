@@ -1,27 +1,37 @@
 package com.example.camera_demo;
 
 import javafx.application.Platform;
-import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.Slider;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.geometry.Pos;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
-
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.net.URI;
 import java.net.URL;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ResourceBundle;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,23 +40,29 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
-import javax.imageio.ImageIO;
-import javax.websocket.*;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+public class CameraController implements Initializable, CameraStreamManager.CameraStreamListener {
 
-@ClientEndpoint
-public class CameraController implements Initializable {
+    @FXML
+    private Tab liveTab;
 
     @FXML
     private ImageView videoImageView;
 
+    @FXML
+    private StackPane videoContainer;
+
     @FXML
     private Label statusLabel;
 
+    @FXML
+    private CheckBox statsCheckBox;
+
+    @FXML
+    private Label statsLabel;
+
     @FXML
     private Label cameraInfoLabel;
 
@@ -62,6 +78,18 @@ public class CameraController implements Initializable {
     @FXML
     private Label cameraCountLabel;
 
+    @FXML
+    private ComboBox<StreamPacer.Mode> pacingModeComboBox;
+
+    @FXML
+    private ComboBox<String> layoutComboBox;
+
+    @FXML
+    private Button eventRecordButton;
+
+    @FXML
+    private GridPane cameraGrid;
+
     // PTZ Control Elements
     @FXML
     private VBox ptzControlsBox;
@@ -93,21 +121,110 @@ public class CameraController implements Initializable {
     @FXML
     private Label speedLabel;
 
+    // Recordings tab
+    @FXML
+    private Button selectFolderButton;
+
+    @FXML
+    private Label recordingPathLabel;
+
+    @FXML
+    private CheckBox recordCheckBox;
+
+    @FXML
+    private CheckBox recordOnMotionCheckBox;
+
+    @FXML
+    private CheckBox motionCheckBox;
+
+    @FXML
+    private Spinner<Integer> motionThresholdSpinner;
+
+    @FXML
+    private CheckBox serveCheckBox;
+
+    @FXML
+    private CheckBox hlsCheckBox;
+
+    @FXML
+    private Spinner<Integer> hlsPartSpinner;
+
+    @FXML
+    private Spinner<Integer> hlsWindowSpinner;
+
+    @FXML
+    private ListView<Path> recordingListView;
+
+    @FXML
+    private StackPane playbackContainer;
+
+    @FXML
+    private ImageView playbackImageView;
+
+    @FXML
+    private Button playButton;
+
+    @FXML
+    private Button pauseButton;
+
+    @FXML
+    private Button stopButton;
+
+    @FXML
+    private ComboBox<String> playbackSpeedComboBox;
+
+    @FXML
+    private TextField goToTimeField;
+
+    @FXML
+    private Button goToTimeButton;
+
+    @FXML
+    private Slider progressSlider;
+
+    @FXML
+    private Label timeLabel;
+
+    // Settings tab
+    @FXML
+    private Spinner<Integer> preEventSecondsSpinner;
+
+    @FXML
+    private Spinner<Integer> preEventMemorySpinner;
+
+    @FXML
+    private Label preEventMemoryLabel;
+
     private List<String> cameraUrls = new ArrayList<>();
     private List<CameraInfo> cameraInfoList = new ArrayList<>();
     private int currentCameraIndex = 0;
-    private String activeStreamUrl = null;
 
-    private volatile boolean isStreaming = false;
     private ExecutorService executorService;
-    private Task<Void> streamTask;
-    private FFmpegFrameGrabber grabber;
-    private Session webSocketSession;
-    private WebSocketContainer container;
-    private HttpClient httpClient;
-
-    // WebSocket connection URL
-    private static final String WEBSOCKET_URL = "ws://localhost:8080";
+    private CameraStreamManager streamManager;
+    private CameraSession activeSession;
+    private StandbyPool standbyPool; // Previous and next carousel cameras, kept connected
+    private RecordingManager recordingManager;
+    private MotionMonitor motionMonitor;
+    private final Map<String, Double> motionScores = new HashMap<>(); // Cameras in motion, by changed share
+    private final Set<String> motionRecordings = new HashSet<>(); // Started by motion, stopped when it ends
+    private ThumbnailCache thumbnailCache;
+    private PlaybackEngine playbackEngine;
+    private FramePresenter playbackPresenter;
+    private boolean updatingProgress = false; // Slider moved by playback, not by the user
+    private boolean resumeAfterScrub = false;
+    private boolean refreshingRecordings = false;
+    private FramePresenter framePresenter;
+    private final List<CameraTile> gridTiles = new ArrayList<>();
+    private int gridSize = 1; // 1 shows the carousel, otherwise a gridSize x gridSize wall
+    private CameraTile maximisedTile; // Tile filling the wall, the others drop to keyframes only
+    private boolean windowMinimised = false;
+    private PtzController ptzController;
+
+    // Standby sessions hold decoder surfaces and pooled frames, a 1080p one is roughly 45 MB
+    private static final int STANDBY_SESSIONS = 4;
+    private static final long STANDBY_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    private static final double THUMBNAIL_ROW_HEIGHT = 76;
 
     // Camera info class to store camera details
     private static class CameraInfo {
@@ -117,6 +234,8 @@ public class CameraController implements Initializable {
         String password;
         int port;
         boolean isPtz;
+        PtzController.Camera ptzCamera; // Null unless isPtz
+        StreamPacer.Mode pacingMode = StreamPacer.Mode.LIVE;
 
         CameraInfo(String url) {
             this.url = url;
@@ -158,6 +277,9 @@ public class CameraController implements Initializable {
                     // Determine if it's a PTZ camera based on IP or other criteria
                     // You can customize this logic based on your camera setup
                     this.isPtz = rtspUrl.contains("192.168.100.23"); // First camera is PTZ
+                    if (isPtz) {
+                        this.ptzCamera = new PtzController.Camera(ip, username, password);
+                    }
                 }
             } catch (Exception e) {
                 System.err.println("Error parsing RTSP URL: " + e.getMessage());
@@ -166,285 +288,839 @@ public class CameraController implements Initializable {
         }
     }
 
+    // A row of the recordings list, its thumbnail arrives in the background while it is on screen
+    private class RecordingCell extends ListCell<Path> implements ThumbnailCache.Target {
+        private final ImageView thumbnailView = new ImageView();
+        private volatile Path wantedRecording;
+
+        RecordingCell() {
+            thumbnailView.setFitWidth(120);
+            thumbnailView.setFitHeight(THUMBNAIL_ROW_HEIGHT - 8);
+            thumbnailView.setPreserveRatio(true);
+        }
+
+        @Override
+        protected void updateItem(Path item, boolean empty) {
+            super.updateItem(item, empty);
+            wantedRecording = empty ? null : item;
+            if (empty || item == null) {
+                setText(null);
+                setGraphic(null);
+                return;
+            }
+
+            setText(recordingManager.getRecordingFolder().relativize(item).toString());
+            setGraphic(thumbnailView);
+            Image thumbnail = thumbnailCache.getCached(item);
+            thumbnailView.setImage(thumbnail);
+            if (thumbnail == null) {
+                thumbnailCache.request(item, this);
+            }
+        }
+
+        @Override
+        public Path getWantedRecording() {
+            return wantedRecording;
+        }
+
+        @Override
+        public void showThumbnail(Path recording, Image thumbnail) {
+            if (recording.equals(getItem())) {
+                thumbnailView.setImage(thumbnail);
+            }
+        }
+    }
+
+    // One cell of the camera wall, with its own view, presenter and session
+    private static class CameraTile {
+        int cameraIndex; // Position in the camera list, changes when cameras are added or removed
+        final CameraSession session;
+        final ImageView imageView = new ImageView();
+        final Label label = new Label();
+        final StackPane pane;
+        final FramePresenter presenter;
+
+        CameraTile(int cameraIndex, CameraSession session) {
+            this.cameraIndex = cameraIndex;
+            this.session = session;
+
+            imageView.setPreserveRatio(true);
+
+            label.setStyle("-fx-text-fill: white; -fx-font-size: 10px; -fx-background-color: rgba(0,0,0,0.5);");
+            StackPane.setAlignment(label, Pos.TOP_LEFT);
+
+            pane = new StackPane(imageView, label);
+            pane.setStyle("-fx-background-color: black;");
+
+            presenter = new FramePresenter(imageView);
+            presenter.setSession(session);
+            presenter.start();
+        }
+
+        void resize(double width, double height, double renderScale) {
+            imageView.setFitWidth(width);
+            imageView.setFitHeight(height);
+            pane.setPrefSize(width, height);
+            session.requestViewport(this, width * renderScale, height * renderScale);
+        }
+    }
+
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
         executorService = Executors.newCachedThreadPool();
-        httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-
-        // Configure image view
+        streamManager = new CameraStreamManager(this);
+        standbyPool = new StandbyPool(streamManager, STANDBY_SESSIONS, STANDBY_MEMORY_BUDGET);
+        recordingManager = new RecordingManager(streamManager,
+                Paths.get(System.getProperty("user.home"), "CameraRecordings"),
+                segment -> Platform.runLater(this::refreshRecordingList));
+        thumbnailCache = new ThumbnailCache(recordingManager.getRecordingFolder());
+        motionMonitor = new MotionMonitor(streamManager, MotionWorker.DEFAULT_THREADS,
+                (detector, event) -> Platform.runLater(() -> onMotion(event)));
+        ptzController = new PtzController();
+
+        // Configure image view, resized with its container from then on
         videoImageView.setFitWidth(640);
         videoImageView.setFitHeight(480);
         videoImageView.setPreserveRatio(true);
 
+        // Show the newest frame on each pulse instead of queueing one runLater per frame
+        framePresenter = new FramePresenter(videoImageView);
+        framePresenter.start();
+
+        // Views follow the container, and the decoders follow the views
+        videoContainer.widthProperty().addListener((obs, oldVal, newVal) -> resizeViews());
+        videoContainer.heightProperty().addListener((obs, oldVal, newVal) -> resizeViews());
+
+        // Cameras nobody can see drop to keyframe-only decoding
+        liveTab.selectedProperty().addListener((obs, oldVal, newVal) -> updateVisibility());
+
         // Initialize carousel controls
         setupCarouselControls();
 
         // Initialize PTZ controls
         setupPtzControls();
 
-        // Initialize WebSocket connection
-        initializeWebSocket();
+        // Initialize pacing mode and layout selectors
+        setupPacingControls();
+        setupLayoutControls();
+
+        // Initialize recording controls
+        setupRecordingControls();
+        setupMotionControls();
+
+        // The engine owns the WebSocket and reports camera lists through the listener
+        streamManager.initialize();
+        streamManager.startMetricsEndpoint(MetricsEndpoint.DEFAULT_PORT);
+        statsCheckBox.setOnAction(e -> updateStatsOverlay());
+        serveCheckBox.setOnAction(e -> {
+            if (serveCheckBox.isSelected()) {
+                streamManager.startStreamServer(StreamServer.DEFAULT_PORT);
+                // The port may be taken by another instance
+                serveCheckBox.setSelected(streamManager.isStreamServerRunning());
+            } else {
+                streamManager.stopStreamServer();
+            }
+        });
+        hlsCheckBox.setOnAction(e -> {
+            if (hlsCheckBox.isSelected()) {
+                // Parts of this duration, segments of four parts
+                int partMillis = hlsPartSpinner.getValue();
+                streamManager.startHlsServer(HlsServer.DEFAULT_PORT,
+                        new HlsSegmenter.Settings(partMillis, partMillis * 4L, hlsWindowSpinner.getValue()), null);
+                hlsCheckBox.setSelected(streamManager.isHlsServerRunning());
+            } else {
+                streamManager.stopHlsServer();
+            }
+            // Settings apply when the server starts
+            hlsPartSpinner.setDisable(hlsCheckBox.isSelected());
+            hlsWindowSpinner.setDisable(hlsCheckBox.isSelected());
+        });
     }
 
-    private void setupCarouselControls() {
-        // Initially hide carousel controls until we have multiple cameras
-        carouselControls.setVisible(false);
-        carouselControls.setAlignment(Pos.CENTER);
+    private void setupRecordingControls() {
+        Path folder = recordingManager.getRecordingFolder();
+        recordingPathLabel.setText("Recording Path: " + folder);
 
-        prevButton.setOnAction(e -> switchToPreviousCamera());
-        nextButton.setOnAction(e -> switchToNextCamera());
+        // Segments are listed relative to the recording folder, e.g. camera/20240101-120000-000.mp4
+        // Fixed height rows keep scrolling through thousands of segments cheap
+        recordingListView.setFixedCellSize(THUMBNAIL_ROW_HEIGHT);
+        recordingListView.setCellFactory(list -> new RecordingCell());
 
-        updateCarouselDisplay();
+        recordingListView.getSelectionModel().selectedItemProperty()
+                .addListener((obs, oldVal, newVal) -> {
+                    if (!refreshingRecordings) {
+                        openPlayback(newVal);
+                    }
+                });
+        setupPlaybackControls();
+
+        selectFolderButton.setOnAction(e -> selectRecordingFolder());
+        recordCheckBox.setOnAction(e -> recordingManager.recordOnly(
+                recordCheckBox.isSelected() ? cameraUrls : new ArrayList<>()));
+        eventRecordButton.setOnAction(e -> toggleEventRecording());
+        refreshRecordingList();
+
+        preEventSecondsSpinner.valueProperty().addListener((obs, oldVal, newVal) -> updatePreEventBuffer());
+        preEventMemorySpinner.valueProperty().addListener((obs, oldVal, newVal) -> updatePreEventBuffer());
+        updatePreEventBuffer();
     }
 
-    private void setupPtzControls() {
-        // Initially hide PTZ controls
-        ptzControlsBox.setVisible(false);
+    private void setupPlaybackControls() {
+        // Recorded frames go through the same presenter path as live ones
+        // Leave room for the 2px border
+        playbackContainer.widthProperty().addListener((obs, oldVal, newVal) ->
+                playbackImageView.setFitWidth(Math.max(160, newVal.doubleValue() - 4)));
+        playbackContainer.heightProperty().addListener((obs, oldVal, newVal) ->
+                playbackImageView.setFitHeight(Math.max(120, newVal.doubleValue() - 4)));
+        playbackPresenter = new FramePresenter(playbackImageView);
+        playbackPresenter.start();
+
+        for (int speed : PlaybackEngine.SPEEDS) {
+            playbackSpeedComboBox.getItems().add(speed + "x");
+        }
+        playbackSpeedComboBox.setValue("1x");
+        playbackSpeedComboBox.setOnAction(e -> {
+            if (playbackEngine != null) {
+                playbackEngine.setSpeed(selectedPlaybackSpeed());
+            }
+        });
 
-        // Setup PTZ button actions
-        upButton.setOnAction(e -> sendPtzCommand("up"));
-        downButton.setOnAction(e -> sendPtzCommand("down"));
-        leftButton.setOnAction(e -> sendPtzCommand("left"));
-        rightButton.setOnAction(e -> sendPtzCommand("right"));
-        homeButton.setOnAction(e -> sendPtzCommand("home"));
-        zoomInButton.setOnAction(e -> sendPtzCommand("zoomIn"));
-        zoomOutButton.setOnAction(e -> sendPtzCommand("zoomOut"));
+        playButton.setOnAction(e -> {
+            if (playbackEngine != null) {
+                playbackEngine.play();
+            }
+        });
+        pauseButton.setOnAction(e -> {
+            if (playbackEngine != null) {
+                playbackEngine.pause();
+            }
+        });
+        stopButton.setOnAction(e -> {
+            if (playbackEngine != null) {
+                playbackEngine.stop();
+            }
+        });
 
-        // Setup speed slider
-        speedSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            speedLabel.setText(String.format("Speed: %.1f", newVal.doubleValue()));
+        // Keyframes only while dragging, the exact frame once released
+        progressSlider.valueChangingProperty().addListener((obs, wasChanging, changing) -> {
+            if (playbackEngine == null) {
+                return;
+            }
+            if (changing) {
+                resumeAfterScrub = playbackEngine.getState() == PlaybackEngine.State.PLAYING;
+                playbackEngine.pause();
+            } else {
+                playbackEngine.seek(sliderMicros());
+                if (resumeAfterScrub) {
+                    playbackEngine.play();
+                }
+            }
         });
+        progressSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (playbackEngine == null || updatingProgress) {
+                return;
+            }
+            if (progressSlider.isValueChanging()) {
+                playbackEngine.scrub(sliderMicros());
+            } else {
+                // A click on the track
+                playbackEngine.seek(sliderMicros());
+            }
+        });
+        goToTimeField.setOnAction(e -> goToTime());
+        goToTimeButton.setOnAction(e -> goToTime());
+        updatePlaybackControls();
+    }
 
-        // Mouse press and release for continuous movement
-        setupContinuousMovement();
+    /**
+     * Plays the selected camera's footage from a time of day on the selected segment's date,
+     * whichever segment holds it. The timeline finds the segment and keyframe by binary search.
+     */
+    private void goToTime() {
+        Path selected = recordingListView.getSelectionModel().getSelectedItem();
+        long selectedStart = selected != null ? RecordingTimeline.parseStartMillis(selected) : -1;
+        if (selectedStart < 0) {
+            return;
+        }
+        LocalTime time;
+        try {
+            time = LocalTime.parse(goToTimeField.getText().trim());
+        } catch (DateTimeParseException e) {
+            goToTimeField.setText("");
+            return;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate date = Instant.ofEpochMilli(selectedStart).atZone(zone).toLocalDate();
+        long wallMillis = date.atTime(time).atZone(zone).toInstant().toEpochMilli();
+        Path cameraDirectory = selected.getParent();
+
+        // Listing the directory and mapping an index touch the disk
+        executorService.submit(() -> {
+            RecordingTimeline.Position position;
+            try {
+                position = RecordingTimeline.load(cameraDirectory).seek(wallMillis);
+            } catch (IOException e) {
+                System.err.println("Error loading recordings: " + e.getMessage());
+                return;
+            }
+            if (position == null) {
+                return;
+            }
+            Platform.runLater(() -> {
+                // Selecting the segment opens it, unless the list is not showing it
+                recordingListView.getSelectionModel().select(position.getSegment());
+                openPlayback(position.getSegment());
+                // From the keyframe on by presentation time, the engine decodes forward to the exact frame
+                long offsetMicros = Math.max(0, wallMillis - position.getWallMillis()) * 1000;
+                playbackEngine.seek(position.getPtsMicros() + offsetMicros);
+            });
+        });
     }
 
-    private void setupContinuousMovement() {
-        // For continuous movement while button is pressed
-        upButton.setOnMousePressed(e -> startContinuousMovement("up"));
-        upButton.setOnMouseReleased(e -> stopContinuousMovement());
+    private int selectedPlaybackSpeed() {
+        String value = playbackSpeedComboBox.getValue();
+        return value == null ? 1 : Integer.parseInt(value.substring(0, value.length() - 1));
+    }
 
-        downButton.setOnMousePressed(e -> startContinuousMovement("down"));
-        downButton.setOnMouseReleased(e -> stopContinuousMovement());
+    // The slider runs in seconds
+    private long sliderMicros() {
+        return (long) (progressSlider.getValue() * 1_000_000);
+    }
 
-        leftButton.setOnMousePressed(e -> startContinuousMovement("left"));
-        leftButton.setOnMouseReleased(e -> stopContinuousMovement());
+    private void openPlayback(Path recording) {
+        if (playbackEngine != null && playbackEngine.getFile().equals(recording)) {
+            return;
+        }
+        closePlayback();
+        if (recording == null) {
+            return;
+        }
 
-        rightButton.setOnMousePressed(e -> startContinuousMovement("right"));
-        rightButton.setOnMouseReleased(e -> stopContinuousMovement());
+        playbackEngine = new PlaybackEngine(recording, new PlaybackEngine.Listener() {
+            @Override
+            public void onFrame(PlaybackEngine engine, VideoFrame frame) {
+                playbackPresenter.showFrame(frame);
+            }
 
-        zoomInButton.setOnMousePressed(e -> startContinuousMovement("zoomIn"));
-        zoomInButton.setOnMouseReleased(e -> stopContinuousMovement());
+            @Override
+            public void onProgress(PlaybackEngine engine, long positionMicros, long durationMicros) {
+                Platform.runLater(() -> {
+                    if (engine != playbackEngine || progressSlider.isValueChanging()) {
+                        return;
+                    }
+                    updatingProgress = true;
+                    progressSlider.setMax(Math.max(1, durationMicros / 1_000_000.0));
+                    progressSlider.setValue(positionMicros / 1_000_000.0);
+                    updatingProgress = false;
+                    timeLabel.setText(formatPlaybackTime(positionMicros) + " / " + formatPlaybackTime(durationMicros));
+                });
+            }
 
-        zoomOutButton.setOnMousePressed(e -> startContinuousMovement("zoomOut"));
-        zoomOutButton.setOnMouseReleased(e -> stopContinuousMovement());
+            @Override
+            public void onStateChanged(PlaybackEngine engine, PlaybackEngine.State state) {
+                Platform.runLater(() -> updatePlaybackControls());
+            }
+        });
+        playbackEngine.setSpeed(selectedPlaybackSpeed());
+        playbackEngine.start(executorService);
+        updatePlaybackControls();
     }
 
-    private Task<Void> continuousMovementTask;
-    private volatile boolean isContinuousMovement = false;
-
-    private void startContinuousMovement(String direction) {
-        if (continuousMovementTask != null) {
-            continuousMovementTask.cancel(true);
+    private void closePlayback() {
+        if (playbackEngine != null) {
+            playbackEngine.close();
+            playbackEngine = null;
         }
+        updatePlaybackControls();
+    }
 
-        isContinuousMovement = true;
-        continuousMovementTask = new Task<Void>() {
-            @Override
-            protected Void call() throws Exception {
-                while (isContinuousMovement && !isCancelled()) {
-                    sendPtzCommandInternal(direction);
-                    Thread.sleep(100); // Send command every 100ms
-                }
-                return null;
+    private void updatePlaybackControls() {
+        PlaybackEngine.State state = playbackEngine != null ? playbackEngine.getState() : PlaybackEngine.State.STOPPED;
+        playButton.setDisable(playbackEngine == null || state == PlaybackEngine.State.PLAYING);
+        pauseButton.setDisable(playbackEngine == null || state != PlaybackEngine.State.PLAYING);
+        stopButton.setDisable(playbackEngine == null || state == PlaybackEngine.State.STOPPED);
+        progressSlider.setDisable(playbackEngine == null);
+        goToTimeButton.setDisable(recordingListView.getSelectionModel().getSelectedItem() == null);
+    }
+
+    private static String formatPlaybackTime(long micros) {
+        long seconds = micros / 1_000_000;
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+
+    private void setupMotionControls() {
+        motionCheckBox.setOnAction(e -> updateMotion());
+        recordOnMotionCheckBox.setOnAction(e -> updateMotion());
+        // Tunes the camera being looked at, each camera keeps its own threshold
+        motionThresholdSpinner.valueProperty().addListener((obs, oldVal, newVal) -> {
+            CameraInfo currentCamera = getCurrentCameraInfo();
+            if (currentCamera != null) {
+                motionMonitor.setSettings(currentCamera.url,
+                        motionMonitor.getSettings(currentCamera.url).withPixelThreshold(newVal));
             }
-        };
+        });
+    }
 
-        executorService.submit(continuousMovementTask);
+    // Detection follows the camera list like recording does, and runs whether or not a camera is shown
+    private void updateMotion() {
+        boolean monitor = motionCheckBox.isSelected() || recordOnMotionCheckBox.isSelected();
+        motionMonitor.monitorOnly(monitor ? cameraUrls : new ArrayList<>());
+        motionScores.keySet().retainAll(monitor ? cameraUrls : new ArrayList<>());
+        if (!recordOnMotionCheckBox.isSelected()) {
+            for (String url : motionRecordings) {
+                recordingManager.stopRecording(url);
+            }
+            motionRecordings.clear();
+        }
+        updateEventRecordButton();
     }
 
-    private void stopContinuousMovement() {
-        isContinuousMovement = false;
-        if (continuousMovementTask != null) {
-            continuousMovementTask.cancel(true);
+    private void onMotion(MotionDetector.MotionEvent event) {
+        String url = event.getCameraUrl();
+        if (!motionMonitor.isMonitoring(url)) {
+            return;
+        }
+        if (event.isActive()) {
+            motionScores.put(url, event.getScore());
+        } else {
+            motionScores.remove(url);
+        }
+
+        if (recordOnMotionCheckBox.isSelected()) {
+            if (event.isActive() && !recordingManager.isRecording(url)) {
+                // Starts from the pre-event buffer, so the recording shows what led up to the motion
+                recordingManager.startRecording(url);
+                motionRecordings.add(url);
+            } else if (!event.isActive() && motionRecordings.remove(url)) {
+                recordingManager.stopRecording(url);
+            }
+            updateEventRecordButton();
         }
-        // Send stop command
-        sendPtzCommandInternal("stop");
     }
 
-    private void sendPtzCommand(String command) {
-        if (getCurrentCameraInfo() == null || !getCurrentCameraInfo().isPtz) {
-            System.out.println("Current camera is not PTZ enabled");
+    private String motionText(String url) {
+        Double score = motionScores.get(url);
+        return score == null ? "" : String.format(" - Motion %.0f%%", score * 100);
+    }
+
+    private void updatePreEventBuffer() {
+        int seconds = preEventSecondsSpinner.getValue();
+        long bytesPerCamera = preEventMemorySpinner.getValue() * 1024L * 1024;
+        recordingManager.setPreEventBuffer(seconds, bytesPerCamera);
+        preEventMemoryLabel.setText(seconds == 0 ? "Pre-event buffering is off"
+                : String.format("Reserved: %d MB", recordingManager.getPreEventMemory() / (1024 * 1024)));
+    }
+
+    // Manual trigger: records the current camera from the start of its pre-event buffer
+    private void toggleEventRecording() {
+        CameraInfo currentCamera = getCurrentCameraInfo();
+        if (currentCamera == null) {
             return;
         }
+        if (recordingManager.isRecording(currentCamera.url)) {
+            recordingManager.stopRecording(currentCamera.url);
+        } else {
+            recordingManager.startRecording(currentCamera.url);
+        }
+        updateEventRecordButton();
+    }
+
+    private void updateEventRecordButton() {
+        CameraInfo currentCamera = getCurrentCameraInfo();
+        boolean recording = currentCamera != null && recordingManager.isRecording(currentCamera.url);
+        eventRecordButton.setDisable(currentCamera == null);
+        eventRecordButton.setText(recording ? "\u25A0 Stop" : "\u25CF Record");
+    }
+
+    private void selectRecordingFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Select Recording Folder");
+        File current = recordingManager.getRecordingFolder().toFile();
+        if (current.isDirectory()) {
+            chooser.setInitialDirectory(current);
+        }
+
+        File selected = chooser.showDialog(selectFolderButton.getScene().getWindow());
+        if (selected != null) {
+            recordingManager.setRecordingFolder(selected.toPath());
+            thumbnailCache.setRecordingFolder(selected.toPath());
+            recordingPathLabel.setText("Recording Path: " + selected);
+            refreshRecordingList();
+        }
+    }
+
+    // Recording follows the camera list, not the views, so switching cameras never interrupts it
+    private void updateRecording() {
+        recordingManager.bufferOnly(cameraUrls);
+        if (recordCheckBox.isSelected()) {
+            recordingManager.recordOnly(cameraUrls);
+        } else {
+            // Event recordings of cameras still in the list carry on
+            List<String> kept = new ArrayList<>(recordingManager.getRecordingUrls());
+            kept.retainAll(cameraUrls);
+            recordingManager.recordOnly(kept);
+        }
+        updatePreEventBuffer();
+    }
 
-        executorService.submit(() -> sendPtzCommandInternal(command));
+    private void refreshRecordingList() {
+        // Walking the folder touches the disk, keep it off the FX thread
+        executorService.submit(() -> {
+            List<Path> recordings = recordingManager.listRecordings();
+            Platform.runLater(() -> {
+                // New segments must not interrupt the one being played
+                Path selected = recordingListView.getSelectionModel().getSelectedItem();
+                refreshingRecordings = true;
+                recordingListView.getItems().setAll(recordings);
+                if (selected != null && recordings.contains(selected)) {
+                    recordingListView.getSelectionModel().select(selected);
+                }
+                refreshingRecordings = false;
+            });
+        });
     }
 
-    private void sendPtzCommandInternal(String command) {
+    private void setupCarouselControls() {
+        // Initially hide carousel controls until we have multiple cameras
+        carouselControls.setVisible(false);
+        carouselControls.setAlignment(Pos.CENTER);
+
+        prevButton.setOnAction(e -> switchToPreviousCamera());
+        nextButton.setOnAction(e -> switchToNextCamera());
+
+        updateCarouselDisplay();
+    }
+
+    private void setupPacingControls() {
+        pacingModeComboBox.getItems().setAll(Arrays.asList(StreamPacer.Mode.values()));
+        pacingModeComboBox.setValue(StreamPacer.Mode.LIVE);
+        pacingModeComboBox.setOnAction(e -> changePacingMode(pacingModeComboBox.getValue()));
+    }
+
+    private void changePacingMode(StreamPacer.Mode mode) {
         CameraInfo currentCamera = getCurrentCameraInfo();
-        if (currentCamera == null || !currentCamera.isPtz) {
+        if (mode == null || currentCamera == null || currentCamera.pacingMode == mode) {
             return;
         }
 
-        try {
-            String ptzUrl = buildPtzCommandUrl(currentCamera, command);
-            if (ptzUrl == null) {
-                return;
-            }
+        currentCamera.pacingMode = mode;
+        System.out.println("Pacing mode for camera " + (currentCameraIndex + 1) + " set to " + mode);
 
-            String auth = Base64.getEncoder().encodeToString(
-                    (currentCamera.username + ":" + currentCamera.password).getBytes()
-            );
+        // Applies to the running session, whichever view it is shown in
+        CameraSession session = streamManager.getSession(currentCamera.url);
+        if (session != null) {
+            session.setPacingMode(mode);
+        }
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(ptzUrl))
-                    .header("Authorization", "Basic " + auth)
-                    .timeout(Duration.ofSeconds(5))
-                    .GET()
-                    .build();
+    private void setupLayoutControls() {
+        layoutComboBox.getItems().setAll("Single", "2x2", "3x3", "4x4");
+        layoutComboBox.setValue("Single");
+        layoutComboBox.setOnAction(e -> changeLayout(layoutComboBox.getValue()));
+    }
 
-            HttpResponse<String> response = httpClient.send(request,
-                    HttpResponse.BodyHandlers.ofString());
+    private void changeLayout(String layout) {
+        int size = (layout == null || "Single".equals(layout)) ? 1 : Integer.parseInt(layout.substring(0, 1));
+        if (size == gridSize) {
+            return;
+        }
 
-            if (response.statusCode() == 200) {
-                System.out.println("PTZ command sent successfully: " + command);
+        gridSize = size;
+        if (gridSize > 1) {
+            // Open the wall first so the current camera's session is shared rather than restarted
+            buildGrid();
+            stopStreamInternal();
+            standbyPool.clear();
+        } else {
+            startStreamInternal();
+            clearGrid();
+        }
+
+        cameraGrid.setVisible(gridSize > 1);
+        updateStatsOverlay();
+        videoImageView.setVisible(gridSize == 1);
+        updateCarouselDisplay();
+    }
+
+    private void resizeViews() {
+        // Leave room for the 2px border
+        double width = Math.max(160, videoContainer.getWidth() - 4);
+        double height = Math.max(120, videoContainer.getHeight() - 4);
+
+        // Decode at physical pixels so a maximised view on a HiDPI screen gets native resolution
+        double renderScale = 1.0;
+        if (videoContainer.getScene() != null && videoContainer.getScene().getWindow() != null) {
+            renderScale = videoContainer.getScene().getWindow().getOutputScaleX();
+        }
+
+        videoImageView.setFitWidth(width);
+        videoImageView.setFitHeight(height);
+        if (activeSession != null) {
+            activeSession.requestViewport(framePresenter, width * renderScale, height * renderScale);
+            prepareStandby(width * renderScale, height * renderScale);
+        }
+
+        // Tiles share the space minus the 2px gaps, a maximised tile takes all of it
+        double tileWidth = (width - (gridSize - 1) * 2.0) / gridSize;
+        double tileHeight = (height - (gridSize - 1) * 2.0) / gridSize;
+        for (CameraTile tile : gridTiles) {
+            if (tile == maximisedTile) {
+                tile.resize(width, height, renderScale);
             } else {
-                System.out.println("PTZ command failed: " + response.statusCode());
+                tile.resize(tileWidth, tileHeight, renderScale);
             }
-
-        } catch (Exception e) {
-            System.err.println("Error sending PTZ command: " + e.getMessage());
         }
     }
 
-    private String buildPtzCommandUrl(CameraInfo camera, String command) {
-        double speed = speedSlider.getValue();
-        int speedValue = (int) (speed * 8); // Convert to camera speed range (0-8)
-
-        String baseUrl = String.format("http://%s/cgi-bin/ptz.cgi", camera.ip);
+    // Called by the application when the stage is minimised or restored
+    public void setWindowMinimised(boolean minimised) {
+        windowMinimised = minimised;
+        updateVisibility();
+    }
 
-        // These URLs might need to be adjusted based on your specific camera model
-        // Common formats for different camera brands:
+    // Keeps the neighbours of the current camera warm at the size they will be shown at
+    private void prepareStandby(double width, double height) {
+        int count = cameraInfoList.size();
+        if (gridSize > 1 || count < 2) {
+            return;
+        }
 
-        switch (command) {
-            case "up":
-                return baseUrl + "?action=start&channel=0&code=Up&arg1=" + speedValue + "&arg2=" + speedValue;
-            case "down":
-                return baseUrl + "?action=start&channel=0&code=Down&arg1=" + speedValue + "&arg2=" + speedValue;
-            case "left":
-                return baseUrl + "?action=start&channel=0&code=Left&arg1=" + speedValue + "&arg2=" + speedValue;
-            case "right":
-                return baseUrl + "?action=start&channel=0&code=Right&arg1=" + speedValue + "&arg2=" + speedValue;
-            case "zoomIn":
-                return baseUrl + "?action=start&channel=0&code=ZoomTele&arg1=" + speedValue + "&arg2=" + speedValue;
-            case "zoomOut":
-                return baseUrl + "?action=start&channel=0&code=ZoomWide&arg1=" + speedValue + "&arg2=" + speedValue;
-            case "home":
-                return baseUrl + "?action=start&channel=0&code=GotoPreset&arg1=1&arg2=1";
-            case "stop":
-                return baseUrl + "?action=stop&channel=0&code=Up"; // Stop current movement
-            default:
-                return null;
+        for (int offset : new int[] {1, -1}) {
+            CameraInfo neighbour = cameraInfoList.get((currentCameraIndex + offset + count) % count);
+            if (!neighbour.url.equals(activeSession.getUrl())) {
+                standbyPool.prepare(neighbour.url, neighbour.pacingMode, width, height);
+            }
         }
     }
 
-    private CameraInfo getCurrentCameraInfo() {
-        if (currentCameraIndex >= 0 && currentCameraIndex < cameraInfoList.size()) {
-            return cameraInfoList.get(currentCameraIndex);
+    // The single view shows a full overlay, wall tiles add a short line to their labels on the next status
+    private void updateStatsOverlay() {
+        boolean show = statsCheckBox.isSelected() && gridSize == 1;
+        statsLabel.setVisible(show);
+        if (show && activeSession != null) {
+            statsLabel.setText(activeSession.getMetrics().summary());
         }
-        return null;
     }
 
-    private void initializeWebSocket() {
-        try {
-            container = ContainerProvider.getWebSocketContainer();
-            statusLabel.setText("Status: Connecting to WebSocket...");
+    private void updateVisibility() {
+        boolean shown = liveTab.isSelected() && !windowMinimised;
 
-            URI serverEndpointUri = new URI(WEBSOCKET_URL);
-            webSocketSession = container.connectToServer(this, serverEndpointUri);
+        if (activeSession != null) {
+            activeSession.setVisibility(framePresenter, shown ? CameraSession.Visibility.VISIBLE : CameraSession.Visibility.HIDDEN);
+        }
 
-        } catch (Exception e) {
-            Platform.runLater(() -> {
-                statusLabel.setText("Status: WebSocket connection failed - " + e.getMessage());
-            });
+        for (CameraTile tile : gridTiles) {
+            boolean tileShown = shown && (maximisedTile == null || maximisedTile == tile);
+            tile.session.setVisibility(tile, tileShown ? CameraSession.Visibility.VISIBLE : CameraSession.Visibility.HIDDEN);
+        }
+    }
+
+    private void buildGrid() {
+        clearGrid();
 
-            // Retry connection after 5 seconds
-            scheduleWebSocketReconnect();
+        int tileCount = Math.min(cameraInfoList.size(), gridSize * gridSize);
+
+        for (int i = 0; i < tileCount; i++) {
+            gridTiles.add(createTile(i, cameraInfoList.get(i)));
         }
+
+        layoutGrid();
     }
 
-    private void scheduleWebSocketReconnect() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(5000); // Wait 5 seconds before retry
-                Platform.runLater(this::initializeWebSocket);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    // After a camera list change: tiles of cameras still on the wall keep streaming, moved if needed
+    private void updateGrid() {
+        Map<String, CameraTile> existing = new HashMap<>();
+        for (CameraTile tile : gridTiles) {
+            existing.put(tile.session.getUrl(), tile);
+        }
+
+        List<CameraTile> tiles = new ArrayList<>();
+        int tileCount = Math.min(cameraInfoList.size(), gridSize * gridSize);
+        for (int i = 0; i < tileCount; i++) {
+            CameraInfo camera = cameraInfoList.get(i);
+            CameraTile tile = existing.remove(camera.url);
+            if (tile != null) {
+                tile.cameraIndex = i;
+            } else {
+                tile = createTile(i, camera);
             }
-        }).start();
+            tiles.add(tile);
+        }
+        for (CameraTile removed : existing.values()) {
+            closeTile(removed);
+        }
+
+        gridTiles.clear();
+        gridTiles.addAll(tiles);
+        if (!gridTiles.contains(maximisedTile)) {
+            maximisedTile = null;
+        }
+        layoutGrid();
     }
 
-    @OnOpen
-    public void onWebSocketOpen(Session session) {
-        Platform.runLater(() -> {
-            statusLabel.setText("Status: WebSocket connected - Waiting for camera URLs...");
+    private CameraTile createTile(int cameraIndex, CameraInfo camera) {
+        CameraTile tile = new CameraTile(cameraIndex, streamManager.openSession(camera.url, camera.pacingMode));
+        tile.label.setText("Camera " + (cameraIndex + 1));
+
+        // Double click a tile to maximise it within the wall, again to restore the wall
+        tile.pane.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) {
+                toggleMaximisedTile(tile);
+            }
         });
-        System.out.println("WebSocket connection opened");
+        return tile;
     }
 
-    @OnMessage
-    public void onWebSocketMessage(String message) {
-        System.out.println("Received message: " + message);
+    private void toggleMaximisedTile(CameraTile tile) {
+        maximisedTile = (maximisedTile == tile) ? null : tile;
 
-        if (message == null || message.trim().isEmpty()) {
-            return;
-        }
+        // PTZ controls follow the camera being looked at
+        currentCameraIndex = tile.cameraIndex;
+        updatePtzControls();
 
-        // Handle multiple URLs separated by comma or semicolon
-        String[] urls = message.trim().split("[,;]");
-        List<String> newUrls = new ArrayList<>();
+        layoutGrid();
+    }
 
-        for (String url : urls) {
-            String trimmedUrl = url.trim();
-            if (trimmedUrl.startsWith("rtsp://")) {
-                newUrls.add(trimmedUrl);
+    private void layoutGrid() {
+        cameraGrid.getChildren().clear();
+        for (int i = 0; i < gridTiles.size(); i++) {
+            CameraTile tile = gridTiles.get(i);
+            if (maximisedTile == null) {
+                cameraGrid.add(tile.pane, i % gridSize, i / gridSize);
+            } else if (tile == maximisedTile) {
+                cameraGrid.add(tile.pane, 0, 0);
             }
         }
 
-        if (!newUrls.isEmpty()) {
-            Platform.runLater(() -> {
-                updateCameraUrls(newUrls);
-            });
-        } else {
-            Platform.runLater(() -> {
-                statusLabel.setText("Status: No valid RTSP URLs received");
-            });
+        resizeViews();
+        updateVisibility();
+    }
+
+    private void clearGrid() {
+        for (CameraTile tile : gridTiles) {
+            closeTile(tile);
         }
+        gridTiles.clear();
+        maximisedTile = null;
+        cameraGrid.getChildren().clear();
     }
 
-    @OnClose
-    public void onWebSocketClose(Session session, CloseReason closeReason) {
+    private void closeTile(CameraTile tile) {
+        tile.presenter.stop();
+        tile.session.releaseViewport(tile);
+        streamManager.closeSession(tile.session.getUrl());
+    }
+
+    @Override
+    public void onSessionStatus(CameraSession session, String status) {
         Platform.runLater(() -> {
-            statusLabel.setText("Status: WebSocket disconnected - " + closeReason.getReasonPhrase());
+            int cameraIndex = cameraUrls.indexOf(session.getUrl());
+
+            for (CameraTile tile : gridTiles) {
+                if (tile.session == session) {
+                    tile.label.setText("Camera " + (cameraIndex + 1) + " " + status + motionText(session.getUrl())
+                            + (statsCheckBox.isSelected() ? "\n" + session.getMetrics().shortSummary() : ""));
+                }
+            }
+
+            if (session == activeSession) {
+                statusLabel.setText("Status: Camera " + (cameraIndex + 1) + " " + status + motionText(session.getUrl()));
+                if (statsCheckBox.isSelected()) {
+                    statsLabel.setText(session.getMetrics().summary());
+                }
+            }
         });
-        System.out.println("WebSocket connection closed: " + closeReason.getReasonPhrase());
+    }
+
+    @Override
+    public void onWebSocketStatusUpdate(String status) {
+        Platform.runLater(() -> statusLabel.setText(status));
+    }
 
-        // Attempt to reconnect after 3 seconds
-        scheduleWebSocketReconnect();
+    @Override
+    public void onCameraListReceived(List<String> cameras) {
+        Platform.runLater(() -> updateCameraUrls(cameras));
     }
 
-    @OnError
-    public void onWebSocketError(Session session, Throwable throwable) {
-        Platform.runLater(() -> {
-            statusLabel.setText("Status: WebSocket error - " + throwable.getMessage());
+    private void setupPtzControls() {
+        // Initially hide PTZ controls
+        ptzControlsBox.setVisible(false);
+
+        // Directions move while pressed, see setupContinuousMovement
+        homeButton.setOnAction(e -> sendPtzCommand("home"));
+
+        // Setup speed slider
+        speedSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            speedLabel.setText(String.format("Speed: %.1f", newVal.doubleValue()));
+            CameraInfo currentCamera = getCurrentCameraInfo();
+            if (currentCamera != null && currentCamera.ptzCamera != null) {
+                ptzController.setSpeed(currentCamera.ptzCamera, ptzSpeed());
+            }
         });
-        System.err.println("WebSocket error: " + throwable.getMessage());
 
-        // Attempt to reconnect after 3 seconds
-        scheduleWebSocketReconnect();
+        // Mouse press and release for continuous movement
+        setupContinuousMovement();
+    }
+
+    private void setupContinuousMovement() {
+        // For continuous movement while button is pressed
+        upButton.setOnMousePressed(e -> startContinuousMovement("up"));
+        upButton.setOnMouseReleased(e -> stopContinuousMovement());
+
+        downButton.setOnMousePressed(e -> startContinuousMovement("down"));
+        downButton.setOnMouseReleased(e -> stopContinuousMovement());
+
+        leftButton.setOnMousePressed(e -> startContinuousMovement("left"));
+        leftButton.setOnMouseReleased(e -> stopContinuousMovement());
+
+        rightButton.setOnMousePressed(e -> startContinuousMovement("right"));
+        rightButton.setOnMouseReleased(e -> stopContinuousMovement());
+
+        zoomInButton.setOnMousePressed(e -> startContinuousMovement("zoomIn"));
+        zoomInButton.setOnMouseReleased(e -> stopContinuousMovement());
+
+        zoomOutButton.setOnMousePressed(e -> startContinuousMovement("zoomOut"));
+        zoomOutButton.setOnMouseReleased(e -> stopContinuousMovement());
+    }
+
+    // The camera the held direction was sent to, stopped on release even if the view moved on
+    private PtzController.Camera movingCamera;
+
+    private void startContinuousMovement(String direction) {
+        CameraInfo currentCamera = getCurrentCameraInfo();
+        if (currentCamera == null || currentCamera.ptzCamera == null) {
+            return;
+        }
+        movingCamera = currentCamera.ptzCamera;
+        ptzController.press(movingCamera, direction, ptzSpeed());
+    }
+
+    private void stopContinuousMovement() {
+        if (movingCamera != null) {
+            ptzController.stop(movingCamera);
+            movingCamera = null;
+        }
+    }
+
+    private void sendPtzCommand(String command) {
+        CameraInfo currentCamera = getCurrentCameraInfo();
+        if (currentCamera == null || currentCamera.ptzCamera == null) {
+            System.out.println("Current camera is not PTZ enabled");
+            return;
+        }
+        ptzController.send(currentCamera.ptzCamera, command, ptzSpeed());
+    }
+
+    // Read on the FX thread, the camera's speed range is 0-8
+    private int ptzSpeed() {
+        return (int) (speedSlider.getValue() * 8);
+    }
+
+    private CameraInfo getCurrentCameraInfo() {
+        if (currentCameraIndex >= 0 && currentCameraIndex < cameraInfoList.size()) {
+            return cameraInfoList.get(currentCameraIndex);
+        }
+        return null;
     }
 
     private void updateCameraUrls(List<String> newUrls) {
@@ -456,23 +1132,41 @@ public class CameraController implements Initializable {
 
         System.out.println("Updating camera URLs: " + newUrls.size() + " cameras received");
 
-        // Stop current stream
-        stopStreamInternal();
-
-        // Update camera list and create camera info objects
+        // Cameras still listed keep their settings and their sessions, wherever they moved to
+        Map<String, CameraInfo> previous = new HashMap<>();
+        for (CameraInfo info : cameraInfoList) {
+            previous.put(info.url, info);
+        }
+        CameraInfo currentCamera = getCurrentCameraInfo();
         cameraUrls = new ArrayList<>(newUrls);
-        cameraInfoList.clear();
+        cameraInfoList = new ArrayList<>();
         for (String url : newUrls) {
-            cameraInfoList.add(new CameraInfo(url));
+            CameraInfo info = previous.get(url);
+            cameraInfoList.add(info != null ? info : new CameraInfo(url));
+        }
+        for (String url : standbyPool.getCameraUrls()) {
+            if (!cameraUrls.contains(url)) {
+                standbyPool.evict(url);
+            }
         }
-        currentCameraIndex = 0;
+
+        // The camera on screen stays on screen unless it was removed
+        int kept = currentCamera != null ? cameraUrls.indexOf(currentCamera.url) : -1;
+        if (kept < 0) {
+            stopStreamInternal();
+        }
+        currentCameraIndex = Math.max(0, kept);
 
         // Update UI
         updateCarouselDisplay();
         updatePtzControls();
+        updateRecording();
+        updateMotion();
 
-        // Start streaming the first camera
-        if (!cameraUrls.isEmpty()) {
+        // Start streaming the first camera, or update the wall
+        if (gridSize > 1) {
+            updateGrid();
+        } else if (!cameraUrls.isEmpty()) {
             startStreamInternal();
         }
     }
@@ -485,18 +1179,28 @@ public class CameraController implements Initializable {
             return;
         }
 
-        // Show carousel controls only if multiple cameras
-        carouselControls.setVisible(cameraUrls.size() > 1);
+        // Show carousel controls only if multiple cameras are shown one at a time
+        carouselControls.setVisible(gridSize == 1 && cameraUrls.size() > 1);
 
         // Update camera info
         CameraInfo currentCamera = getCurrentCameraInfo();
         String cameraType = (currentCamera != null && currentCamera.isPtz) ? " (PTZ)" : " (Fixed)";
-        cameraInfoLabel.setText("Camera " + (currentCameraIndex + 1) + " of " + cameraUrls.size() + cameraType);
+        if (gridSize > 1) {
+            cameraInfoLabel.setText("Camera wall " + gridSize + "x" + gridSize + " - "
+                    + Math.min(cameraUrls.size(), gridSize * gridSize) + " of " + cameraUrls.size() + " cameras");
+        } else {
+            cameraInfoLabel.setText("Camera " + (currentCameraIndex + 1) + " of " + cameraUrls.size() + cameraType);
+        }
         cameraCountLabel.setText(cameraUrls.size() + " camera(s) available");
+        if (currentCamera != null) {
+            pacingModeComboBox.setValue(currentCamera.pacingMode);
+            motionThresholdSpinner.getValueFactory().setValue(motionMonitor.getSettings(currentCamera.url).getPixelThreshold());
+        }
 
         // Enable/disable navigation buttons
         prevButton.setDisable(cameraUrls.size() <= 1);
         nextButton.setDisable(cameraUrls.size() <= 1);
+        updateEventRecordButton();
     }
 
     private void updatePtzControls() {
@@ -530,192 +1234,78 @@ public class CameraController implements Initializable {
 
         // Only switch if it's a different camera
         String newUrl = cameraUrls.get(currentCameraIndex);
-        if (!newUrl.equals(activeStreamUrl)) {
-            stopStreamInternal();
+        if (activeSession == null || !newUrl.equals(activeSession.getUrl())) {
+            stopContinuousMovement();
             startStreamInternal();
         }
     }
 
     private void startStreamInternal() {
-        if (isStreaming || cameraUrls.isEmpty() || currentCameraIndex >= cameraUrls.size()) {
+        if (gridSize > 1 || cameraUrls.isEmpty() || currentCameraIndex >= cameraUrls.size()) {
             return;
         }
 
-        String cameraUrl = cameraUrls.get(currentCameraIndex);
+        CameraInfo cameraInfo = getCurrentCameraInfo();
 
         // Don't restart if same URL is already streaming
-        if (cameraUrl.equals(activeStreamUrl) && isStreaming) {
-            System.out.println("Camera already streaming: " + cameraUrl);
+        if (activeSession != null && activeSession.getUrl().equals(cameraInfo.url)) {
+            System.out.println("Camera already streaming: " + cameraInfo.url);
             return;
         }
 
-        isStreaming = true;
-        activeStreamUrl = cameraUrl;
-        statusLabel.setText("Status: Connecting to camera " + (currentCameraIndex + 1) + "...");
-
-        streamTask = new Task<Void>() {
-            @Override
-            protected Void call() throws Exception {
-                try {
-                    streamFromCamera(cameraUrl);
-                } catch (Exception e) {
-                    Platform.runLater(() -> {
-                        statusLabel.setText("Status: Camera " + (currentCameraIndex + 1) + " failed - " + e.getMessage());
-                        // Auto-retry connection after 10 seconds
-                        scheduleStreamReconnect();
-                    });
-                }
-                return null;
-            }
-        };
-
-        executorService.submit(streamTask);
-    }
-
-    private void scheduleStreamReconnect() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(10000); // Wait 10 seconds before retry
-                if (!cameraUrls.isEmpty() && !isStreaming) {
-                    Platform.runLater(this::startStreamInternal);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
-    }
-
-    private void streamFromCamera(String cameraUrl) {
-        Java2DFrameConverter converter = new Java2DFrameConverter();
-
-        try {
-            // Initialize FFmpeg frame grabber
-            grabber = new FFmpegFrameGrabber(cameraUrl);
-
-            // Set options for better streaming
-            grabber.setOption("rtsp_transport", "tcp");
-            grabber.setOption("buffer_size", "1024000");
-            grabber.setOption("max_delay", "0");
-            grabber.setOption("stimeout", "5000000"); // 5 second timeout
-            grabber.setImageWidth(640);
-            grabber.setImageHeight(480);
-            grabber.setFrameRate(30);
-
-            Platform.runLater(() -> statusLabel.setText("Status: Initializing camera " + (currentCameraIndex + 1) + " stream..."));
-
-            grabber.start();
-
-            Platform.runLater(() -> statusLabel.setText("Status: Camera " + (currentCameraIndex + 1) + " connected - Streaming"));
-
-            int consecutiveErrors = 0;
-            final int MAX_CONSECUTIVE_ERRORS = 5;
-
-            while (isStreaming && !Thread.currentThread().isInterrupted() &&
-                    cameraUrl.equals(activeStreamUrl)) { // Check if this is still the active stream
-                try {
-                    Frame frame = grabber.grab();
-
-                    if (frame != null && frame.image != null) {
-                        BufferedImage bufferedImage = converter.convert(frame);
-
-                        if (bufferedImage != null) {
-                            Image fxImage = convertToFXImage(bufferedImage);
-                            Platform.runLater(() -> videoImageView.setImage(fxImage));
-                            consecutiveErrors = 0;
-                        }
-                    }
-
-                    // Control frame rate (~30 FPS)
-                    Thread.sleep(33);
-
-                } catch (Exception e) {
-                    consecutiveErrors++;
-
-                    if (isStreaming && cameraUrl.equals(activeStreamUrl)) {
-                        System.err.println("Frame grab error: " + e.getMessage());
-
-                        if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
-                            Platform.runLater(() -> {
-                                statusLabel.setText("Status: Camera " + (currentCameraIndex + 1) + " - Too many errors, reconnecting...");
-                            });
-                            break;
-                        }
-
-                        Thread.sleep(100);
-                    }
-                }
-            }
-
-        } catch (Exception e) {
-            if (cameraUrl.equals(activeStreamUrl)) { // Only show error if this is still the active stream
-                Platform.runLater(() -> {
-                    statusLabel.setText("Status: Camera " + (currentCameraIndex + 1) + " error - " + e.getMessage());
-                    scheduleStreamReconnect();
-                });
-            }
-        } finally {
-            if (grabber != null) {
-                try {
-                    grabber.stop();
-                    grabber.release();
-                } catch (Exception e) {
-                    System.err.println("Error stopping grabber: " + e.getMessage());
-                }
-            }
-        }
-    }
-
-    private Image convertToFXImage(BufferedImage bufferedImage) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(bufferedImage, "jpg", baos);
-            ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-            return new Image(bais);
-        } catch (Exception e) {
-            System.err.println("Error converting image: " + e.getMessage());
-            return null;
+        // Each camera has its own session, reused if the wall or the standby pool already streams it
+        CameraSession previousSession = activeSession;
+        boolean warm = streamManager.getSession(cameraInfo.url) != null;
+        activeSession = streamManager.openSession(cameraInfo.url, cameraInfo.pacingMode);
+        statusLabel.setText("Status: " + (warm ? "Switched to" : "Connecting to") + " camera " + (currentCameraIndex + 1) + "...");
+
+        // A warm session primes its decoder from the cached GOP and delivers the current picture right away
+        framePresenter.setSession(activeSession);
+        resizeViews();
+        updateVisibility();
+
+        // Released after the standby pool took its reference, so a neighbour stays connected
+        if (previousSession != null) {
+            previousSession.releaseViewport(framePresenter);
+            streamManager.closeSession(previousSession.getUrl());
         }
     }
 
     private void stopStreamInternal() {
-        isStreaming = false;
-        activeStreamUrl = null;
-
         // Stop continuous movement if active
         stopContinuousMovement();
 
-        if (streamTask != null) {
-            streamTask.cancel(true);
-        }
-
-        if (grabber != null) {
-            try {
-                grabber.stop();
-                grabber.release();
-                grabber = null;
-            } catch (Exception e) {
-                System.err.println("Error stopping stream: " + e.getMessage());
-            }
+        if (activeSession != null) {
+            framePresenter.setSession(null);
+            activeSession.releaseViewport(framePresenter);
+            streamManager.closeSession(activeSession.getUrl());
+            activeSession = null;
         }
     }
 
     public void cleanup() {
-        isStreaming = false;
+        if (framePresenter != null) {
+            framePresenter.stop();
+        }
+        closePlayback();
+        if (playbackPresenter != null) {
+            playbackPresenter.stop();
+        }
+        thumbnailCache.close();
 
         // Stop continuous movement
         stopContinuousMovement();
+        ptzController.stopAll();
+        ptzController.close();
 
-        // Close WebSocket connection
-        if (webSocketSession != null) {
-            try {
-                webSocketSession.close();
-            } catch (Exception e) {
-                System.err.println("Error closing WebSocket: " + e.getMessage());
-            }
-        }
-
-        // Stop camera stream
+        // Stop camera streams, the manager also closes the WebSocket
+        clearGrid();
         stopStreamInternal();
+        standbyPool.clear();
+        // Finish the open segments before the sessions go
+        motionMonitor.close();
+        recordingManager.stopAll();
+        streamManager.cleanup();
 
         if (executorService != null) {
             executorService.shutdown();
@@ -0,0 +1,274 @@
+package com.example.camera_demo;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One camera re-served to remote viewers by {@link StreamServer}.
+ *
+ * The feed takes the session's published pictures at its own frame rate and encodes each to JPEG
+ * once, off the ingest thread. The bytes are shared by every subscriber, only the few header bytes
+ * differ between MJPEG and WebSocket. Each subscriber has a short queue of its own: a slow client
+ * loses its oldest queued frames and never holds back the encoder or the other clients.
+ */
+class CameraFeed implements CameraSession.FrameConsumer {
+
+    static final String BOUNDARY = "frame";
+    static final int QUEUE_FRAMES = 2;
+
+    // An encoded picture and the transport headers for it, shared by all subscribers
+    static class EncodedFrame {
+        final byte[] jpeg;
+        final byte[] mjpegHeader;
+        final byte[] webSocketHeader;
+
+        EncodedFrame(byte[] jpeg) {
+            this.jpeg = jpeg;
+            this.mjpegHeader = ("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.webSocketHeader = webSocketHeader(jpeg.length);
+        }
+
+        // Unmasked binary frame, FIN set
+        private static byte[] webSocketHeader(int length) {
+            if (length < 126) {
+                return new byte[]{(byte) 0x82, (byte) length};
+            }
+            if (length <= 0xFFFF) {
+                return new byte[]{(byte) 0x82, 126, (byte) (length >> 8), (byte) length};
+            }
+            byte[] header = new byte[10];
+            header[0] = (byte) 0x82;
+            header[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                header[9 - i] = (byte) ((long) length >> (8 * i));
+            }
+            return header;
+        }
+    }
+
+    static class Subscriber {
+        private final ArrayBlockingQueue<EncodedFrame> queue = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+        private final boolean webSocket;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile long sent = 0;
+        private volatile boolean closed = false;
+
+        Subscriber(boolean webSocket) {
+            this.webSocket = webSocket;
+        }
+
+        // Called by the encoder, replaces the oldest frame when the client is behind
+        void offer(EncodedFrame frame) {
+            while (!queue.offer(frame)) {
+                if (queue.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+
+        // Next frame, or null after the timeout so the caller can check on its client
+        EncodedFrame take(long timeoutMillis) throws InterruptedException {
+            return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        void write(EncodedFrame frame, OutputStream output) throws IOException {
+            if (webSocket) {
+                output.write(frame.webSocketHeader);
+                output.write(frame.jpeg);
+            } else {
+                output.write(frame.mjpegHeader);
+                output.write(frame.jpeg);
+                output.write('\r');
+                output.write('\n');
+            }
+            output.flush();
+            sent++;
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        long getSent() {
+            return sent;
+        }
+
+        long getDropped() {
+            return dropped.get();
+        }
+    }
+
+    private final String cameraUrl;
+    private final ExecutorService encoder;
+    private final int maxFps;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean busy = false;
+    // Retained by the ingest thread, released by the encoder, or by close if the encode never runs
+    private final AtomicReference<VideoFrame> pendingFrame = new AtomicReference<>();
+    private long lastFrameNanos = 0;
+    private final AtomicLong encodedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    // Encoder state, one encode at a time
+    private BufferedImage image;
+    private final ImageWriter writer;
+    private final ImageWriteParam writeParam;
+    private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream(256 * 1024);
+
+    CameraFeed(String cameraUrl, ExecutorService encoder, int maxFps, float quality) {
+        this.cameraUrl = cameraUrl;
+        this.encoder = encoder;
+        this.maxFps = Math.max(1, maxFps);
+        this.writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        this.writeParam = writer.getDefaultWriteParam();
+        writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParam.setCompressionQuality(quality);
+    }
+
+    String getCameraUrl() {
+        return cameraUrl;
+    }
+
+    void addSubscriber(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    void removeSubscriber(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    // Called on the ingest thread, the frame is retained until the encoder has read it
+    @Override
+    public void onFrame(CameraSession session, VideoFrame frame) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastFrameNanos < 1_000_000_000L / maxFps) {
+            return;
+        }
+        if (busy) {
+            // The encoder is behind, its next frame will be a newer one
+            skippedFrames.incrementAndGet();
+            return;
+        }
+        lastFrameNanos = now;
+        busy = true;
+        pendingFrame.set(frame.retain());
+        try {
+            encoder.submit(this::encode);
+        } catch (RejectedExecutionException e) {
+            // The server is stopping
+            releasePending();
+            busy = false;
+        }
+    }
+
+    private void releasePending() {
+        VideoFrame frame = pendingFrame.getAndSet(null);
+        if (frame != null) {
+            frame.release();
+        }
+    }
+
+    // BGRA read as little-endian ints is ARGB, which the RGB raster takes row by row
+    private void copy(VideoFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] target = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        IntBuffer source = frame.getPixels().duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int strideInts = frame.getStride() / VideoFrame.BYTES_PER_PIXEL;
+        for (int y = 0; y < height; y++) {
+            source.position(y * strideInts);
+            source.get(target, y * width, width);
+        }
+    }
+
+    private void encode() {
+        VideoFrame frame = pendingFrame.getAndSet(null);
+        if (frame == null) {
+            // Closed meanwhile
+            busy = false;
+            return;
+        }
+        try {
+            try {
+                copy(frame);
+            } finally {
+                // Handed back before the slow part, the decoder only needs a second buffer meanwhile
+                frame.release();
+            }
+            publish(new EncodedFrame(encodeJpeg(image)));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Feed encode error (" + cameraUrl + "): " + e.getMessage());
+        } finally {
+            busy = false;
+        }
+    }
+
+    byte[] encodeJpeg(BufferedImage source) throws IOException {
+        encodeBuffer.reset();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(encodeBuffer)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(source, null, null), writeParam);
+        }
+        return encodeBuffer.toByteArray();
+    }
+
+    // Hands the same bytes to every subscriber
+    void publish(EncodedFrame frame) {
+        encodedFrames.incrementAndGet();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    long getEncodedFrames() {
+        return encodedFrames.get();
+    }
+
+    long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    void close() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        subscribers.clear();
+        releasePending();
+        writer.dispose();
+    }
+}
@@ -0,0 +1,745 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVIOInterruptCB;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * One camera's ingest: its own demuxer, grab thread and decoder, fanning decoded frames out
+ * to any number of {@link FrameConsumer}s and raw packets to {@link PacketConsumer}s. A failing
+ * camera only reconnects itself, on the shared {@link ReconnectScheduler}'s backoff, and other
+ * sessions keep streaming. Nothing here depends on JavaFX, views attach a {@link FramePresenter}.
+ *
+ * The demuxer is FFmpeg's own, opened with an interrupt callback so the stall watchdog and
+ * {@link #stop()} can end a read blocked on a silent camera. Video packets go through a {@link GopCache} into a {@link VideoDecoder},
+ * so a view that appears mid-GOP is primed from the cache instead of waiting for the next keyframe.
+ *
+ * The format context is opened, read and closed on the session's own thread,
+ * {@link #stop()} only signals it, so native memory is never freed under the grab loop.
+ */
+public class CameraSession {
+
+    public interface Listener {
+        void onStatus(CameraSession session, String status);
+    }
+
+    /**
+     * Receives every presented frame on the session's ingest thread. All consumers share the
+     * same {@link VideoFrame}, so return quickly; retain the frame to use it after the call.
+     */
+    public interface FrameConsumer {
+        void onFrame(CameraSession session, VideoFrame frame);
+    }
+
+    /**
+     * Receives every demuxed packet of every stream, before decoding, on the ingest thread.
+     * Packets are shared: never modify one, take a reference with {@code av_packet_clone} to keep it.
+     */
+    public interface PacketConsumer {
+        // Before the first packet of each connection. The context is valid until onStreamEnd.
+        void onStreamStart(CameraSession session, AVFormatContext formatContext);
+
+        void onPacket(CameraSession session, AVPacket packet);
+
+        // The connection is closing, release anything that refers to its format context
+        void onStreamEnd(CameraSession session);
+    }
+
+    public enum Visibility {
+        // Every frame is decoded and presented
+        VISIBLE,
+        // Only keyframes are decoded, one is published every hiddenFrameInterval so the
+        // picture is current when the view comes back. The RTSP session stays connected.
+        // With a motion detector attached every picture is still decoded for it.
+        HIDDEN
+    }
+
+    // How one view shows this camera
+    private static class Viewer {
+        final int width;
+        final int height;
+        final Visibility visibility;
+
+        Viewer(int width, int height, Visibility visibility) {
+            this.width = width;
+            this.height = height;
+            this.visibility = visibility;
+        }
+    }
+
+    private static final int MAX_CONSECUTIVE_ERRORS = 5;
+    private static final int DECODER_REFERENCE_FRAMES = 4; // Typical H.264 DPB for IP cameras
+    // A 4 Mbit/s camera with a 4 s GOP needs about 2 MB, longer GOPs fall back to waiting for a keyframe
+    private static final long GOP_CACHE_BYTES = 8L * 1024 * 1024;
+    private static final int GOP_CACHE_PACKETS = 1000;
+    // Socket timeout in stall timeouts, a backstop for connects the watchdog does not watch
+    private static final int CONNECT_TIMEOUT_STALLS = 5;
+
+    // Open connections by format context, the interrupt callback's opaque pointer
+    private static final Map<Long, CameraSession> CONNECTIONS = new ConcurrentHashMap<>();
+    // Polled by FFmpeg during every blocking call of a connection. One for all sessions: JavaCPP has
+    // only a handful of native slots per callback class, later instances would never be called.
+    private static final AVIOInterruptCB.Callback_Pointer INTERRUPT_CALLBACK = new AVIOInterruptCB.Callback_Pointer() {
+        @Override
+        public int call(Pointer opaque) {
+            CameraSession session = CONNECTIONS.get(opaque.address());
+            return session == null || session.shouldAbort() ? 1 : 0;
+        }
+    };
+
+    private final String url;
+    private volatile StreamPacer.Mode pacingMode;
+    private final int decoderThreads;
+    private final Listener listener;
+    private final ReconnectScheduler reconnects;
+    private final StallWatchdog watchdog;
+    private final List<FrameConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final List<PacketConsumer> packetConsumers = new CopyOnWriteArrayList<>();
+    private final StreamMetrics metrics;
+    private final GopCache gopCache = new GopCache(GOP_CACHE_BYTES, GOP_CACHE_PACKETS);
+    private volatile MotionDetector motionDetector;
+
+    // Every view showing this camera: the decoder scales to the largest visible one,
+    // and drops to keyframes only when none is visible
+    private final Map<Object, Viewer> viewers = new ConcurrentHashMap<>();
+    private volatile int viewerVersion = 0;
+    private volatile long hiddenFrameIntervalMs = 1000;
+    private String decodeSize; // Last logged, ingest thread only
+
+    private volatile boolean running = false;
+    private volatile boolean restartRequested = false;
+    private volatile long stallTimeoutMs = StallWatchdog.DEFAULT_TIMEOUT_MILLIS;
+    // Read by the watchdog while a connection is delivering. Packets are timed when the demuxer
+    // returns them, before any pacing, so silence is measured from the camera's last data.
+    private volatile long lastPacketNanos;
+    private volatile long lastProgressNanos; // Last decoded frame, or a packet left undecoded on purpose
+    private boolean stalled = false;         // Once per connection, guarded by this
+    private volatile boolean closingConnection = false;
+    private volatile StreamPacer pacer;
+    private volatile long decodedFrames = 0;
+    private volatile long publishedFrames = 0;
+    // Retained until the next one is published or the connection ends, guarded by latestLock
+    private VideoFrame latestFrame;
+    private final Object latestLock = new Object();
+    private volatile long nativePixels = 0;
+    private Future<?> task;
+    private ExecutorService executor;
+
+    public CameraSession(String url, StreamPacer.Mode pacingMode, int decoderThreads, Listener listener,
+                         ReconnectScheduler reconnects, StallWatchdog watchdog) {
+        this.url = url;
+        this.pacingMode = pacingMode;
+        this.decoderThreads = decoderThreads;
+        this.listener = listener;
+        this.reconnects = reconnects;
+        this.watchdog = watchdog;
+        this.metrics = new StreamMetrics(url, this::getLatencyMillis);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public StreamPacer.Mode getPacingMode() {
+        return pacingMode;
+    }
+
+    // LIVE mode changes demuxer options, so the stream reconnects right away to apply a new mode
+    public void setPacingMode(StreamPacer.Mode mode) {
+        if (mode != pacingMode) {
+            pacingMode = mode;
+            restartRequested = true;
+        }
+    }
+
+    /**
+     * Sets the size in pixels a view shows this camera at. FFmpeg then scales to that size
+     * while decoding instead of the scene graph rescaling every frame. Called on the FX thread.
+     */
+    public void requestViewport(Object viewer, double width, double height) {
+        Viewer previous = viewers.get(viewer);
+        Visibility visibility = previous != null ? previous.visibility : Visibility.VISIBLE;
+        updateViewer(viewer, new Viewer((int) Math.ceil(width), (int) Math.ceil(height), visibility));
+    }
+
+    // Hidden views (other tab, minimised window, tile behind a maximised one) only need keyframes
+    public void setVisibility(Object viewer, Visibility visibility) {
+        Viewer previous = viewers.get(viewer);
+        int width = previous != null ? previous.width : 0;
+        int height = previous != null ? previous.height : 0;
+        updateViewer(viewer, new Viewer(width, height, visibility));
+    }
+
+    private void updateViewer(Object viewer, Viewer state) {
+        Viewer previous = viewers.put(viewer, state);
+        if (previous == null || previous.width != state.width || previous.height != state.height
+                || previous.visibility != state.visibility) {
+            viewerVersion++;
+        }
+    }
+
+    public void releaseViewport(Object viewer) {
+        if (viewers.remove(viewer) != null) {
+            viewerVersion++;
+        }
+    }
+
+    public Visibility getVisibility() {
+        for (Viewer viewer : viewers.values()) {
+            if (viewer.visibility == Visibility.VISIBLE) {
+                return Visibility.VISIBLE;
+            }
+        }
+        return Visibility.HIDDEN;
+    }
+
+    // Rate at which a hidden session refreshes its last picture, bounded by the camera's GOP length
+    public void setHiddenFrameInterval(long intervalMs) {
+        hiddenFrameIntervalMs = intervalMs;
+    }
+
+    /**
+     * How long a connection may go without a packet, or without a decoded frame, before it is
+     * restarted. The watchdog applies it at once, the connect timeout from the next connection.
+     */
+    public void setStallTimeout(long timeoutMs) {
+        stallTimeoutMs = timeoutMs;
+    }
+
+    // Watchdog thread, and the grab loop when a read fails
+    void checkStall(long now) {
+        long timeoutNanos = stallTimeoutMs * 1_000_000L;
+        if (now - lastPacketNanos >= timeoutNanos) {
+            stall("no data", now - lastPacketNanos);
+        } else if (now - lastProgressNanos >= timeoutNanos) {
+            stall("no frames", now - lastProgressNanos);
+        }
+    }
+
+    // The interrupt callback ends a read blocked on the silent socket within a few milliseconds
+    private void stall(String what, long silentNanos) {
+        synchronized (this) {
+            if (stalled || !running) {
+                return;
+            }
+            stalled = true;
+            restartRequested = true;
+        }
+        metrics.recordStall();
+        listener.onStatus(this, String.format("stalled - %s for %.1f s, restarting...", what, silentNanos / 1e9));
+    }
+
+    // Stopped, cancelled, closing the connection, or asked to restart for a stall or a new pacing mode
+    private boolean shouldAbort() {
+        return !running || restartRequested || closingConnection || Thread.currentThread().isInterrupted();
+    }
+
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Views, recorders and analytics all attach here, frames are not copied per consumer
+    public void addConsumer(FrameConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    public void removeConsumer(FrameConsumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    // Recorders attach here, they see the encoded stream and cost no decoding
+    public void addPacketConsumer(PacketConsumer consumer) {
+        packetConsumers.add(consumer);
+    }
+
+    // The consumer gets no onStreamEnd afterwards, it must release its own state
+    public void removePacketConsumer(PacketConsumer consumer) {
+        packetConsumers.remove(consumer);
+    }
+
+    // Analyses a small luma copy of decoded pictures, null to stop. A hidden session keeps decoding
+    // every picture for the detector, like a thumbnail-sized viewer, but converts only the luma copy.
+    public void setMotionDetector(MotionDetector detector) {
+        motionDetector = detector;
+    }
+
+    public MotionDetector getMotionDetector() {
+        return motionDetector;
+    }
+
+    private void publishPacket(AVPacket packet, AVFormatContext formatContext, Set<PacketConsumer> started) {
+        for (PacketConsumer consumer : packetConsumers) {
+            try {
+                // Consumers added mid-connection are started on the ingest thread, never concurrently
+                if (started.add(consumer)) {
+                    consumer.onStreamStart(this, formatContext);
+                }
+                consumer.onPacket(this, packet);
+            } catch (RuntimeException e) {
+                System.err.println("Packet consumer error (" + url + "): " + e.getMessage());
+            }
+        }
+    }
+
+    private void publish(VideoFrame frame) {
+        // Swapped before the count moves, so a count read first never outruns the latest frame
+        keepLatest(frame.retain());
+        publishedFrames++;
+        metrics.recordPublished();
+        for (FrameConsumer consumer : consumers) {
+            try {
+                consumer.onFrame(this, frame);
+            } catch (RuntimeException e) {
+                // One broken consumer must not stall the stream for the others
+                System.err.println("Frame consumer error (" + url + "): " + e.getMessage());
+            }
+        }
+    }
+
+    private void keepLatest(VideoFrame frame) {
+        VideoFrame previous;
+        synchronized (latestLock) {
+            previous = latestFrame;
+            latestFrame = frame;
+        }
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * The last picture published on this connection, retained for the caller, who must release it.
+     * Null until the first one. Any thread.
+     */
+    public VideoFrame retainLatestFrame() {
+        synchronized (latestLock) {
+            return latestFrame != null ? latestFrame.retain() : null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    public long getPublishedFrames() {
+        return publishedFrames;
+    }
+
+    /**
+     * Rough memory held by this session: the cached GOP, FFmpeg's decoded YUV 4:2:0 surfaces
+     * (reference frames and one per decoder thread), the BGRA output and the latest published
+     * picture, both at most at native size.
+     */
+    public long getMemoryEstimate() {
+        long decoderBytes = nativePixels * 3 / 2 * (DECODER_REFERENCE_FRAMES + decoderThreads);
+        return gopCache.getBytes() + decoderBytes + 2 * nativePixels * VideoFrame.BYTES_PER_PIXEL;
+    }
+
+    public long getLatencyMillis() {
+        StreamPacer current = pacer;
+        return current != null ? current.getLatencyMillis() : 0;
+    }
+
+    public synchronized void start(ExecutorService executorService) {
+        if (running) {
+            return;
+        }
+        running = true;
+        executor = executorService;
+        task = executorService.submit(this::run);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        reconnects.cancel(this);
+        if (task != null) {
+            task.cancel(true); // The interrupt callback sees it, even in a blocked read
+            task = null;
+        }
+    }
+
+    // Started by the reconnect timer, unless the session was stopped while it waited
+    private synchronized void resume() {
+        if (running) {
+            task = executor.submit(this::run);
+        } else {
+            reconnects.cancel(this);
+        }
+    }
+
+    // One connection, restarted in place for a new pacing mode. A lost connection returns the
+    // thread to the pool and is retried by the shared reconnect scheduler.
+    private void run() {
+        while (running) {
+            try {
+                streamFromCamera();
+            } catch (Exception e) {
+                if (running) {
+                    listener.onStatus(this, "error - " + e.getMessage());
+                }
+            }
+
+            if (!running || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (!restartRequested) {
+                break;
+            }
+            restartRequested = false;
+        }
+
+        metrics.recordReconnect();
+        long delay = reconnects.schedule(this, ReconnectScheduler.CAMERA, this::resume);
+        if (delay >= 0) {
+            listener.onStatus(this, String.format("reconnecting in %.1f s...", delay / 1000.0));
+        }
+    }
+
+    private void applyViewport(VideoDecoder decoder) {
+        int nativeWidth = decoder.getNativeWidth();
+        int nativeHeight = decoder.getNativeHeight();
+        int width = 0;
+        int height = 0;
+        boolean visible = getVisibility() == Visibility.VISIBLE;
+        for (Viewer viewer : viewers.values()) {
+            // Hidden views still size the keyframes they will show on return
+            if (!visible || viewer.visibility == Visibility.VISIBLE) {
+                width = Math.max(width, viewer.width);
+                height = Math.max(height, viewer.height);
+            }
+        }
+
+        // 0 keeps the native size, used when nothing is shown or a view is at least as large as the camera
+        int outputWidth = 0;
+        int outputHeight = 0;
+        if (width > 0 && height > 0 && nativeWidth > 0 && nativeHeight > 0) {
+            double scale = Math.min((double) width / nativeWidth, (double) height / nativeHeight);
+            if (scale < 1.0) {
+                // Even sizes keep the chroma planes aligned for swscale
+                outputWidth = Math.max(2, (int) Math.round(nativeWidth * scale) & ~1);
+                outputHeight = Math.max(2, (int) Math.round(nativeHeight * scale) & ~1);
+            }
+        }
+
+        decoder.setOutputSize(outputWidth, outputHeight);
+        String size = outputWidth > 0 ? outputWidth + "x" + outputHeight : "native " + nativeWidth + "x" + nativeHeight;
+        // Views resize and come and go all the time, only a new decode size is worth a line
+        if (!size.equals(decodeSize)) {
+            decodeSize = size;
+            System.out.println("Decoding " + url + " at " + size);
+        }
+    }
+
+    static AVStream findVideoStream(FFmpegFrameGrabber grabber) throws Exception {
+        return findVideoStream(grabber.getFormatContext());
+    }
+
+    static AVStream findVideoStream(AVFormatContext formatContext) throws Exception {
+        int index = findVideoStreamIndex(formatContext);
+        if (index < 0) {
+            throw new Exception("No video stream");
+        }
+        return formatContext.streams(index);
+    }
+
+    // Index of the first video stream, or -1
+    static int findVideoStreamIndex(AVFormatContext formatContext) {
+        for (int i = 0; i < formatContext.nb_streams(); i++) {
+            if (formatContext.streams(i).codecpar().codec_type() == avutil.AVMEDIA_TYPE_VIDEO) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Replays the cached GOP so a view that just appeared gets the current picture, not the next keyframe
+    private VideoFrame primeFromCache(VideoDecoder decoder) throws Exception {
+        long startNanos = System.nanoTime();
+        VideoFrame[] latest = new VideoFrame[1];
+        decoder.flush();
+        boolean primed = gopCache.replay((packet, last) -> {
+            // Only the last picture is shown, skip the BGRA conversion for the rest
+            VideoFrame frame = decoder.decode(packet, last);
+            if (frame != null) {
+                latest[0] = frame;
+            }
+        });
+
+        if (primed) {
+            System.out.println("Primed " + url + " from " + gopCache.getPacketCount() + " cached packets in "
+                    + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+        }
+        return latest[0];
+    }
+
+    private void streamFromCamera() throws Exception {
+        StreamPacer.Mode mode = pacingMode;
+        StreamPacer streamPacer = new StreamPacer(mode);
+        pacer = streamPacer;
+
+        AVFormatContext formatContext = avformat.avformat_alloc_context();
+        if (formatContext == null) {
+            throw new Exception("Cannot allocate format context");
+        }
+        long connection = formatContext.address(); // Closing the input clears it
+        AVPacket packet = avcodec.av_packet_alloc();
+        AVDictionary options = new AVDictionary(null);
+        VideoDecoder decoder = null;
+        PacketReadAhead readAhead = null;
+        Set<PacketConsumer> startedPacketConsumers = new HashSet<>();
+        synchronized (this) {
+            stalled = false;
+        }
+        closingConnection = false;
+        try {
+            // Set options for better streaming
+            avutil.av_dict_set(options, "rtsp_transport", "tcp", 0);
+            avutil.av_dict_set(options, "buffer_size", "1024000", 0);
+            avutil.av_dict_set(options, "max_delay", "0", 0);
+            // Socket I/O timeout in microseconds, FFmpeg 5 ignores the old stimeout. The interrupt
+            // callback ends stalled reads, this only bounds a connect to an unresponsive camera.
+            avutil.av_dict_set(options, "timeout", Long.toString(stallTimeoutMs * CONNECT_TIMEOUT_STALLS * 1000), 0);
+            streamPacer.configure(options);
+            // Must be in place before the open, which can block as long as any read
+            CONNECTIONS.put(connection, this);
+            formatContext.interrupt_callback().callback(INTERRUPT_CALLBACK);
+            formatContext.interrupt_callback().opaque(formatContext);
+
+            listener.onStatus(this, "connecting...");
+            int ret = avformat.avformat_open_input(formatContext, url, null, options);
+            if (ret < 0) {
+                throw new Exception("avformat.avformat_open_input() error " + ret + ": Could not open input \"" + url + "\"");
+            }
+            ret = avformat.avformat_find_stream_info(formatContext, (PointerPointer<?>) null);
+            if (ret < 0) {
+                throw new Exception("avformat.avformat_find_stream_info() error " + ret);
+            }
+            listener.onStatus(this, "connected - Streaming");
+
+            AVStream videoStream = findVideoStream(formatContext);
+            // FFmpeg defaults to one decoder thread per core, which oversubscribes a wall of cameras
+            decoder = new VideoDecoder(videoStream, decoderThreads);
+            nativePixels = (long) decoder.getNativeWidth() * decoder.getNativeHeight();
+            int appliedViewerVersion = -1;
+            boolean hidden = false;
+            boolean keyFramesOnly = false;
+            boolean primeRequested = false;
+            boolean awaitingKeyFrame = true; // The stream may start mid-GOP
+            long lastHiddenPublishNanos = 0;
+
+            int consecutiveErrors = 0;
+            long lastStatusNanos = System.nanoTime();
+            boolean delivering = false;
+            boolean decodedAny = false; // Until the first keyframe every video packet counts as progress
+
+            if (mode == StreamPacer.Mode.TIMESTAMP) {
+                // The loop sleeps to pace frames and starts behind by what probing the stream buffered
+                readAhead = new PacketReadAhead(formatContext, GOP_CACHE_PACKETS, nanos -> lastPacketNanos = nanos);
+                lastPacketNanos = System.nanoTime();
+                readAhead.start(executor);
+            }
+
+            while (running && !restartRequested && !Thread.currentThread().isInterrupted()) {
+                ret = readAhead != null ? readAhead.read(packet) : avformat.av_read_frame(formatContext, packet);
+                long packetNanos = System.nanoTime();
+                if (ret < 0) {
+                    // End of stream, an interrupted read, or the socket timeout just before the watchdog's next check
+                    if (delivering && packetNanos - lastPacketNanos >= stallTimeoutMs * 500_000L) {
+                        stall("no data", packetNanos - lastPacketNanos);
+                    }
+                    if (!restartRequested) {
+                        listener.onStatus(this, "stream ended, reconnecting...");
+                    }
+                    return;
+                }
+                if (readAhead == null) {
+                    lastPacketNanos = packetNanos;
+                }
+                if (!delivering) {
+                    delivering = true;
+                    lastProgressNanos = packetNanos;
+                    reconnects.connected(this);
+                    watchdog.watch(this);
+                }
+
+                try {
+                    publishPacket(packet, formatContext, startedPacketConsumers);
+                    if (packet.stream_index() != videoStream.index()) {
+                        continue;
+                    }
+                    boolean keyPacket = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+                    if (!decodedAny) {
+                        lastProgressNanos = packetNanos;
+                    }
+                    gopCache.add(packet);
+                    metrics.recordPacket(packet.size());
+
+                    // The scaler is rebuilt on the next frame, the RTSP session is untouched
+                    int version = viewerVersion;
+                    if (version != appliedViewerVersion) {
+                        appliedViewerVersion = version;
+                        applyViewport(decoder);
+                        hidden = getVisibility() == Visibility.HIDDEN;
+                    }
+
+                    MotionDetector detector = motionDetector;
+                    if (detector != null) {
+                        decoder.setLumaOutput(MotionDetector.GRID_WIDTH, MotionDetector.GRID_HEIGHT);
+                    } else {
+                        decoder.setLumaOutput(0, 0);
+                    }
+
+                    // A detector sees every picture, hidden or not, so only an unwatched hidden session skips P-frames
+                    boolean skipPFrames = hidden && detector == null;
+                    if (keyFramesOnly && !skipPFrames) {
+                        // Skipped P-frames left the decoder without references, rebuild them from the cache
+                        primeRequested = true;
+                    }
+                    keyFramesOnly = skipPFrames;
+
+                    VideoFrame frame = null;
+                    boolean primed = false;
+                    boolean decoded = true;
+                    long decodeStartNanos = System.nanoTime();
+                    if (detector != null && detector.isDue(decodeStartNanos)) {
+                        // Scaled down with the BGRA conversion, the detector copies it below
+                        decoder.requestLuma();
+                    }
+                    if (primeRequested) {
+                        primeRequested = false;
+                        // The cache already holds this packet
+                        frame = primeFromCache(decoder);
+                        primed = frame != null;
+                        // Without a cached GOP the picture is only clean again from the next keyframe
+                        awaitingKeyFrame = !primed && !keyPacket;
+                        if (!primed && keyPacket) {
+                            frame = decoder.decode(packet, true);
+                        }
+                    } else if (!keyFramesOnly || keyPacket) {
+                        // Hidden sessions never send non-key packets to the decoder, and only
+                        // convert the picture they publish once per interval. A detector's luma
+                        // copy is made without the conversion.
+                        boolean convert = !hidden
+                                || decodeStartNanos - lastHiddenPublishNanos >= hiddenFrameIntervalMs * 1_000_000L;
+                        frame = decoder.decode(packet, convert);
+                    } else {
+                        decoded = false;
+                        lastProgressNanos = decodeStartNanos;
+                    }
+                    boolean pictured = frame != null || (decoded && decoder.hasDecodedPicture());
+                    if (decoded) {
+                        metrics.recordDecode(System.nanoTime() - decodeStartNanos, pictured);
+                    }
+
+                    long now = System.nanoTime();
+                    if (pictured) {
+                        decodedFrames++;
+                        consecutiveErrors = 0;
+                        lastProgressNanos = now;
+                        decodedAny = true;
+                        if (detector != null) {
+                            detector.submit(decoder, now);
+                        }
+
+                        if (now - lastStatusNanos > 1_000_000_000L) {
+                            lastStatusNanos = now;
+                            listener.onStatus(this, keyFramesOnly ? "connected - Hidden (keyframes only)"
+                                    : hidden ? "connected - Hidden (motion detection)"
+                                    : "connected - Streaming (" + mode + ", latency " + streamPacer.getLatencyMillis() + " ms)");
+                        }
+                    }
+
+                    if (frame != null) {
+                        boolean present;
+                        if (hidden) {
+                            present = now - lastHiddenPublishNanos >= hiddenFrameIntervalMs * 1_000_000L;
+                        } else if (primed) {
+                            // The view is waiting on this picture, never hold it back
+                            present = true;
+                        } else if (awaitingKeyFrame && !frame.isKeyFrame()) {
+                            // Keep showing the last keyframe rather than a smeared picture
+                            present = false;
+                            metrics.recordDroppedAwaitingKeyFrame();
+                        } else {
+                            awaitingKeyFrame = false;
+                            // Paces by PTS, or tells us to skip late frames in live mode
+                            present = streamPacer.pace(frame.getTimestampMicros());
+                            if (!present) {
+                                metrics.recordDroppedLate();
+                            }
+                        }
+
+                        if (present) {
+                            publish(frame);
+                            lastHiddenPublishNanos = now;
+                        }
+                    }
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    consecutiveErrors++;
+                    metrics.recordDecodeError();
+                    System.err.println("Frame decode error (" + url + "): " + e.getMessage());
+
+                    if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+                        listener.onStatus(this, "too many errors, reconnecting...");
+                        return;
+                    }
+                } finally {
+                    // The packet is reused for the next read, the cache holds its own reference
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+        } finally {
+            System.out.println("Stream ended (" + url + "): " + decodedFrames + " frames decoded, " + publishedFrames
+                    + " published to " + consumers.size() + " consumers, " + gopCache.getOverflows() + " GOPs too large to cache");
+            // Cached packets and recorders refer to this connection's stream parameters
+            for (PacketConsumer consumer : startedPacketConsumers) {
+                try {
+                    consumer.onStreamEnd(this);
+                } catch (RuntimeException e) {
+                    System.err.println("Packet consumer error (" + url + "): " + e.getMessage());
+                }
+            }
+            gopCache.clear();
+            // A picture from a connection that has ended is no longer the camera's latest
+            keepLatest(null);
+            if (decoder != null) {
+                decoder.close();
+            }
+            watchdog.unwatch(this);
+            closingConnection = true;
+            if (readAhead != null) {
+                readAhead.close();
+            }
+            avcodec.av_packet_free(packet);
+            avutil.av_dict_free(options);
+            // Also frees a context the open failed on
+            avformat.avformat_close_input(formatContext);
+            // Only this connection's entry, the address may already belong to another session's
+            CONNECTIONS.remove(connection, this);
+        }
+    }
+}
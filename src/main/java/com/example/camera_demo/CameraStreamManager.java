@@ -1,246 +1,314 @@
 package com.example.camera_demo;
 
-import javafx.concurrent.Task;
-import javafx.scene.image.Image;
-
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
-
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.regex.Pattern;
 import javax.websocket.*;
 
+/**
+ * The headless streaming engine: owns the camera sessions, their threads and buffers, and the
+ * control WebSocket that delivers the camera list. Nothing here depends on JavaFX, so it runs
+ * the same under the UI and under {@link HeadlessRunner}.
+ */
 @ClientEndpoint
 public class CameraStreamManager {
 
+    // Frames are not delivered through the listener, attach a CameraSession.FrameConsumer to a session
     public interface CameraStreamListener {
-        void onFrameReceived(Image frame);
-        void onStatusUpdate(String status);
+        void onSessionStatus(CameraSession session, String status);
         void onWebSocketStatusUpdate(String status);
         void onCameraListReceived(List<String> cameras);
-        void onError(String error, int cameraIndex);
+    }
+
+    // One ingest session per camera URL, shared by every view that shows that camera
+    private static class SessionEntry {
+        final CameraSession session;
+        int users = 0;
+
+        SessionEntry(CameraSession session) {
+            this.session = session;
+        }
     }
 
     private final CameraStreamListener listener;
-    private volatile boolean isStreaming = false;
-    private ExecutorService executorService;
-    private Task<Void> streamTask;
-    private FFmpegFrameGrabber grabber;
+    private final Map<String, SessionEntry> sessions = new HashMap<>();
+    private final ExecutorService executorService;
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private final SnapshotService snapshotService = new SnapshotService(this);
+    private StreamServer streamServer;
+    private HlsServer hlsServer;
+    // Last list from the WebSocket, cameras are addressed by position in it
+    private volatile List<String> cameraUrls = new ArrayList<>();
+    private MetricsEndpoint metricsEndpoint;
+    private long hiddenFrameIntervalMs = 1000;
+    private long stallTimeoutMs = StallWatchdog.DEFAULT_TIMEOUT_MILLIS;
+    private final StallWatchdog stallWatchdog = new StallWatchdog();
     private Session webSocketSession;
     private WebSocketContainer container;
-    private String activeStreamUrl = null;
 
     // WebSocket connection URL
-    private static final String WEBSOCKET_URL = "ws://localhost:8080";
+    public static final String DEFAULT_WEBSOCKET_URL = "ws://localhost:8080";
+    private static final Object WEBSOCKET_TARGET = new Object(); // Its key in the reconnect scheduler
+
+    private final String webSocketUrl;
+    private final ReconnectScheduler reconnectScheduler = new ReconnectScheduler();
+    private volatile boolean closed = false;
 
     public CameraStreamManager(CameraStreamListener listener) {
+        this(listener, DEFAULT_WEBSOCKET_URL);
+    }
+
+    public CameraStreamManager(CameraStreamListener listener, String webSocketUrl) {
         this.listener = listener;
+        this.webSocketUrl = webSocketUrl;
+
+        // One long running grab thread per session
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "camera-session-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+    // Connects the control WebSocket, sessions can be opened without it
     public void initialize() {
-        executorService = Executors.newSingleThreadExecutor();
         initializeWebSocket();
     }
 
     private void initializeWebSocket() {
+        if (closed) {
+            return;
+        }
         try {
             container = ContainerProvider.getWebSocketContainer();
             listener.onWebSocketStatusUpdate("Status: Connecting to WebSocket...");
 
-            URI serverEndpointUri = new URI(WEBSOCKET_URL);
+            URI serverEndpointUri = new URI(webSocketUrl);
             webSocketSession = container.connectToServer(this, serverEndpointUri);
 
         } catch (Exception e) {
             listener.onWebSocketStatusUpdate("Status: WebSocket connection failed - " + e.getMessage());
-            // Retry connection after 5 seconds
             scheduleWebSocketReconnect();
         }
     }
 
+    // Close, error and failed connects all land here, only one retry is ever pending
     private void scheduleWebSocketReconnect() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(5000); // Wait 5 seconds before retry
-                initializeWebSocket();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
-    }
-
-    public void startStream(String cameraUrl, int cameraIndex) {
-        if (isStreaming || cameraUrl == null || cameraUrl.isEmpty()) {
+        if (closed) {
             return;
         }
-
-        // Don't restart if same URL is already streaming
-        if (cameraUrl.equals(activeStreamUrl) && isStreaming) {
-            System.out.println("Camera already streaming: " + cameraUrl);
-            return;
+        // Connecting blocks, so the attempt runs on a pool thread rather than the timer
+        long delay = reconnectScheduler.schedule(WEBSOCKET_TARGET, ReconnectScheduler.WEBSOCKET,
+                () -> executorService.submit(this::initializeWebSocket));
+        if (delay >= 0) {
+            System.out.printf("WebSocket reconnect in %.1f s%n", delay / 1000.0);
         }
+    }
 
-        isStreaming = true;
-        activeStreamUrl = cameraUrl;
-        listener.onStatusUpdate("Status: Connecting to camera " + (cameraIndex + 1) + "...");
-
-        streamTask = new Task<Void>() {
-            @Override
-            protected Void call() throws Exception {
-                try {
-                    streamFromCamera(cameraUrl, cameraIndex);
-                } catch (Exception e) {
-                    listener.onError(e.getMessage(), cameraIndex);
-                    // Auto-retry connection after 10 seconds
-                    scheduleStreamReconnect(cameraUrl, cameraIndex);
-                }
-                return null;
-            }
-        };
+    /**
+     * Returns the running session for a camera, starting one if needed.
+     * Every call must be paired with {@link #closeSession(String)}.
+     */
+    public synchronized CameraSession openSession(String cameraUrl, StreamPacer.Mode pacingMode) {
+        SessionEntry entry = sessions.get(cameraUrl);
+
+        if (entry == null) {
+            CameraSession session = new CameraSession(cameraUrl, pacingMode,
+                    decoderThreadsPerSession(sessions.size() + 1), listener::onSessionStatus, reconnectScheduler, stallWatchdog);
+            session.setHiddenFrameInterval(hiddenFrameIntervalMs);
+            session.setStallTimeout(stallTimeoutMs);
+            entry = new SessionEntry(session);
+            sessions.put(cameraUrl, entry);
+            metricsRegistry.register(session.getMetrics());
+            session.start(executorService);
+        } else {
+            entry.session.setPacingMode(pacingMode);
+        }
 
-        executorService.submit(streamTask);
+        entry.users++;
+        return entry.session;
     }
 
-    public void switchToCamera(String newUrl, int cameraIndex) {
-        // Only switch if it's a different camera
-        if (!newUrl.equals(activeStreamUrl)) {
-            stopStream();
-            startStream(newUrl, cameraIndex);
+    // For users that do not care about pacing, such as recording: an open session keeps its mode
+    public synchronized CameraSession openSession(String cameraUrl) {
+        SessionEntry entry = sessions.get(cameraUrl);
+        if (entry != null) {
+            entry.users++;
+            return entry.session;
         }
+        return openSession(cameraUrl, StreamPacer.Mode.LIVE);
     }
 
-    private void scheduleStreamReconnect(String cameraUrl, int cameraIndex) {
-        new Thread(() -> {
-            try {
-                Thread.sleep(10000); // Wait 10 seconds before retry
-                if (!isStreaming && cameraUrl.equals(activeStreamUrl)) {
-                    startStream(cameraUrl, cameraIndex);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+    // How often hidden sessions refresh their last picture, see CameraSession.Visibility
+    public synchronized void setHiddenFrameInterval(long intervalMs) {
+        hiddenFrameIntervalMs = intervalMs;
+        for (SessionEntry entry : sessions.values()) {
+            entry.session.setHiddenFrameInterval(intervalMs);
+        }
     }
 
-    private void streamFromCamera(String cameraUrl, int cameraIndex) {
-        Java2DFrameConverter converter = new Java2DFrameConverter();
+    // How long a camera may go silent before its connection is restarted, see StallWatchdog
+    public synchronized void setStallTimeout(long timeoutMs) {
+        stallTimeoutMs = timeoutMs;
+        for (SessionEntry entry : sessions.values()) {
+            entry.session.setStallTimeout(timeoutMs);
+        }
+    }
 
-        try {
-            // Initialize FFmpeg frame grabber
-            grabber = new FFmpegFrameGrabber(cameraUrl);
+    // Share the cores between sessions instead of every decoder spawning one thread per core
+    private static int decoderThreadsPerSession(int sessionCount) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(4, cores / Math.max(1, sessionCount)));
+    }
 
-            // Set options for better streaming
-            grabber.setOption("rtsp_transport", "tcp");
-            grabber.setOption("buffer_size", "1024000");
-            grabber.setOption("max_delay", "0");
-            grabber.setOption("stimeout", "5000000"); // 5 second timeout
-            grabber.setImageWidth(640);
-            grabber.setImageHeight(480);
-            grabber.setFrameRate(30);
+    // Stops the session once its last user closes it
+    public synchronized void closeSession(String cameraUrl) {
+        SessionEntry entry = sessions.get(cameraUrl);
+        if (entry == null) {
+            return;
+        }
 
-            listener.onStatusUpdate("Status: Initializing camera " + (cameraIndex + 1) + " stream...");
+        entry.users--;
+        if (entry.users <= 0) {
+            sessions.remove(cameraUrl);
+            metricsRegistry.unregister(entry.session.getMetrics());
+            entry.session.stop();
+        }
+    }
 
-            grabber.start();
+    public List<String> getCameraUrls() {
+        return cameraUrls;
+    }
 
-            listener.onStatusUpdate("Status: Camera " + (cameraIndex + 1) + " connected - Streaming");
+    // For runs without the control WebSocket
+    void setCameraUrls(List<String> urls) {
+        cameraUrls = new ArrayList<>(urls);
+    }
 
-            int consecutiveErrors = 0;
-            final int MAX_CONSECUTIVE_ERRORS = 5;
+    /**
+     * Re-serves the cameras as MJPEG and WebSocket streams to remote viewers, see {@link StreamServer}.
+     * Cameras are only decoded and encoded for it while someone watches.
+     */
+    public synchronized void startStreamServer(int port) {
+        if (streamServer != null) {
+            return;
+        }
+        try {
+            streamServer = new StreamServer(this, port, StreamServer.DEFAULT_WIDTH, StreamServer.DEFAULT_HEIGHT,
+                    StreamServer.DEFAULT_FPS);
+            streamServer.start();
+        } catch (Exception e) {
+            System.err.println("Stream server not started: " + e.getMessage());
+            streamServer = null;
+        }
+    }
 
-            while (isStreaming && !Thread.currentThread().isInterrupted() &&
-                    cameraUrl.equals(activeStreamUrl)) { // Check if this is still the active stream
-                try {
-                    Frame frame = grabber.grab();
-
-                    if (frame != null && frame.image != null) {
-                        BufferedImage bufferedImage = converter.convert(frame);
-
-                        if (bufferedImage != null) {
-                            Image fxImage = convertToFXImage(bufferedImage);
-                            if (fxImage != null) {
-                                listener.onFrameReceived(fxImage);
-                            }
-                            consecutiveErrors = 0;
-                        }
-                    }
+    public void stopStreamServer() {
+        StreamServer server;
+        synchronized (this) {
+            server = streamServer;
+            streamServer = null;
+        }
+        // Closing feeds closes sessions, which takes this lock
+        if (server != null) {
+            server.stop();
+        }
+    }
 
-                    // Control frame rate (~30 FPS)
-                    Thread.sleep(33);
+    public synchronized boolean isStreamServerRunning() {
+        return streamServer != null;
+    }
 
-                } catch (Exception e) {
-                    consecutiveErrors++;
+    /**
+     * Serves the cameras as low-latency HLS on localhost, see {@link HlsServer}. Packets are only
+     * copied into fMP4 parts, nothing is transcoded. A null directory keeps the parts in memory.
+     */
+    public synchronized void startHlsServer(int port, HlsSegmenter.Settings settings, Path directory) {
+        if (hlsServer != null) {
+            return;
+        }
+        try {
+            hlsServer = new HlsServer(this, port, settings, directory);
+            hlsServer.start();
+        } catch (Exception e) {
+            System.err.println("HLS server not started: " + e.getMessage());
+            hlsServer = null;
+        }
+    }
 
-                    if (isStreaming && cameraUrl.equals(activeStreamUrl)) {
-                        System.err.println("Frame grab error: " + e.getMessage());
+    public void stopHlsServer() {
+        HlsServer server;
+        synchronized (this) {
+            server = hlsServer;
+            hlsServer = null;
+        }
+        // Closing segmenters closes sessions, which takes this lock
+        if (server != null) {
+            server.stop();
+        }
+    }
 
-                        if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
-                            listener.onStatusUpdate("Status: Camera " + (cameraIndex + 1) + " - Too many errors, reconnecting...");
-                            break;
-                        }
+    public synchronized boolean isHlsServerRunning() {
+        return hlsServer != null;
+    }
 
-                        Thread.sleep(100);
-                    }
-                }
-            }
+    public SnapshotService getSnapshotService() {
+        return snapshotService;
+    }
 
-        } catch (Exception e) {
-            if (cameraUrl.equals(activeStreamUrl)) { // Only show error if this is still the active stream
-                listener.onError(e.getMessage(), cameraIndex);
-                scheduleStreamReconnect(cameraUrl, cameraIndex);
-            }
-        } finally {
-            if (grabber != null) {
-                try {
-                    grabber.stop();
-                    grabber.release();
-                } catch (Exception e) {
-                    System.err.println("Error stopping grabber: " + e.getMessage());
-                }
-            }
-        }
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
     }
 
-    private Image convertToFXImage(BufferedImage bufferedImage) {
+    // Plain text metrics for scrapers on localhost, JMX is always available
+    public synchronized void startMetricsEndpoint(int port) {
+        if (metricsEndpoint != null) {
+            return;
+        }
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(bufferedImage, "jpg", baos);
-            ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-            return new Image(bais);
+            metricsEndpoint = new MetricsEndpoint(metricsRegistry, port);
+            metricsEndpoint.start();
         } catch (Exception e) {
-            System.err.println("Error converting image: " + e.getMessage());
-            return null;
+            // Another instance may hold the port, streaming does not depend on it
+            System.err.println("Metrics endpoint not started: " + e.getMessage());
+            metricsEndpoint = null;
         }
     }
 
-    public void stopStream() {
-        isStreaming = false;
-        activeStreamUrl = null;
+    public synchronized CameraSession getSession(String cameraUrl) {
+        SessionEntry entry = sessions.get(cameraUrl);
+        return entry != null ? entry.session : null;
+    }
 
-        if (streamTask != null) {
-            streamTask.cancel(true);
+    public synchronized List<CameraSession> getSessions() {
+        List<CameraSession> result = new ArrayList<>();
+        for (SessionEntry entry : sessions.values()) {
+            result.add(entry.session);
         }
+        return result;
+    }
 
-        if (grabber != null) {
-            try {
-                grabber.stop();
-                grabber.release();
-                grabber = null;
-            } catch (Exception e) {
-                System.err.println("Error stopping stream: " + e.getMessage());
-            }
+    public synchronized void closeAllSessions() {
+        for (SessionEntry entry : sessions.values()) {
+            metricsRegistry.unregister(entry.session.getMetrics());
+            entry.session.stop();
         }
+        sessions.clear();
     }
 
     public void cleanup() {
-        isStreaming = false;
-
-        // Close WebSocket connection
+        // Close WebSocket connection, for good
+        closed = true;
+        reconnectScheduler.cancel(WEBSOCKET_TARGET);
         if (webSocketSession != null) {
             try {
                 webSocketSession.close();
@@ -249,37 +317,59 @@ public class CameraStreamManager {
             }
         }
 
-        // Stop camera stream
-        stopStream();
+        // Stop camera streams
+        stopStreamServer();
+        stopHlsServer();
+        snapshotService.close();
+        closeAllSessions();
 
-        if (executorService != null) {
-            executorService.shutdown();
+        synchronized (this) {
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+                metricsEndpoint = null;
+            }
         }
+
+        reconnectScheduler.close();
+        stallWatchdog.close();
+        executorService.shutdownNow();
+    }
+
+    public ReconnectScheduler getReconnectScheduler() {
+        return reconnectScheduler;
     }
 
     // WebSocket event handlers
     @OnOpen
     public void onOpen(Session session) {
-        listener.onWebSocketStatusUpdate("Status: WebSocket connected");
+        reconnectScheduler.connected(WEBSOCKET_TARGET);
+        listener.onWebSocketStatusUpdate("Status: WebSocket connected - Waiting for camera URLs...");
+        System.out.println("WebSocket connection opened");
     }
 
     @OnMessage
     public void onMessage(String message) {
         System.out.println("WebSocket message received: " + message);
 
+        if (message == null || message.trim().isEmpty()) {
+            return;
+        }
+
         try {
-            // Parse the message - assuming it contains camera URLs
-            // Handle different message formats
-            if (message.trim().startsWith("[") && message.trim().endsWith("]")) {
-                // JSON array format: ["url1", "url2", "url3"]
-                parseCameraUrlsFromJson(message);
-            } else if (message.contains(",")) {
-                // Comma-separated format: "url1,url2,url3"
-                parseCameraUrlsFromCsv(message);
+            // Requests and list changes are JSON objects, full camera lists are anything else
+            if (message.trim().startsWith("{")) {
+                JsonReader reader = new JsonReader(message);
+                Object value = reader.readValue();
+                reader.endDocument();
+                handleRequest((Map<?, ?>) value);
+                return;
+            }
+
+            List<String> cameraUrls = parseCameraUrls(message);
+            if (!cameraUrls.isEmpty()) {
+                applyCameraList(cameraUrls);
             } else {
-                // Single URL format
-                java.util.List<String> singleUrl = java.util.Arrays.asList(message.trim());
-                listener.onCameraListReceived(singleUrl);
+                listener.onWebSocketStatusUpdate("Status: No valid RTSP URLs received");
             }
         } catch (Exception e) {
             System.err.println("Error parsing WebSocket message: " + e.getMessage());
@@ -287,51 +377,253 @@ public class CameraStreamManager {
         }
     }
 
-    private void parseCameraUrlsFromJson(String jsonMessage) {
-        try {
-            // Simple JSON parsing for array of strings
-            String cleaned = jsonMessage.trim().substring(1, jsonMessage.trim().length() - 1); // Remove [ ]
-            String[] urls = cleaned.split(",");
-            java.util.List<String> cameraUrls = new java.util.ArrayList<>();
-
-            for (String url : urls) {
-                String cleanUrl = url.trim().replaceAll("\"", ""); // Remove quotes
-                if (!cleanUrl.isEmpty()) {
-                    cameraUrls.add(cleanUrl);
+    private static final Pattern LIST_SEPARATOR = Pattern.compile("\\s*[,;]\\s*(?=\"?rtsp://)");
+
+    /**
+     * JSON array ["url1", "url2"], or URLs separated by commas or semicolons. Only RTSP URLs are
+     * kept. Plain lists are only split in front of the next rtsp://, so URLs may contain either.
+     */
+    static List<String> parseCameraUrls(String message) {
+        String trimmed = message.trim();
+        if (trimmed.startsWith("[")) {
+            JsonReader reader = new JsonReader(trimmed);
+            List<String> cameraUrls = readCameraUrls(reader);
+            reader.endDocument();
+            return cameraUrls;
+        }
+
+        List<String> cameraUrls = new ArrayList<>();
+        for (String url : LIST_SEPARATOR.split(trimmed)) {
+            String cleanUrl = url.trim();
+            if (cleanUrl.length() >= 2 && cleanUrl.startsWith("\"") && cleanUrl.endsWith("\"")) {
+                cleanUrl = cleanUrl.substring(1, cleanUrl.length() - 1);
+            }
+            if (cleanUrl.startsWith("rtsp://")) {
+                cameraUrls.add(cleanUrl);
+            }
+        }
+        return cameraUrls;
+    }
+
+    private static List<String> readCameraUrls(JsonReader reader) {
+        List<String> cameraUrls = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonReader.Token.STRING) {
+                String url = reader.nextString().trim();
+                if (url.startsWith("rtsp://")) {
+                    cameraUrls.add(url);
                 }
+            } else {
+                reader.skipValue();
             }
+        }
+        reader.endArray();
+        return cameraUrls;
+    }
 
-            if (!cameraUrls.isEmpty()) {
-                listener.onCameraListReceived(cameraUrls);
+    // Listeners get the whole new list and keep whatever is unchanged in it streaming
+    private void applyCameraList(List<String> urls) {
+        synchronized (this) {
+            if (urls.equals(cameraUrls)) {
+                return;
             }
-        } catch (Exception e) {
-            System.err.println("Error parsing JSON camera URLs: " + e.getMessage());
+            cameraUrls = urls;
         }
+        listener.onCameraListReceived(urls);
     }
 
-    private void parseCameraUrlsFromCsv(String csvMessage) {
-        try {
-            String[] urls = csvMessage.split(",");
-            java.util.List<String> cameraUrls = new java.util.ArrayList<>();
+    /**
+     * Objects on the control channel, each may carry an "id" that is echoed in its reply:
+     * <ul>
+     * <li>{"type":"cameras","cameras":["rtsp://...", ...]} replaces the camera list.
+     * <li>{"type":"add","url":"rtsp://...","position":2} inserts a camera, at the end without a position.
+     * <li>{"type":"remove","camera":3} removes a camera.
+     * <li>{"type":"update","camera":3,"url":"rtsp://..."} replaces a camera's URL in its place.
+     * <li>{"type":"snapshot","camera":3,"format":"png"}, see {@link #handleSnapshot}.
+     * </ul>
+     * A camera is a URL or a 1-based position in the current list. List changes are only answered
+     * when they fail, with an "error" field.
+     */
+    private void handleRequest(Map<?, ?> request) {
+        String type = stringField(request, "type");
+        String id = stringField(request, "id");
+        String camera = stringField(request, "camera");
+        if (type == null) {
+            sendError(null, id, "Missing type");
+            return;
+        }
+        switch (type) {
+            case "cameras":
+                Object cameras = request.get("cameras");
+                if (!(cameras instanceof List)) {
+                    sendError(type, id, "Missing cameras");
+                    return;
+                }
+                List<String> urls = new ArrayList<>();
+                for (Object url : (List<?>) cameras) {
+                    if (url instanceof String && ((String) url).trim().startsWith("rtsp://")) {
+                        urls.add(((String) url).trim());
+                    }
+                }
+                applyCameraList(urls);
+                break;
+            case "add":
+            case "remove":
+            case "update":
+                String error = changeCameraList(type, camera, stringField(request, "url"), stringField(request, "position"));
+                if (error != null) {
+                    sendError(type, id, error);
+                }
+                break;
+            case "snapshot":
+                handleSnapshot(id, camera, SnapshotService.Format.parse(stringField(request, "format")));
+                break;
+            default:
+                sendError(type, id, "Unknown request");
+        }
+    }
 
-            for (String url : urls) {
-                String cleanUrl = url.trim();
-                if (!cleanUrl.isEmpty()) {
-                    cameraUrls.add(cleanUrl);
+    // Applies one change to the current list, the reason when it cannot be applied.
+    // Only the WebSocket thread changes the list.
+    private String changeCameraList(String type, String camera, String url, String position) {
+        List<String> urls = new ArrayList<>(cameraUrls);
+        if (url != null && !url.startsWith("rtsp://")) {
+            return "Not an RTSP URL: " + url;
+        }
+        if (type.equals("add")) {
+            if (url == null) {
+                return "Missing url";
+            }
+            if (urls.contains(url)) {
+                return null;
+            }
+            int index = urls.size();
+            if (position != null) {
+                try {
+                    index = Math.max(0, Math.min(urls.size(), Integer.parseInt(position) - 1));
+                } catch (NumberFormatException e) {
+                    return "Invalid position " + position;
                 }
             }
+            urls.add(index, url);
+        } else {
+            String cameraUrl = resolveCamera(camera);
+            int index = cameraUrl != null ? urls.indexOf(cameraUrl) : -1;
+            if (index < 0) {
+                return "Unknown camera " + camera;
+            }
+            if (type.equals("remove")) {
+                urls.remove(index);
+            } else if (url == null) {
+                return "Missing url";
+            } else if (urls.contains(url)) {
+                return "Already listed: " + url;
+            } else {
+                urls.set(index, url);
+            }
+        }
+        applyCameraList(urls);
+        return null;
+    }
 
-            if (!cameraUrls.isEmpty()) {
-                listener.onCameraListReceived(cameraUrls);
+    private void sendError(String type, String id, String error) {
+        sendText("{\"type\":" + jsonString(type) + ",\"id\":" + jsonString(id) + ",\"error\":" + jsonString(error) + "}");
+    }
+
+    /**
+     * {"type":"snapshot","id":"7","camera":3,"format":"png"} is answered with
+     * {"type":"snapshot","id":"7","camera":"rtsp://...","format":"png","width":..,"height":..,
+     * "timestampMicros":..,"data":"<base64>"}, or with an "error" field instead of the image.
+     * The format defaults to JPEG.
+     */
+    private void handleSnapshot(String id, String camera, SnapshotService.Format format) {
+        String cameraUrl = resolveCamera(camera);
+        if (cameraUrl == null) {
+            sendError("snapshot", id, "Unknown camera " + camera);
+            return;
+        }
+
+        // The reply is sent from the encoder thread, the WebSocket thread never waits on a camera
+        snapshotService.request(cameraUrl, format).whenComplete((snapshot, error) -> {
+            String header = "{\"type\":\"snapshot\",\"id\":" + jsonString(id) + ",\"camera\":" + jsonString(cameraUrl)
+                    + ",\"format\":\"" + format.name().toLowerCase() + "\"";
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                sendText(header + ",\"error\":" + jsonString(String.valueOf(cause.getMessage())) + "}");
+            } else {
+                sendText(header + ",\"width\":" + snapshot.getWidth() + ",\"height\":" + snapshot.getHeight()
+                        + ",\"timestampMicros\":" + snapshot.getTimestampMicros()
+                        + ",\"data\":\"" + Base64.getEncoder().encodeToString(snapshot.getData()) + "\"}");
             }
-        } catch (Exception e) {
-            System.err.println("Error parsing CSV camera URLs: " + e.getMessage());
+        });
+    }
+
+    private String resolveCamera(String camera) {
+        if (camera == null) {
+            return null;
+        }
+        if (camera.startsWith("rtsp://")) {
+            return camera;
+        }
+        List<String> urls = cameraUrls;
+        try {
+            int position = Integer.parseInt(camera);
+            return position >= 1 && position <= urls.size() ? urls.get(position - 1) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void sendText(String text) {
+        Session session = webSocketSession;
+        if (session != null && session.isOpen()) {
+            session.getAsyncRemote().sendText(text);
         }
     }
 
+    // Strings and numbers as text, null for anything else
+    private static String stringField(Map<?, ?> object, String name) {
+        Object value = object.get(name);
+        return value instanceof String || value instanceof Number ? value.toString() : null;
+    }
+
+    // Quotes, backslashes and every control character escaped, as JSON requires
+    static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+
     @OnClose
     public void onClose(Session session, CloseReason closeReason) {
         listener.onWebSocketStatusUpdate("Status: WebSocket disconnected - " + closeReason.getReasonPhrase());
+        System.out.println("WebSocket connection closed: " + closeReason.getReasonPhrase());
         // Attempt to reconnect
         scheduleWebSocketReconnect();
     }
@@ -339,5 +631,8 @@ public class CameraStreamManager {
     @OnError
     public void onError(Session session, Throwable throwable) {
         listener.onWebSocketStatusUpdate("Status: WebSocket error - " + throwable.getMessage());
+        System.err.println("WebSocket error: " + throwable.getMessage());
+        // Usually followed by onClose, the scheduler keeps the two to one attempt
+        scheduleWebSocketReconnect();
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.example.camera_demo;
+
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies decoded {@link VideoFrame}s straight into a {@link WritableImage} backed by a
+ * {@link PixelBuffer}, replacing the old BufferedImage -> JPEG -> Image round-trip.
+ *
+ * Pixels are packed BGRA, matching {@code PixelFormat.getByteBgraPreInstance()}.
+ * Frames come from a small fixed pool so the grab thread never writes into a buffer
+ * that is pending or on screen: one being written, one in the {@link FrameMailbox},
+ * one displayed and one retiring while the renderer may still read it.
+ */
+public class FXFrameConverter {
+
+    private static final int BYTES_PER_PIXEL = VideoFrame.BYTES_PER_PIXEL;
+    private static final int POOL_SIZE = 4;
+
+    private final ArrayBlockingQueue<FXFrame> freeFrames = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private int allocatedFrames = 0;
+
+    /**
+     * A pooled image. Hand it back with {@link #recycle()} once it is no longer displayed.
+     */
+    public static class FXFrame {
+        private final FXFrameConverter owner;
+        private final PixelBuffer<ByteBuffer> pixelBuffer;
+        private final WritableImage image;
+
+        private FXFrame(FXFrameConverter owner, int width, int height) {
+            this.owner = owner;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL);
+            owner.allocatedBytes.addAndGet(buffer.capacity());
+            this.pixelBuffer = new PixelBuffer<>(width, height, buffer, PixelFormat.getByteBgraPreInstance());
+            this.image = new WritableImage(pixelBuffer);
+        }
+
+        /**
+         * Tells JavaFX the pixels changed and returns the image to display.
+         * Must be called on the FX application thread.
+         */
+        public WritableImage update() {
+            pixelBuffer.updateBuffer(buffer -> null);
+            return image;
+        }
+
+        public void recycle() {
+            owner.freeFrames.offer(this);
+        }
+    }
+
+    /**
+     * Copies the pixels of a decoded frame into a free pooled frame. Called on the grab thread.
+     *
+     * @return null if every pooled frame is in use
+     */
+    public FXFrame convert(VideoFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        FXFrame target = freeFrames.poll();
+
+        if (target == null && allocatedFrames < POOL_SIZE) {
+            allocatedFrames++;
+            target = new FXFrame(this, width, height);
+        } else if (target == null) {
+            // Everything is queued or on screen, the UI is behind
+            droppedFrames.incrementAndGet();
+            return null;
+        } else if (target.pixelBuffer.getWidth() != width || target.pixelBuffer.getHeight() != height) {
+            // Size changed, replace the pooled frame
+            allocatedBytes.addAndGet(-target.pixelBuffer.getBuffer().capacity());
+            target = new FXFrame(this, width, height);
+        }
+
+        copyPixels(frame, target.pixelBuffer.getBuffer());
+        return target;
+    }
+
+    // Packs the frame's rows into destination, which holds exactly width * height * 4 bytes
+    static void copyPixels(VideoFrame frame, ByteBuffer destination) {
+        ByteBuffer source = frame.getPixels();
+        int rowBytes = frame.getWidth() * BYTES_PER_PIXEL;
+        int stride = frame.getStride();
+        int height = frame.getHeight();
+
+        if (stride == rowBytes) {
+            // Tightly packed, one bulk copy
+            destination.put(0, source, 0, rowBytes * height);
+        } else {
+            // FFmpeg pads each line to its alignment, copy row by row
+            for (int y = 0; y < height; y++) {
+                destination.put(y * rowBytes, source, y * stride, rowBytes);
+            }
+        }
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    // Direct memory held by the pooled frames
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+}
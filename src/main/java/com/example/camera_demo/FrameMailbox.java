@@ -0,0 +1,48 @@
+package com.example.camera_demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single slot handoff between a grab thread and the FX thread.
+ * Publishing replaces any frame the UI has not picked up yet, so a stalled UI
+ * never queues work or memory on the ingest side - it just skips frames.
+ */
+public class FrameMailbox {
+
+    private final AtomicReference<FXFrameConverter.FXFrame> slot = new AtomicReference<>();
+    private final AtomicLong publishedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    // Called on the grab thread, returns true if a frame the UI never showed was replaced
+    public boolean publish(FXFrameConverter.FXFrame frame) {
+        publishedFrames.incrementAndGet();
+        FXFrameConverter.FXFrame stale = slot.getAndSet(frame);
+        if (stale != null) {
+            droppedFrames.incrementAndGet();
+            stale.recycle();
+            return true;
+        }
+        return false;
+    }
+
+    // Called on the FX thread, returns null when nothing new arrived
+    public FXFrameConverter.FXFrame take() {
+        return slot.getAndSet(null);
+    }
+
+    public void clear() {
+        FXFrameConverter.FXFrame stale = slot.getAndSet(null);
+        if (stale != null) {
+            stale.recycle();
+        }
+    }
+
+    public long getPublishedFrames() {
+        return publishedFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+}
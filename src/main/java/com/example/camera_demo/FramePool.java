@@ -0,0 +1,71 @@
+package com.example.camera_demo;
+
+import org.bytedeco.javacpp.BytePointer;
+
+import java.util.ArrayDeque;
+
+/**
+ * Native BGRA buffers for one {@link VideoDecoder}'s pictures.
+ *
+ * The decoder takes a frame for each converted picture and releases the previous one. A frame
+ * nobody retained comes straight back, so a session without leases converts into the same buffer
+ * every time. A retained frame comes back on its last release, from whichever thread that is.
+ * After {@link #close()} returning frames are freed instead of kept, so memory is never freed
+ * while a lease on it is outstanding.
+ */
+class FramePool {
+
+    private static final int MAX_SPARE = 2;
+
+    static class PooledFrame extends VideoFrame {
+        private final FramePool pool;
+        final BytePointer memory;
+
+        private PooledFrame(FramePool pool, int width, int height, int stride) {
+            this.pool = pool;
+            this.memory = new BytePointer((long) stride * height);
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.pixels = memory.asByteBuffer();
+        }
+
+        @Override
+        void recycle() {
+            pool.recycle(this);
+        }
+    }
+
+    private final ArrayDeque<PooledFrame> spare = new ArrayDeque<>();
+    private boolean closed = false;
+
+    // Decoder thread, tightly packed
+    synchronized PooledFrame acquire(int width, int height) {
+        PooledFrame frame;
+        while ((frame = spare.poll()) != null) {
+            if (frame.width == width && frame.height == height) {
+                frame.reuse();
+                return frame;
+            }
+            // Left over from before a viewport change
+            frame.memory.close();
+        }
+        return new PooledFrame(this, width, height, width * VideoFrame.BYTES_PER_PIXEL);
+    }
+
+    private synchronized void recycle(PooledFrame frame) {
+        if (closed || spare.size() >= MAX_SPARE) {
+            frame.memory.close();
+        } else {
+            spare.add(frame);
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        PooledFrame frame;
+        while ((frame = spare.poll()) != null) {
+            frame.memory.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.camera_demo;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.image.ImageView;
+
+/**
+ * Shows one camera session, or recorded playback, in an {@link ImageView}. Frames are copied into this view's own
+ * pooled images on the ingest thread, handed over through a {@link FrameMailbox}, and drained
+ * once per FX pulse. At most one frame is shown per pulse, whatever the camera frame rate is.
+ */
+public class FramePresenter extends AnimationTimer implements CameraSession.FrameConsumer {
+
+    private final ImageView imageView;
+    private final FXFrameConverter converter = new FXFrameConverter();
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private volatile CameraSession session;
+    private FXFrameConverter.FXFrame displayedFrame;
+    private FXFrameConverter.FXFrame retiredFrame;
+    private long displayedFrames = 0;
+
+    public FramePresenter(ImageView imageView) {
+        this.imageView = imageView;
+    }
+
+    /**
+     * Points the view at another stream, or at none with null. The current picture stays until
+     * the new session's first frame, which a warm session delivers from its GOP cache.
+     * Synchronized with {@link #onFrame}, so a frame of the old session that already passed the
+     * source check is queued before the mailbox is cleared, never after.
+     */
+    public synchronized void setSession(CameraSession newSession) {
+        CameraSession previous = session;
+        if (previous == newSession) {
+            return;
+        }
+        if (previous != null) {
+            previous.removeConsumer(this);
+        }
+        session = newSession;
+        mailbox.clear();
+        if (newSession != null) {
+            newSession.addConsumer(this);
+        }
+    }
+
+    public CameraSession getSession() {
+        return session;
+    }
+
+    // Called on the ingest thread. Synchronized so a frame from the previous session cannot race a switch.
+    @Override
+    public synchronized void onFrame(CameraSession source, VideoFrame frame) {
+        if (source != session) {
+            return;
+        }
+        StreamMetrics metrics = source.getMetrics();
+        long startNanos = System.nanoTime();
+        FXFrameConverter.FXFrame fxFrame = converter.convert(frame);
+        if (fxFrame == null) {
+            // Every pooled image is queued or on screen, the UI is behind
+            metrics.recordDroppedAtView();
+            return;
+        }
+        metrics.recordConvert(System.nanoTime() - startNanos);
+
+        if (mailbox.publish(fxFrame)) {
+            metrics.recordDroppedAtView();
+        }
+    }
+
+    /**
+     * Shows a frame that does not come from a session, such as recorded playback. Called on the
+     * producer's thread like {@link #onFrame}.
+     *
+     * @return false if every pooled image is queued or on screen and the frame was not taken
+     */
+    public synchronized boolean showFrame(VideoFrame frame) {
+        FXFrameConverter.FXFrame fxFrame = converter.convert(frame);
+        if (fxFrame == null) {
+            return false;
+        }
+        mailbox.publish(fxFrame);
+        return true;
+    }
+
+    @Override
+    public void handle(long now) {
+        // The renderer may still have been reading the retired frame during the last pulse
+        if (retiredFrame != null) {
+            retiredFrame.recycle();
+            retiredFrame = null;
+        }
+
+        FXFrameConverter.FXFrame nextFrame = mailbox.take();
+        if (nextFrame == null) {
+            return;
+        }
+
+        imageView.setImage(nextFrame.update());
+        retiredFrame = displayedFrame;
+        displayedFrame = nextFrame;
+        displayedFrames++;
+
+        CameraSession current = session;
+        if (current != null) {
+            current.getMetrics().recordDisplayed();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        setSession(null);
+    }
+
+    public long getDisplayedFrames() {
+        return displayedFrames;
+    }
+
+    // Frames that reached this view but were replaced or found no free image before a pulse
+    public long getDroppedFrames() {
+        return mailbox.getDroppedFrames() + converter.getDroppedFrames();
+    }
+}
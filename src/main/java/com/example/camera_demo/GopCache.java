@@ -0,0 +1,94 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.global.avcodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoded video packets of one stream since its most recent keyframe. A decoder that joins
+ * mid-GOP replays them to reach the current picture instead of waiting for the next keyframe.
+ *
+ * Packets are reference counted copies of the demuxer's packets, so caching one costs a small
+ * header rather than a copy of the payload. Memory is bounded per stream: a GOP that outgrows
+ * the limit is dropped and caching resumes at the next keyframe.
+ */
+public class GopCache {
+
+    public interface PacketVisitor {
+        void visit(AVPacket packet, boolean last) throws Exception;
+    }
+
+    private final long maxBytes;
+    private final int maxPackets;
+    private final List<AVPacket> packets = new ArrayList<>();
+    private long bytes = 0;
+    private boolean overflowed = false;
+    private long overflows = 0;
+
+    public GopCache(long maxBytes, int maxPackets) {
+        this.maxBytes = maxBytes;
+        this.maxPackets = maxPackets;
+    }
+
+    // Called on the ingest thread for every video packet
+    public synchronized void add(AVPacket packet) {
+        if ((packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+            clear();
+            overflowed = false;
+        } else if (packets.isEmpty() || overflowed) {
+            // Nothing to decode this packet against until the next keyframe
+            return;
+        }
+
+        if (bytes + packet.size() > maxBytes || packets.size() >= maxPackets) {
+            clear();
+            overflowed = true;
+            overflows++;
+            return;
+        }
+
+        AVPacket copy = avcodec.av_packet_clone(packet);
+        if (copy != null) {
+            packets.add(copy);
+            bytes += packet.size();
+        }
+    }
+
+    /**
+     * Hands every cached packet to the visitor in decode order, starting with the keyframe.
+     *
+     * @return false if there is no complete GOP to replay
+     */
+    public synchronized boolean replay(PacketVisitor visitor) throws Exception {
+        if (packets.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < packets.size(); i++) {
+            visitor.visit(packets.get(i), i == packets.size() - 1);
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        for (AVPacket packet : packets) {
+            avcodec.av_packet_free(packet);
+        }
+        packets.clear();
+        bytes = 0;
+    }
+
+    public synchronized int getPacketCount() {
+        return packets.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    // GOPs dropped for exceeding the memory bound
+    public synchronized long getOverflows() {
+        return overflows;
+    }
+}
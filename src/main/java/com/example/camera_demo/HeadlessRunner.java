@@ -0,0 +1,148 @@
+package com.example.camera_demo;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the streaming engine without a JavaFX stage, for soak and load tests.
+ * Every camera given on the command line is decoded at native size and counted.
+ *
+ * Usage: HeadlessRunner [--timestamp] [--serve] [--hls[=directory]] [--stall=ms] rtsp://camera1 [rtsp://camera2 ...]
+ * If no URLs are given, camera lists sent over the control WebSocket are streamed instead.
+ * With --serve the cameras are also re-served to remote viewers, see {@link StreamServer}.
+ * With --hls they are served as low-latency HLS on localhost, see {@link HlsServer}, and with a
+ * directory the playlists and parts are also written there. --stall sets how long a camera may go
+ * silent before its connection is restarted, see {@link StallWatchdog}.
+ */
+public class HeadlessRunner implements CameraStreamManager.CameraStreamListener, CameraSession.FrameConsumer {
+
+    private static final long REPORT_INTERVAL_MS = 5000;
+
+    private final CameraStreamManager streamManager = new CameraStreamManager(this);
+    private final Map<CameraSession, AtomicLong> frameCounts = new ConcurrentHashMap<>();
+    private final List<String> openUrls = new ArrayList<>();
+    private StreamPacer.Mode pacingMode = StreamPacer.Mode.LIVE;
+
+    public static void main(String[] args) throws InterruptedException {
+        HeadlessRunner runner = new HeadlessRunner();
+        List<String> urls = new ArrayList<>();
+        boolean serve = false;
+        boolean hls = false;
+        Path hlsDirectory = null;
+        for (String arg : args) {
+            if ("--timestamp".equals(arg)) {
+                runner.pacingMode = StreamPacer.Mode.TIMESTAMP;
+            } else if ("--serve".equals(arg)) {
+                serve = true;
+            } else if ("--hls".equals(arg)) {
+                hls = true;
+            } else if (arg.startsWith("--hls=")) {
+                hls = true;
+                hlsDirectory = Paths.get(arg.substring("--hls=".length()));
+            } else if (arg.startsWith("--stall=")) {
+                runner.streamManager.setStallTimeout(Long.parseLong(arg.substring("--stall=".length())));
+            } else {
+                urls.add(arg);
+            }
+        }
+
+        CountDownLatch shutdown = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            runner.streamManager.cleanup();
+            shutdown.countDown();
+        }));
+
+        runner.streamManager.startMetricsEndpoint(MetricsEndpoint.DEFAULT_PORT);
+        if (serve) {
+            runner.streamManager.startStreamServer(StreamServer.DEFAULT_PORT);
+        }
+        if (hls) {
+            runner.streamManager.startHlsServer(HlsServer.DEFAULT_PORT, HlsSegmenter.Settings.DEFAULT, hlsDirectory);
+        }
+        if (urls.isEmpty()) {
+            runner.streamManager.initialize();
+        } else {
+            runner.openAll(urls);
+        }
+
+        while (!shutdown.await(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            runner.report();
+        }
+    }
+
+    // Cameras in both lists keep streaming, only the differences are opened and closed
+    private synchronized void openAll(List<String> urls) {
+        for (String url : openUrls) {
+            if (urls.contains(url)) {
+                continue;
+            }
+            CameraSession session = streamManager.getSession(url);
+            if (session != null) {
+                session.removeConsumer(this);
+                session.releaseViewport(this);
+                frameCounts.remove(session);
+            }
+            streamManager.closeSession(url);
+        }
+        openUrls.retainAll(urls);
+
+        streamManager.setCameraUrls(urls);
+        for (String url : urls) {
+            if (openUrls.contains(url)) {
+                continue;
+            }
+            CameraSession session = streamManager.openSession(url, pacingMode);
+            frameCounts.put(session, new AtomicLong());
+            session.addConsumer(this);
+            // A visible viewer without a size decodes every frame at native size
+            session.setVisibility(this, CameraSession.Visibility.VISIBLE);
+            openUrls.add(url);
+        }
+        System.out.println("Streaming " + urls.size() + " camera(s) headless, pacing " + pacingMode);
+    }
+
+    private void report() {
+        long totalFrames = 0;
+        long totalMemory = 0;
+        for (CameraSession session : streamManager.getSessions()) {
+            AtomicLong count = frameCounts.get(session);
+            long frames = count != null ? count.getAndSet(0) : 0;
+            totalFrames += frames;
+            totalMemory += session.getMemoryEstimate();
+            System.out.printf("  %s: %.1f fps, latency %d ms%n", session.getUrl(),
+                    frames * 1000.0 / REPORT_INTERVAL_MS, session.getLatencyMillis());
+        }
+        System.out.printf("%d sessions, %.1f fps total, ~%d MB%n", streamManager.getSessions().size(),
+                totalFrames * 1000.0 / REPORT_INTERVAL_MS, totalMemory / (1024 * 1024));
+    }
+
+    @Override
+    public void onFrame(CameraSession session, VideoFrame frame) {
+        AtomicLong count = frameCounts.get(session);
+        if (count != null) {
+            count.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onSessionStatus(CameraSession session, String status) {
+        System.out.println(session.getUrl() + ": " + status);
+    }
+
+    @Override
+    public void onWebSocketStatusUpdate(String status) {
+        System.out.println(status);
+    }
+
+    @Override
+    public void onCameraListReceived(List<String> cameras) {
+        openAll(cameras);
+    }
+}
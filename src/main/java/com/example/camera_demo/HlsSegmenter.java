@@ -0,0 +1,555 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVIOContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Low-latency HLS for one camera from its copied video packets, nothing is decoded or encoded.
+ *
+ * FFmpeg's mp4 muxer runs with {@code frag_custom}, and every part is one fMP4 fragment flushed
+ * into a dynamic memory buffer, the same way FFmpeg's own HLS muxer produces fMP4 segments.
+ * Segments start on keyframes and are the concatenation of their parts. The playlist, parts and
+ * segments are kept in memory for a rolling window and can also be mirrored into a directory.
+ *
+ * Packets are held back by one frame so each sample gets its exact duration. Called on the
+ * session's ingest thread, read by {@link HlsServer} threads, which may block until a part exists.
+ */
+public class HlsSegmenter implements CameraSession.PacketConsumer {
+
+    // Immutable, a camera's segmenter is recreated to apply new settings
+    public static class Settings {
+        public static final Settings DEFAULT = new Settings(500, 2000, 6);
+
+        final long partMillis;
+        final long segmentMillis;
+        final int windowSegments;
+
+        /**
+         * @param partMillis     longest part, parts are cut before they would exceed it
+         * @param segmentMillis  shortest segment, segments end at the first keyframe after it
+         * @param windowSegments complete segments listed in the playlist
+         */
+        public Settings(long partMillis, long segmentMillis, int windowSegments) {
+            this.partMillis = Math.max(100, partMillis);
+            this.segmentMillis = Math.max(this.partMillis, segmentMillis);
+            this.windowSegments = Math.max(3, windowSegments);
+        }
+
+        public long getPartMillis() {
+            return partMillis;
+        }
+
+        public long getSegmentMillis() {
+            return segmentMillis;
+        }
+
+        public int getWindowSegments() {
+            return windowSegments;
+        }
+    }
+
+    static class Part {
+        final double duration;
+        final boolean independent;
+        final byte[] data;
+
+        Part(double duration, boolean independent, byte[] data) {
+            this.duration = duration;
+            this.independent = independent;
+            this.data = data;
+        }
+    }
+
+    static class Segment {
+        final long sequence;
+        final int initVersion;
+        final boolean discontinuity;
+        final long startMillis;
+        final List<Part> parts = new ArrayList<>();
+        double duration;
+        boolean complete;
+
+        Segment(long sequence, int initVersion, boolean discontinuity, long startMillis) {
+            this.sequence = sequence;
+            this.initVersion = initVersion;
+            this.discontinuity = discontinuity;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private static final String MOVFLAGS = "frag_custom+empty_moov+default_base_moof";
+    private static final int PART_SEGMENTS = 3;  // Newest segments whose parts are listed
+    private static final int EXTRA_SEGMENTS = 2; // Kept past the window for clients still fetching them
+
+    private final String cameraUrl;
+    private final Settings settings;
+    private final Path directory; // Null keeps everything in memory only
+
+    // Input, from onStreamStart
+    private AVFormatContext inputContext;
+    private int videoStreamIndex = -1;
+    private AVRational inputTimeBase;
+    private boolean connectionChanged = false;
+
+    // Output
+    private AVFormatContext outputContext;
+    private AVRational outputTimeBase;
+    private AVPacket held;            // Written once the next packet gives its duration
+    private long heldArrivalNanos;
+    private long firstDts;
+    private long partStartDts;
+    private long partArrivalNanos;
+    private boolean partIndependent;
+    private long segmentStartDts;
+
+    // Window, guarded by this
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final List<byte[]> initSegments = new ArrayList<>(); // By version
+    private Segment current;
+    private long nextSequence = 0;
+    private long discontinuitySequence = 0;
+    private volatile boolean closed = false;
+
+    // Measurements
+    private long packetsMuxed = 0;
+    private long muxNanos = 0;
+    private volatile double lastPartDelayMillis = 0;
+    private volatile double averagePartDelayMillis = 0;
+
+    public HlsSegmenter(String cameraUrl, Settings settings, Path directory) {
+        this.cameraUrl = cameraUrl;
+        this.settings = settings;
+        this.directory = directory;
+    }
+
+    public String getCameraUrl() {
+        return cameraUrl;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public synchronized void onStreamStart(CameraSession session, AVFormatContext context) {
+        inputContext = context;
+        videoStreamIndex = CameraSession.findVideoStreamIndex(context);
+        inputTimeBase = videoStreamIndex >= 0 ? context.streams(videoStreamIndex).time_base() : null;
+        connectionChanged = true;
+    }
+
+    @Override
+    public synchronized void onPacket(CameraSession session, AVPacket packet) {
+        if (closed || inputContext == null || packet.stream_index() != videoStreamIndex) {
+            // Video only, browsers get the picture without the camera's audio
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long arrivalNanos = startNanos;
+        boolean keyFrame = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+
+        try {
+            if (outputContext == null) {
+                if (!keyFrame) {
+                    return;
+                }
+                openOutput();
+                firstDts = decodeTime(packet);
+            }
+
+            long dts = decodeTime(packet) - firstDts;
+            if (held != null) {
+                long heldDts = held.dts();
+                long frameDuration = Math.max(1, dts - heldDts);
+                writeHeld(frameDuration);
+
+                // Cuts fall before this packet, so parts never run past the part target
+                double partSeconds = seconds(dts - partStartDts);
+                if (keyFrame && seconds(dts - segmentStartDts) * 1000 >= settings.segmentMillis) {
+                    finishPart(partSeconds);
+                    finishSegment();
+                } else if (partSeconds + seconds(frameDuration) > settings.partMillis / 1000.0) {
+                    finishPart(partSeconds);
+                }
+            }
+
+            if (current == null) {
+                startSegment(dts);
+            }
+            if (partArrivalNanos == 0) {
+                partStartDts = dts;
+                partArrivalNanos = arrivalNanos;
+                partIndependent = keyFrame;
+            }
+
+            held = avcodec.av_packet_clone(packet);
+            held.stream_index(0);
+            held.dts(dts);
+            held.pts(packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() - firstDts : dts);
+            heldArrivalNanos = arrivalNanos;
+        } catch (IOException e) {
+            System.err.println("HLS error (" + StreamMetrics.displayName(cameraUrl) + "): " + e.getMessage());
+            // Starts over with a new init segment at the next keyframe
+            closeOutput();
+        } finally {
+            packetsMuxed++;
+            muxNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    private long decodeTime(AVPacket packet) {
+        return packet.dts() != avutil.AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+    }
+
+    private double seconds(long inputTicks) {
+        return inputTicks * avutil.av_q2d(inputTimeBase);
+    }
+
+    @Override
+    public synchronized void onStreamEnd(CameraSession session) {
+        closeOutput();
+        inputContext = null;
+    }
+
+    // The init segment is the moov written by the header, fragments follow in new buffers
+    private void openOutput() throws IOException {
+        AVFormatContext context = new AVFormatContext(null);
+        check(avformat.avformat_alloc_output_context2(context, null, "mp4", null), "allocate muxer");
+        outputContext = context;
+        AVStream stream = avformat.avformat_new_stream(context, null);
+        if (stream == null) {
+            throw new IOException("Cannot add output stream");
+        }
+        check(avcodec.avcodec_parameters_copy(stream.codecpar(), inputContext.streams(videoStreamIndex).codecpar()),
+                "copy codec parameters");
+        // RTSP tags mean nothing to mp4
+        stream.codecpar().codec_tag(0);
+        openBuffer();
+
+        AVDictionary options = new AVDictionary(null);
+        avutil.av_dict_set(options, "movflags", MOVFLAGS, 0);
+        try {
+            check(avformat.avformat_write_header(context, options), "write header");
+        } finally {
+            avutil.av_dict_free(options);
+        }
+        outputTimeBase = stream.time_base();
+        byte[] init = closeBuffer();
+        openBuffer();
+
+        synchronized (this) {
+            initSegments.add(init);
+        }
+        writeFile("init" + (initSegments.size() - 1) + ".mp4", init);
+    }
+
+    private void openBuffer() throws IOException {
+        AVIOContext buffer = new AVIOContext(null);
+        check(avformat.avio_open_dyn_buf(buffer), "open buffer");
+        outputContext.pb(buffer);
+    }
+
+    private byte[] closeBuffer() {
+        BytePointer data = new BytePointer((BytePointer) null);
+        int size = avformat.avio_close_dyn_buf(outputContext.pb(), data);
+        outputContext.pb(null);
+        byte[] bytes = new byte[Math.max(0, size)];
+        if (size > 0) {
+            data.get(bytes, 0, size);
+        }
+        avutil.av_free(data);
+        return bytes;
+    }
+
+    private void writeHeld(long frameDuration) throws IOException {
+        held.duration(frameDuration);
+        avcodec.av_packet_rescale_ts(held, inputTimeBase, outputTimeBase);
+        try {
+            // Buffered by the muxer until the fragment is flushed
+            check(avformat.av_write_frame(outputContext, held), "write packet");
+        } finally {
+            avcodec.av_packet_free(held);
+            held = null;
+        }
+    }
+
+    private void startSegment(long dts) {
+        segmentStartDts = dts;
+        synchronized (this) {
+            boolean discontinuity = connectionChanged && !segments.isEmpty();
+            connectionChanged = false;
+            current = new Segment(nextSequence++, initSegments.size() - 1, discontinuity, System.currentTimeMillis());
+            segments.addLast(current);
+        }
+    }
+
+    private void finishPart(double duration) throws IOException {
+        // Flushes the buffered samples as one moof and mdat
+        check(avformat.av_write_frame(outputContext, null), "flush fragment");
+        byte[] data = closeBuffer();
+        openBuffer();
+
+        Part part = new Part(duration, partIndependent, data);
+        double delayMillis = (System.nanoTime() - partArrivalNanos) / 1e6;
+        lastPartDelayMillis = delayMillis;
+        averagePartDelayMillis = averagePartDelayMillis == 0 ? delayMillis : averagePartDelayMillis * 0.95 + delayMillis * 0.05;
+        partArrivalNanos = 0;
+
+        Segment segment = current;
+        writeFile("seg" + segment.sequence + "." + segment.parts.size() + ".m4s", data);
+        synchronized (this) {
+            segment.parts.add(part);
+            segment.duration += duration;
+            notifyAll();
+        }
+        writePlaylist();
+    }
+
+    private void finishSegment() throws IOException {
+        Segment segment = current;
+        List<Segment> dropped = new ArrayList<>();
+        synchronized (this) {
+            segment.complete = true;
+            current = null;
+            while (segments.size() > settings.windowSegments + EXTRA_SEGMENTS + 1) {
+                Segment oldest = segments.removeFirst();
+                if (oldest.discontinuity) {
+                    discontinuitySequence++;
+                }
+                dropped.add(oldest);
+            }
+            notifyAll();
+        }
+        if (directory != null) {
+            try (OutputStream output = Files.newOutputStream(directory.resolve("seg" + segment.sequence + ".m4s.tmp"))) {
+                for (Part part : segment.parts) {
+                    output.write(part.data);
+                }
+            }
+            Files.move(directory.resolve("seg" + segment.sequence + ".m4s.tmp"), directory.resolve("seg" + segment.sequence + ".m4s"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Segment old : dropped) {
+                Files.deleteIfExists(directory.resolve("seg" + old.sequence + ".m4s"));
+                for (int i = 0; i < old.parts.size(); i++) {
+                    Files.deleteIfExists(directory.resolve("seg" + old.sequence + "." + i + ".m4s"));
+                }
+            }
+        }
+    }
+
+    private void closeOutput() {
+        if (held != null) {
+            avcodec.av_packet_free(held);
+            held = null;
+        }
+        if (outputContext != null) {
+            if (outputContext.pb() != null) {
+                closeBuffer();
+            }
+            avformat.avformat_free_context(outputContext);
+            outputContext = null;
+        }
+        // Parts already listed stay, the segment ends with them
+        if (current != null && !current.parts.isEmpty()) {
+            try {
+                finishSegment();
+            } catch (IOException e) {
+                System.err.println("HLS error (" + StreamMetrics.displayName(cameraUrl) + "): " + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            if (current != null) {
+                segments.remove(current);
+                current = null;
+            }
+            notifyAll();
+        }
+        partArrivalNanos = 0;
+        connectionChanged = true;
+    }
+
+    private static void check(int result, String action) throws IOException {
+        if (result < 0) {
+            throw new IOException("Cannot " + action + " (error " + result + ")");
+        }
+    }
+
+    // Playlist and parts for HlsServer
+
+    /**
+     * Waits until the playlist holds the given part, or the whole segment when part is negative,
+     * as an LL-HLS blocking playlist reload asks. Returns the playlist either way after the timeout.
+     */
+    public synchronized String awaitPlaylist(long sequence, int part, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!closed && !hasPart(sequence, part)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return renderPlaylist();
+    }
+
+    // Waits for a part announced by a preload hint, null if it never came
+    public synchronized Part awaitPart(long sequence, int part, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!closed && !hasPart(sequence, part)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        Segment segment = findSegment(sequence);
+        return segment != null && part < segment.parts.size() ? segment.parts.get(part) : null;
+    }
+
+    // Parts of a complete segment, null if it is not complete or has left the window
+    public synchronized List<Part> getSegmentParts(long sequence) {
+        Segment segment = findSegment(sequence);
+        return segment != null && segment.complete ? new ArrayList<>(segment.parts) : null;
+    }
+
+    public synchronized byte[] getInitSegment(int version) {
+        return version >= 0 && version < initSegments.size() ? initSegments.get(version) : null;
+    }
+
+    private boolean hasPart(long sequence, int part) {
+        Segment segment = findSegment(sequence);
+        if (segment == null) {
+            // Already gone from the window counts as available
+            return !segments.isEmpty() && sequence < segments.peekFirst().sequence;
+        }
+        return part < 0 ? segment.complete : part < segment.parts.size() || segment.complete;
+    }
+
+    private Segment findSegment(long sequence) {
+        for (Segment segment : segments) {
+            if (segment.sequence == sequence) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    public synchronized String renderPlaylist() {
+        List<Segment> listed = new ArrayList<>();
+        int complete = 0;
+        for (Segment segment : segments) {
+            if (segment.complete) {
+                complete++;
+            }
+        }
+        // The newest complete segments and the one being written
+        int skip = Math.max(0, complete - settings.windowSegments);
+        for (Segment segment : segments) {
+            if (segment.complete && skip > 0) {
+                skip--;
+                continue;
+            }
+            listed.add(segment);
+        }
+
+        double partTarget = settings.partMillis / 1000.0;
+        long targetDuration = (long) Math.ceil(settings.segmentMillis / 1000.0);
+        for (Segment segment : listed) {
+            targetDuration = Math.max(targetDuration, Math.round(segment.duration));
+        }
+
+        StringBuilder playlist = new StringBuilder();
+        playlist.append("#EXTM3U\n#EXT-X-VERSION:6\n");
+        playlist.append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+        playlist.append(String.format(Locale.ROOT, "#EXT-X-PART-INF:PART-TARGET=%.3f%n", partTarget));
+        playlist.append(String.format(Locale.ROOT, "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=%.3f%n",
+                partTarget * 3));
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(listed.isEmpty() ? nextSequence : listed.get(0).sequence).append('\n');
+        playlist.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence).append('\n');
+
+        int initVersion = -1;
+        for (int i = 0; i < listed.size(); i++) {
+            Segment segment = listed.get(i);
+            if (segment.discontinuity) {
+                playlist.append("#EXT-X-DISCONTINUITY\n");
+            }
+            if (segment.initVersion != initVersion) {
+                initVersion = segment.initVersion;
+                playlist.append("#EXT-X-MAP:URI=\"init").append(initVersion).append(".mp4\"\n");
+            }
+            playlist.append("#EXT-X-PROGRAM-DATE-TIME:").append(Instant.ofEpochMilli(segment.startMillis)).append('\n');
+            if (i >= listed.size() - PART_SEGMENTS) {
+                for (int p = 0; p < segment.parts.size(); p++) {
+                    Part part = segment.parts.get(p);
+                    playlist.append(String.format(Locale.ROOT, "#EXT-X-PART:DURATION=%.3f,URI=\"seg%d.%d.m4s\"%s%n",
+                            part.duration, segment.sequence, p, part.independent ? ",INDEPENDENT=YES" : ""));
+                }
+            }
+            if (segment.complete) {
+                playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,%nseg%d.m4s%n", segment.duration, segment.sequence));
+            }
+        }
+        if (current != null) {
+            playlist.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"seg").append(current.sequence).append('.')
+                    .append(current.parts.size()).append(".m4s\"\n");
+        }
+        return playlist.toString();
+    }
+
+    private void writePlaylist() throws IOException {
+        if (directory != null) {
+            writeFile("index.m3u8", renderPlaylist().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Written aside and moved, so a web server never serves half a file
+    private void writeFile(String name, byte[] data) throws IOException {
+        if (directory == null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        Path temporary = directory.resolve(name + ".tmp");
+        Files.write(temporary, data);
+        Files.move(temporary, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Muxing time on the ingest thread, the CPU this camera's HLS costs
+    public synchronized double getMuxMicrosPerPacket() {
+        return packetsMuxed == 0 ? 0 : muxNanos / 1000.0 / packetsMuxed;
+    }
+
+    // From a part's first packet arriving to the part being listed, the latency HLS adds before the player
+    public double getLastPartDelayMillis() {
+        return lastPartDelayMillis;
+    }
+
+    public double getAveragePartDelayMillis() {
+        return averagePartDelayMillis;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        closeOutput();
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.camera_demo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the cameras as low-latency HLS at {@code http://127.0.0.1:<port>/hls/<n>/index.m3u8},
+ * where n is the camera's 1-based position in the current camera list.
+ *
+ * A camera gets an {@link HlsSegmenter} on its first request, which holds its session open, and
+ * loses it once nobody has fetched anything for a while. Blocking playlist reloads
+ * ({@code _HLS_msn}, {@code _HLS_part}) and preload-hinted parts are held until the part exists,
+ * so each request has its own thread. {@code /hls/status} lists the latency and muxing cost per camera.
+ */
+public class HlsServer {
+
+    public static final int DEFAULT_PORT = 8091;
+
+    private static final long IDLE_MILLIS = 30_000;
+    private static final Pattern PART = Pattern.compile("seg(\\d+)\\.(\\d+)\\.m4s");
+    private static final Pattern SEGMENT = Pattern.compile("seg(\\d+)\\.m4s");
+    private static final Pattern INIT = Pattern.compile("init(\\d+)\\.mp4");
+
+    private static class Entry {
+        final HlsSegmenter segmenter;
+        volatile long lastRequestMillis = System.currentTimeMillis();
+
+        Entry(HlsSegmenter segmenter) {
+            this.segmenter = segmenter;
+        }
+    }
+
+    private final CameraStreamManager streamManager;
+    private final HlsSegmenter.Settings settings;
+    private final Path directory; // Null serves from memory only
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ScheduledExecutorService reaper;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public HlsServer(CameraStreamManager streamManager, int port, HlsSegmenter.Settings settings, Path directory)
+            throws IOException {
+        this.streamManager = streamManager;
+        this.settings = settings;
+        this.directory = directory;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/hls/", this::handle);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        requests = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "hls-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(requests);
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hls-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        server.start();
+        reaper.scheduleWithFixedDelay(this::closeIdle, IDLE_MILLIS, IDLE_MILLIS / 2, TimeUnit.MILLISECONDS);
+        System.out.println("HLS available at http://127.0.0.1:" + getPort() + "/hls/<n>/index.m3u8");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, "text/plain; charset=utf-8", "Only GET is supported\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            // /hls/<n>/<file>
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            if (path.length == 3 && path[2].equals("status")) {
+                respond(exchange, 200, "text/plain; charset=utf-8", renderStatus().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String cameraUrl = path.length == 4 ? resolveCamera(path[2]) : null;
+            if (cameraUrl == null) {
+                respond(exchange, 404, "text/plain; charset=utf-8", "Use /hls/<n>/index.m3u8 or /hls/status\n"
+                        .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            serve(exchange, segmenter(cameraUrl), path[3]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void serve(HttpExchange exchange, HlsSegmenter segmenter, String file) throws IOException, InterruptedException {
+        // Long enough for a segment to finish, the longest a blocking request can wait
+        long timeoutMillis = settings.getSegmentMillis() * 3;
+        if (file.equals("index.m3u8")) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            long sequence = parseLong(query.get("_HLS_msn"), 0);
+            int part = (int) parseLong(query.get("_HLS_part"), query.containsKey("_HLS_msn") ? -1 : 0);
+            // Without a blocking request this only waits for a new segmenter's first part
+            String playlist = segmenter.awaitPlaylist(sequence, part, timeoutMillis);
+            respond(exchange, 200, "application/vnd.apple.mpegurl", playlist.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        Matcher matcher;
+        if ((matcher = PART.matcher(file)).matches()) {
+            HlsSegmenter.Part part = segmenter.awaitPart(Long.parseLong(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+                    timeoutMillis);
+            respondMedia(exchange, part != null ? part.data : null);
+        } else if ((matcher = SEGMENT.matcher(file)).matches()) {
+            List<HlsSegmenter.Part> parts = segmenter.getSegmentParts(Long.parseLong(matcher.group(1)));
+            if (parts == null) {
+                respondMedia(exchange, null);
+                return;
+            }
+            long length = 0;
+            for (HlsSegmenter.Part part : parts) {
+                length += part.data.length;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+            allowAnyOrigin(exchange);
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                for (HlsSegmenter.Part part : parts) {
+                    output.write(part.data);
+                }
+            }
+        } else if ((matcher = INIT.matcher(file)).matches()) {
+            respondMedia(exchange, segmenter.getInitSegment(Integer.parseInt(matcher.group(1))));
+        } else {
+            respondMedia(exchange, null);
+        }
+    }
+
+    private static void respondMedia(HttpExchange exchange, byte[] data) throws IOException {
+        if (data == null) {
+            respond(exchange, 404, "text/plain; charset=utf-8", "Not in the playlist window\n".getBytes(StandardCharsets.UTF_8));
+        } else {
+            respond(exchange, 200, "video/mp4", data);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        // Playlists change with every part, media never changes once it has a name
+        exchange.getResponseHeaders().set("Cache-Control", contentType.equals("video/mp4") ? "max-age=60" : "no-cache");
+        if (status == 200 && !contentType.startsWith("text/")) {
+            allowAnyOrigin(exchange);
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    // Players on other origins may fetch playlists and media, never the status or error text
+    private static void allowAnyOrigin(HttpExchange exchange) {
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> values = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    values.put(pair.substring(0, equals), pair.substring(equals + 1));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return value != null ? Long.parseLong(value) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private String resolveCamera(String position) {
+        List<String> urls = streamManager.getCameraUrls();
+        try {
+            int index = Integer.parseInt(position);
+            return index >= 1 && index <= urls.size() ? urls.get(index - 1) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // The first request for a camera opens its session and starts muxing at its next keyframe
+    private synchronized HlsSegmenter segmenter(String cameraUrl) {
+        Entry entry = entries.get(cameraUrl);
+        if (entry == null) {
+            Path cameraDirectory = directory != null
+                    ? directory.resolve(String.valueOf(streamManager.getCameraUrls().indexOf(cameraUrl) + 1)) : null;
+            entry = new Entry(new HlsSegmenter(cameraUrl, settings, cameraDirectory));
+            streamManager.openSession(cameraUrl).addPacketConsumer(entry.segmenter);
+            entries.put(cameraUrl, entry);
+        }
+        entry.lastRequestMillis = System.currentTimeMillis();
+        return entry.segmenter;
+    }
+
+    private synchronized void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (now - entry.lastRequestMillis > IDLE_MILLIS) {
+                iterator.remove();
+                close(entry.segmenter);
+            }
+        }
+    }
+
+    private void close(HlsSegmenter segmenter) {
+        CameraSession session = streamManager.getSession(segmenter.getCameraUrl());
+        if (session != null) {
+            session.removePacketConsumer(segmenter);
+        }
+        segmenter.close();
+        streamManager.closeSession(segmenter.getCameraUrl());
+    }
+
+    public synchronized String renderStatus() {
+        StringBuilder text = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            HlsSegmenter segmenter = entry.segmenter;
+            text.append(String.format(Locale.ROOT, "%s: part delay %.0f ms (average %.0f ms), muxing %.1f us per packet%n",
+                    StreamMetrics.displayName(segmenter.getCameraUrl()), segmenter.getLastPartDelayMillis(), segmenter.getAveragePartDelayMillis(),
+                    segmenter.getMuxMicrosPerPacket()));
+        }
+        return text.length() > 0 ? text.toString() : "No HLS streams\n";
+    }
+
+    public void stop() {
+        server.stop(0);
+        reaper.shutdownNow();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                close(entry.segmenter);
+            }
+            entries.clear();
+        }
+        requests.shutdownNow();
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.camera_demo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser for the JSON messages of the control WebSocket.
+ *
+ * Tokens are read in document order straight from the message text: callers walk the structure
+ * with {@link #beginArray}, {@link #nextName}, {@link #nextString} and friends, and skip what they
+ * do not need without it being built. {@link #readValue} builds maps, lists, strings, numbers and
+ * booleans for callers that want the whole value. Malformed input throws IllegalArgumentException
+ * with the character position.
+ */
+class JsonReader {
+
+    enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // What the innermost open scope expects next
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final int MAX_DEPTH = 64;
+
+    private final String json;
+    private int position = 0;
+    private final int[] scopes = new int[MAX_DEPTH];
+    private int depth = 1;
+    private Token peeked; // Position is at the token's first character while peeked
+
+    JsonReader(String json) {
+        this.json = json;
+        scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = scopes[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return token(Token.END_ARRAY);
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or ']'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                scopes[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return token(Token.END_OBJECT);
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                scopes[depth - 1] = DANGLING_NAME;
+                return token(Token.NAME);
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                scopes[depth - 1] = NONEMPTY_OBJECT;
+                c = nextNonWhitespace();
+                break;
+            case EMPTY_DOCUMENT:
+                scopes[depth - 1] = NONEMPTY_DOCUMENT;
+                c = nextNonWhitespace();
+                break;
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Unexpected data after the value");
+                }
+                position = json.length();
+                peeked = Token.END_DOCUMENT;
+                return peeked;
+        }
+
+        switch (c) {
+            case '[':
+                return token(Token.BEGIN_ARRAY);
+            case '{':
+                return token(Token.BEGIN_OBJECT);
+            case '"':
+                return token(Token.STRING);
+            case 't':
+            case 'f':
+                return token(Token.BOOLEAN);
+            case 'n':
+                return token(Token.NULL);
+            case -1:
+                throw syntaxError("Unexpected end of message");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return token(Token.NUMBER);
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    // Steps back onto the character just read, which starts the token
+    private Token token(Token token) {
+        position--;
+        peeked = token;
+        return token;
+    }
+
+    boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+    }
+
+    void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        position++;
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() {
+        expect(Token.END_ARRAY);
+        position++;
+        depth--;
+    }
+
+    void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        position++;
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() {
+        expect(Token.END_OBJECT);
+        position++;
+        depth--;
+    }
+
+    String nextName() {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    // Numbers are returned as written, so ids and positions may be sent either way
+    String nextString() {
+        Token token = peek();
+        if (token == Token.NUMBER) {
+            peeked = null;
+            return readNumber();
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    boolean nextBoolean() {
+        expect(Token.BOOLEAN);
+        if (json.startsWith("true", position)) {
+            position += 4;
+            return true;
+        }
+        if (json.startsWith("false", position)) {
+            position += 5;
+            return false;
+        }
+        throw syntaxError("Expected true or false");
+    }
+
+    void nextNull() {
+        expect(Token.NULL);
+        if (!json.startsWith("null", position)) {
+            throw syntaxError("Expected null");
+        }
+        position += 4;
+    }
+
+    void skipValue() {
+        switch (peek()) {
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case STRING:
+            case NUMBER:
+                nextString();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    /**
+     * The next value as a LinkedHashMap, ArrayList, String, Long or Double, Boolean or null.
+     */
+    Object readValue() {
+        switch (peek()) {
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list;
+            case BEGIN_OBJECT:
+                Map<String, Object> object = new LinkedHashMap<>();
+                beginObject();
+                while (hasNext()) {
+                    object.put(nextName(), readValue());
+                }
+                endObject();
+                return object;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                String number = readNumberToken();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    // Fails unless the whole message has been read
+    void endDocument() {
+        expect(Token.END_DOCUMENT);
+    }
+
+    private void expect(Token expected) {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == MAX_DEPTH) {
+            throw syntaxError("Nested too deeply");
+        }
+        scopes[depth++] = scope;
+    }
+
+    private int nextNonWhitespace() {
+        while (position < json.length()) {
+            char c = json.charAt(position++);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private String readNumberToken() {
+        expect(Token.NUMBER);
+        return readNumber();
+    }
+
+    private String readNumber() {
+        int start = position;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                break;
+            }
+            position++;
+        }
+        return json.substring(start, position);
+    }
+
+    // Position is on the opening quote
+    private String readString() {
+        int start = ++position;
+        // Most strings have no escapes and are cut straight out of the message
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == '"') {
+                return json.substring(start, position++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder(json.length() - start);
+        builder.append(json, start, position);
+        while (position < json.length()) {
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(position++);
+            switch (escaped) {
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'u':
+                    if (position + 4 > json.length()) {
+                        throw syntaxError("Unterminated escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    position += 4;
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(escaped);
+                    break;
+                default:
+                    throw syntaxError("Invalid escape \\" + escaped);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at character " + position);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.camera_demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sidecar index of the keyframes in one recorded segment, read through a memory-mapped file.
+ *
+ * The file is a short header followed by one fixed-size record per keyframe, in recording order:
+ * wall-clock time in milliseconds and presentation time in microseconds from the segment's first
+ * keyframe. Playback opens the segment and seeks to that time, the muxer buffers fragments too
+ * long for a byte position taken while recording to be exact. Records are only ever appended,
+ * so an index cut short by a crash is still valid up to its last whole record.
+ */
+public class KeyframeIndex {
+
+    public static final String EXTENSION = ".idx";
+
+    static final int MAGIC = 0x4B494458; // "KIDX"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    private KeyframeIndex(MappedByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    public static Path sidecarFor(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + EXTENSION);
+    }
+
+    // Maps the index as it is now, records appended later are not seen
+    public static KeyframeIndex open(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Truncated keyframe index " + indexFile);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a keyframe index " + indexFile);
+            }
+            return new KeyframeIndex(buffer, (int) ((size - HEADER_BYTES) / RECORD_BYTES));
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getWallMillis(int i) {
+        return buffer.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    public long getPtsMicros(int i) {
+        return buffer.getLong(HEADER_BYTES + i * RECORD_BYTES + 8);
+    }
+
+    // Last keyframe at or before the time, or -1 if the segment starts later
+    public int findAtOrBefore(long wallMillis) {
+        return search(0, wallMillis);
+    }
+
+    // Same by position in the segment, for seeking within one file
+    public int findAtOrBeforePts(long ptsMicros) {
+        return search(8, ptsMicros);
+    }
+
+    // Both fields grow with the record number, so either can be binary searched
+    private int search(int field, long value) {
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(HEADER_BYTES + mid * RECORD_BYTES + field) <= value) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Appends keyframe records while a segment is written. One small write per keyframe, so
+     * the index is current to the last GOP without holding anything in memory.
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+
+        public Writer(Path indexFile) throws IOException {
+            channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            write(header);
+        }
+
+        public void append(long wallMillis, long ptsMicros) throws IOException {
+            record.clear();
+            record.putLong(wallMillis).putLong(ptsMicros).flip();
+            write(record);
+        }
+
+        private void write(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
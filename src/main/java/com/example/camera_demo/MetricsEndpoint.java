@@ -0,0 +1,47 @@
+package com.example.camera_demo;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link MetricsRegistry#renderText()} at {@code http://127.0.0.1:<port>/metrics}.
+ * Bound to loopback only, camera names are not meant to leave the machine.
+ */
+public class MetricsEndpoint {
+
+    public static final int DEFAULT_PORT = 9464;
+
+    private final HttpServer server;
+
+    public MetricsEndpoint(MetricsRegistry registry, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                byte[] body = registry.renderText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        // Scrapes are rare and cheap, the server's own dispatcher thread handles them
+        server.setExecutor(null);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Metrics available at http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.camera_demo;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Every running session's {@link StreamMetrics}, published as MXBeans under
+ * {@code com.example.camera_demo:type=CameraStream} and rendered as plain text for {@link MetricsEndpoint}.
+ */
+public class MetricsRegistry {
+
+    private static final String JMX_DOMAIN = "com.example.camera_demo";
+
+    private final List<StreamMetrics> metricsList = new CopyOnWriteArrayList<>();
+    private final Map<StreamMetrics, ObjectName> jmxNames = new ConcurrentHashMap<>();
+
+    public void register(StreamMetrics metrics) {
+        metricsList.add(metrics);
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=CameraStream,name=" + ObjectName.quote(metrics.getCamera()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            // The same camera listed twice is only visible once over JMX, the scrape endpoint shows both
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+                jmxNames.put(metrics, name);
+            }
+        } catch (Exception e) {
+            System.err.println("Error registering metrics MBean: " + e.getMessage());
+        }
+    }
+
+    public void unregister(StreamMetrics metrics) {
+        metricsList.remove(metrics);
+        ObjectName name = jmxNames.remove(metrics);
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            System.err.println("Error unregistering metrics MBean: " + e.getMessage());
+        }
+    }
+
+    public List<StreamMetrics> getAll() {
+        return new ArrayList<>(metricsList);
+    }
+
+    /**
+     * Prometheus text exposition format, one series per camera.
+     */
+    public String renderText() {
+        StringBuilder out = new StringBuilder();
+        List<StreamMetrics> all = getAll();
+
+        gauge(out, all, "camera_ingest_fps", "Frames decoded per second", StreamMetrics::getIngestFps);
+        gauge(out, all, "camera_displayed_fps", "Frames shown per second, summed over views", StreamMetrics::getDisplayedFps);
+        gauge(out, all, "camera_latency_milliseconds", "Estimated queueing latency from PTS against the wall clock", m -> m.getLatencyMillis());
+        counter(out, all, "camera_packets_received_total", "Video packets received", StreamMetrics::getPacketsReceived);
+        counter(out, all, "camera_bytes_received_total", "Video bytes received", StreamMetrics::getBytesReceived);
+        counter(out, all, "camera_frames_decoded_total", "Frames decoded", StreamMetrics::getFramesDecoded);
+        counter(out, all, "camera_frames_published_total", "Frames handed to consumers", StreamMetrics::getFramesPublished);
+        counter(out, all, "camera_frames_displayed_total", "Frames shown by views", StreamMetrics::getFramesDisplayed);
+        counter(out, all, "camera_frames_dropped_late_total", "Frames skipped as late in live pacing", StreamMetrics::getDroppedLate);
+        counter(out, all, "camera_frames_dropped_keyframe_wait_total", "Frames skipped while waiting for a keyframe", StreamMetrics::getDroppedAwaitingKeyFrame);
+        counter(out, all, "camera_frames_dropped_view_total", "Frames replaced or refused at the view before display", StreamMetrics::getDroppedAtView);
+        counter(out, all, "camera_decode_errors_total", "Packets the decoder rejected", StreamMetrics::getDecodeErrors);
+        counter(out, all, "camera_reconnects_total", "Times the stream was reopened", StreamMetrics::getReconnects);
+        counter(out, all, "camera_stalls_total", "Connections restarted after going silent", StreamMetrics::getStalls);
+        histogram(out, all, "camera_decode_seconds", "Time to decode and scale one packet", m -> m.decodeTime);
+        histogram(out, all, "camera_convert_seconds", "Time to copy one frame into a view image", m -> m.convertTime);
+        return out.toString();
+    }
+
+    private interface DoubleValue {
+        double get(StreamMetrics metrics);
+    }
+
+    private interface LongValue {
+        long get(StreamMetrics metrics);
+    }
+
+    private interface HistogramValue {
+        StreamMetrics.Histogram get(StreamMetrics metrics);
+    }
+
+    private static void gauge(StringBuilder out, List<StreamMetrics> all, String name, String help, DoubleValue value) {
+        header(out, name, help, "gauge");
+        for (StreamMetrics metrics : all) {
+            out.append(name).append(labels(metrics, null)).append(' ').append(format(value.get(metrics))).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, List<StreamMetrics> all, String name, String help, LongValue value) {
+        header(out, name, help, "counter");
+        for (StreamMetrics metrics : all) {
+            out.append(name).append(labels(metrics, null)).append(' ').append(value.get(metrics)).append('\n');
+        }
+    }
+
+    private static void histogram(StringBuilder out, List<StreamMetrics> all, String name, String help, HistogramValue value) {
+        header(out, name, help, "histogram");
+        for (StreamMetrics metrics : all) {
+            StreamMetrics.Histogram histogram = value.get(metrics);
+            long cumulative = 0;
+            for (int i = 0; i < StreamMetrics.Histogram.BOUNDS_MICROS.length; i++) {
+                cumulative += histogram.getBucketCount(i);
+                long bound = StreamMetrics.Histogram.BOUNDS_MICROS[i];
+                String le = bound == Long.MAX_VALUE ? "+Inf" : format(bound / 1e6);
+                out.append(name).append("_bucket").append(labels(metrics, le)).append(' ').append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum").append(labels(metrics, null)).append(' ')
+                    .append(format(histogram.getSumNanos() / 1e9)).append('\n');
+            out.append(name).append("_count").append(labels(metrics, null)).append(' ').append(histogram.getCount()).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String labels(StreamMetrics metrics, String le) {
+        String camera = metrics.getCamera().replace("\\", "\\\\").replace("\"", "\\\"");
+        return "{camera=\"" + camera + "\"" + (le != null ? ",le=\"" + le + "\"" : "") + "}";
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+}
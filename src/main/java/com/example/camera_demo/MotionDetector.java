@@ -0,0 +1,372 @@
+package com.example.camera_demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Motion detection for one camera on a small grayscale copy of each analysed picture's luma plane.
+ *
+ * The session's decoder scales the Y plane down inside swscale and copies it into this detector's
+ * buffer on the ingest thread; the comparison runs later on a shared {@link MotionWorker}. A frame
+ * arriving while the previous one is still being analysed is skipped, so analysis never holds back
+ * decoding or display. The background model, change counts and region labels are primitive arrays
+ * allocated once; only an emitted {@link MotionEvent} allocates.
+ *
+ * Changed cells are grouped into blocks, and neighbouring active blocks into regions.
+ */
+public class MotionDetector {
+
+    public interface Listener {
+        // Called on a motion worker thread
+        void onMotion(MotionDetector detector, MotionEvent event);
+    }
+
+    // Immutable, replace the whole object to retune a running detector
+    public static class Settings {
+        public static final Settings DEFAULT = new Settings(5, 20, 0.5, 5000);
+
+        final int analysisFps;
+        final int pixelThreshold;
+        final double minChangedPercent;
+        final long quietMillis;
+
+        /**
+         * @param analysisFps       pictures analysed per second at most
+         * @param pixelThreshold    luma difference from the background that counts as change, 1-255
+         * @param minChangedPercent share of the picture that must change to count as motion
+         * @param quietMillis       time without motion before an event ends
+         */
+        public Settings(int analysisFps, int pixelThreshold, double minChangedPercent, long quietMillis) {
+            this.analysisFps = Math.max(1, analysisFps);
+            this.pixelThreshold = Math.max(1, Math.min(255, pixelThreshold));
+            this.minChangedPercent = minChangedPercent;
+            this.quietMillis = quietMillis;
+        }
+
+        public int getAnalysisFps() {
+            return analysisFps;
+        }
+
+        public int getPixelThreshold() {
+            return pixelThreshold;
+        }
+
+        public double getMinChangedPercent() {
+            return minChangedPercent;
+        }
+
+        public long getQuietMillis() {
+            return quietMillis;
+        }
+
+        public Settings withPixelThreshold(int threshold) {
+            return new Settings(analysisFps, threshold, minChangedPercent, quietMillis);
+        }
+    }
+
+    // Part of the picture that changed, in fractions of the picture size
+    public static class Region {
+        private final double x;
+        private final double y;
+        private final double width;
+        private final double height;
+        private final double score;
+
+        Region(double x, double y, double width, double height, double score) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.score = score;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+
+        // Share of the region's cells that changed
+        public double getScore() {
+            return score;
+        }
+    }
+
+    public static class MotionEvent {
+        private final String cameraUrl;
+        private final long timeMillis;
+        private final boolean active;
+        private final double score;
+        private final List<Region> regions;
+
+        MotionEvent(String cameraUrl, long timeMillis, boolean active, double score, List<Region> regions) {
+            this.cameraUrl = cameraUrl;
+            this.timeMillis = timeMillis;
+            this.active = active;
+            this.score = score;
+            this.regions = regions;
+        }
+
+        public String getCameraUrl() {
+            return cameraUrl;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        // False for the event that ends a period of motion
+        public boolean isActive() {
+            return active;
+        }
+
+        // Share of the whole picture that changed
+        public double getScore() {
+            return score;
+        }
+
+        public List<Region> getRegions() {
+            return regions;
+        }
+    }
+
+    public static final int GRID_WIDTH = 64;
+    public static final int GRID_HEIGHT = 36;
+
+    private static final int BLOCK_SIZE = 4;                     // Grid cells per block side
+    private static final int BLOCK_MIN_CHANGED = 4;              // Of 16 cells, for a block to be active
+    private static final int LEARNING_SHIFT = 5;                 // Background moves 1/32 towards each picture
+    private static final int WARM_UP_FRAMES = 10;
+    private static final double LIGHTING_CHANGE_FRACTION = 0.6;  // Most of the picture at once is light, not motion
+    private static final long UPDATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final String cameraUrl;
+    private final Listener listener;
+    private final MotionWorker worker;
+    private volatile Settings settings;
+
+    // Written on the ingest thread while idle, read on the worker while busy
+    private final byte[] luma = new byte[GRID_WIDTH * GRID_HEIGHT];
+    private volatile boolean busy = false;
+    private long lastSubmitNanos = 0;
+    private volatile long skippedFrames = 0;
+
+    // Worker state
+    private final int blocksX = GRID_WIDTH / BLOCK_SIZE;
+    private final int blocksY = GRID_HEIGHT / BLOCK_SIZE;
+    private final int[] background = new int[GRID_WIDTH * GRID_HEIGHT]; // Luma << 8
+    private final int[] blockChanged = new int[blocksX * blocksY];
+    private final int[] blockLabel = new int[blocksX * blocksY];
+    private final int[] labelStack = new int[blocksX * blocksY];
+    private final int[] regionBounds = new int[blocksX * blocksY * 4];
+    private final int[] regionChanged = new int[blocksX * blocksY];
+    private int framesSeen = 0;
+    private boolean motionActive = false;
+    private long lastMotionNanos = 0;
+    private long lastEventNanos = 0;
+    private volatile long analysisNanos = 0;
+
+    public MotionDetector(String cameraUrl, Settings settings, MotionWorker worker, Listener listener) {
+        this.cameraUrl = cameraUrl;
+        this.settings = settings;
+        this.worker = worker;
+        this.listener = listener;
+    }
+
+    public String getCameraUrl() {
+        return cameraUrl;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public void setSettings(Settings settings) {
+        this.settings = settings;
+    }
+
+    // Called on the ingest thread before decoding, decides whether the next picture is analysed
+    boolean isDue(long nowNanos) {
+        if (nowNanos - lastSubmitNanos < 1_000_000_000L / settings.analysisFps) {
+            return false;
+        }
+        if (busy) {
+            skippedFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    // Called on the ingest thread right after a decode that produced the luma copy
+    void submit(VideoDecoder decoder, long nowNanos) {
+        if (busy || !decoder.copyLuma(luma)) {
+            return;
+        }
+        lastSubmitNanos = nowNanos;
+        busy = true;
+        if (!worker.offer(this)) {
+            // Every worker is behind, drop this picture rather than queue it
+            skippedFrames++;
+            busy = false;
+        }
+    }
+
+    // Called on a motion worker
+    void analyse() {
+        long startNanos = System.nanoTime();
+        try {
+            compare(settings, startNanos);
+        } finally {
+            analysisNanos = System.nanoTime() - startNanos;
+            busy = false;
+        }
+    }
+
+    private void compare(Settings current, long now) {
+        int cells = luma.length;
+        if (framesSeen == 0) {
+            for (int i = 0; i < cells; i++) {
+                background[i] = (luma[i] & 0xFF) << 8;
+            }
+        }
+        framesSeen++;
+
+        int threshold = current.pixelThreshold << 8;
+        int changed = 0;
+        Arrays.fill(blockChanged, 0);
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            int row = y * GRID_WIDTH;
+            int blockRow = Math.min(y / BLOCK_SIZE, blocksY - 1) * blocksX;
+            for (int x = 0; x < GRID_WIDTH; x++) {
+                int i = row + x;
+                int value = (luma[i] & 0xFF) << 8;
+                int difference = value - background[i];
+                if (difference > threshold || difference < -threshold) {
+                    changed++;
+                    blockChanged[blockRow + Math.min(x / BLOCK_SIZE, blocksX - 1)]++;
+                }
+                background[i] += difference >> LEARNING_SHIFT;
+            }
+        }
+
+        double score = changed / (double) cells;
+        if (framesSeen <= WARM_UP_FRAMES) {
+            return;
+        }
+        if (score >= LIGHTING_CHANGE_FRACTION) {
+            // Lights switched or the camera changed exposure, start the background over
+            framesSeen = 0;
+            return;
+        }
+
+        int regionCount = score * 100 >= current.minChangedPercent ? labelRegions() : 0;
+        if (regionCount > 0) {
+            lastMotionNanos = now;
+            if (!motionActive || now - lastEventNanos >= UPDATE_INTERVAL_NANOS) {
+                motionActive = true;
+                lastEventNanos = now;
+                listener.onMotion(this, new MotionEvent(cameraUrl, System.currentTimeMillis(), true, score,
+                        buildRegions(regionCount)));
+            }
+        } else if (motionActive && now - lastMotionNanos >= current.quietMillis * 1_000_000L) {
+            motionActive = false;
+            lastEventNanos = now;
+            listener.onMotion(this, new MotionEvent(cameraUrl, System.currentTimeMillis(), false, score,
+                    Collections.emptyList()));
+        }
+    }
+
+    // Joins neighbouring active blocks, leaves bounds and counts per region, returns the region count
+    private int labelRegions() {
+        Arrays.fill(blockLabel, -1);
+        int regions = 0;
+        for (int start = 0; start < blockChanged.length; start++) {
+            if (blockChanged[start] < BLOCK_MIN_CHANGED || blockLabel[start] >= 0) {
+                continue;
+            }
+
+            int bounds = regions * 4;
+            regionBounds[bounds] = Integer.MAX_VALUE;
+            regionBounds[bounds + 1] = Integer.MAX_VALUE;
+            regionBounds[bounds + 2] = -1;
+            regionBounds[bounds + 3] = -1;
+            regionChanged[regions] = 0;
+
+            int top = 0;
+            labelStack[top++] = start;
+            blockLabel[start] = regions;
+            while (top > 0) {
+                int block = labelStack[--top];
+                int bx = block % blocksX;
+                int by = block / blocksX;
+                regionBounds[bounds] = Math.min(regionBounds[bounds], bx);
+                regionBounds[bounds + 1] = Math.min(regionBounds[bounds + 1], by);
+                regionBounds[bounds + 2] = Math.max(regionBounds[bounds + 2], bx);
+                regionBounds[bounds + 3] = Math.max(regionBounds[bounds + 3], by);
+                regionChanged[regions] += blockChanged[block];
+
+                // Four neighbours, each block is pushed once
+                if (bx > 0) {
+                    top = push(block - 1, regions, top);
+                }
+                if (bx < blocksX - 1) {
+                    top = push(block + 1, regions, top);
+                }
+                if (by > 0) {
+                    top = push(block - blocksX, regions, top);
+                }
+                if (by < blocksY - 1) {
+                    top = push(block + blocksX, regions, top);
+                }
+            }
+            regions++;
+        }
+        return regions;
+    }
+
+    private int push(int block, int label, int top) {
+        if (blockChanged[block] >= BLOCK_MIN_CHANGED && blockLabel[block] < 0) {
+            blockLabel[block] = label;
+            labelStack[top++] = block;
+        }
+        return top;
+    }
+
+    private List<Region> buildRegions(int regionCount) {
+        List<Region> regions = new ArrayList<>(regionCount);
+        for (int r = 0; r < regionCount; r++) {
+            int bounds = r * 4;
+            int widthBlocks = regionBounds[bounds + 2] - regionBounds[bounds] + 1;
+            int heightBlocks = regionBounds[bounds + 3] - regionBounds[bounds + 1] + 1;
+            int regionCells = widthBlocks * heightBlocks * BLOCK_SIZE * BLOCK_SIZE;
+            regions.add(new Region(regionBounds[bounds] / (double) blocksX, regionBounds[bounds + 1] / (double) blocksY,
+                    widthBlocks / (double) blocksX, heightBlocks / (double) blocksY, regionChanged[r] / (double) regionCells));
+        }
+        return regions;
+    }
+
+    public boolean isMotionActive() {
+        return motionActive;
+    }
+
+    // Pictures not analysed because the previous one was still in progress
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public double getAnalysisMillis() {
+        return analysisNanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.camera_demo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Motion detection on any set of cameras, sharing one {@link MotionWorker}.
+ *
+ * Like recording, each monitored camera holds its own reference on the shared session. Settings
+ * are kept per camera and survive turning detection off and on again.
+ */
+public class MotionMonitor {
+
+    private final CameraStreamManager streamManager;
+    private final MotionDetector.Listener listener;
+    private final MotionWorker worker;
+    private final Map<String, MotionDetector> detectors = new HashMap<>();
+    private final Map<String, MotionDetector.Settings> settings = new HashMap<>();
+
+    public MotionMonitor(CameraStreamManager streamManager, int workerThreads, MotionDetector.Listener listener) {
+        this.streamManager = streamManager;
+        this.listener = listener;
+        this.worker = new MotionWorker(workerThreads);
+    }
+
+    // Watches exactly these cameras, detectors already running keep their background model
+    public synchronized void monitorOnly(List<String> cameraUrls) {
+        Set<String> wanted = new HashSet<>(cameraUrls);
+        for (String url : new ArrayList<>(detectors.keySet())) {
+            if (!wanted.contains(url)) {
+                stopMonitoring(url);
+            }
+        }
+        for (String url : wanted) {
+            if (!detectors.containsKey(url)) {
+                MotionDetector detector = new MotionDetector(url, getSettings(url), worker, listener);
+                streamManager.openSession(url).setMotionDetector(detector);
+                detectors.put(url, detector);
+            }
+        }
+    }
+
+    private void stopMonitoring(String cameraUrl) {
+        if (detectors.remove(cameraUrl) == null) {
+            return;
+        }
+        CameraSession session = streamManager.getSession(cameraUrl);
+        if (session != null) {
+            session.setMotionDetector(null);
+        }
+        streamManager.closeSession(cameraUrl);
+    }
+
+    public synchronized boolean isMonitoring(String cameraUrl) {
+        return detectors.containsKey(cameraUrl);
+    }
+
+    public synchronized boolean isMotionActive(String cameraUrl) {
+        MotionDetector detector = detectors.get(cameraUrl);
+        return detector != null && detector.isMotionActive();
+    }
+
+    public synchronized MotionDetector.Settings getSettings(String cameraUrl) {
+        return settings.getOrDefault(cameraUrl, MotionDetector.Settings.DEFAULT);
+    }
+
+    // Applies to a running detector from its next picture
+    public synchronized void setSettings(String cameraUrl, MotionDetector.Settings cameraSettings) {
+        settings.put(cameraUrl, cameraSettings);
+        MotionDetector detector = detectors.get(cameraUrl);
+        if (detector != null) {
+            detector.setSettings(cameraSettings);
+        }
+    }
+
+    // Detaches every detector, monitoring can start again afterwards
+    public synchronized void stopAll() {
+        for (String url : new ArrayList<>(detectors.keySet())) {
+            stopMonitoring(url);
+        }
+    }
+
+    // Also stops the shared worker, the monitor is not used again
+    public synchronized void close() {
+        stopAll();
+        worker.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.camera_demo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed threads that run motion analysis for every camera.
+ *
+ * The thread count is the CPU budget for motion detection: a wall of 16 cameras shares the same
+ * threads, and a detector whose picture cannot be queued skips it instead of waiting. Each detector
+ * has at most one picture queued, so the bounded queue never fills while it holds one slot per camera.
+ */
+public class MotionWorker {
+
+    public static final int DEFAULT_THREADS = 1;
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final ArrayBlockingQueue<MotionDetector> ready = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ExecutorService threads;
+
+    public MotionWorker(int threadCount) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Daemon threads: idle ones wait on the queue and must not keep the app running
+        threads = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "motion-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threadCount; i++) {
+            threads.submit(this::work);
+        }
+    }
+
+    // Never blocks the ingest thread, false if the queue is full
+    boolean offer(MotionDetector detector) {
+        return ready.offer(detector);
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                MotionDetector detector = ready.take();
+                try {
+                    detector.analyse();
+                } catch (RuntimeException e) {
+                    System.err.println("Motion analysis error (" + detector.getCameraUrl() + "): " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close() {
+        threads.shutdownNow();
+    }
+}
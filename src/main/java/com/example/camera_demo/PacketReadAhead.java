@@ -0,0 +1,124 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads a connection's packets on their own thread, for a grab loop that sleeps between frames
+ * to pace them. The demuxer then takes data from the socket as it arrives, not when the loop
+ * next needs a packet, so a silent camera is noticed at once however far behind the loop is:
+ * {@code avformat_find_stream_info} alone leaves it about a second behind.
+ *
+ * The format context's interrupt callback must end a blocked read once the connection closes.
+ */
+class PacketReadAhead implements AutoCloseable {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final AVFormatContext formatContext;
+    private final LongConsumer onRead;
+    private final BlockingQueue<AVPacket> queue;
+    private volatile int result = 0;
+    private volatile boolean finished = false; // Nothing more will be queued
+    private volatile boolean closed = false;
+    private Future<?> task;
+
+    /**
+     * @param capacity packets held before reading waits for the loop
+     * @param onRead   told the nanoTime of every packet read, on the reading thread
+     */
+    PacketReadAhead(AVFormatContext formatContext, int capacity, LongConsumer onRead) {
+        this.formatContext = formatContext;
+        this.onRead = onRead;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    void start(ExecutorService executor) {
+        task = executor.submit(this::readAll);
+    }
+
+    private void readAll() {
+        AVPacket packet = avcodec.av_packet_alloc();
+        try {
+            while (!closed) {
+                int ret = avformat.av_read_frame(formatContext, packet);
+                if (ret < 0) {
+                    result = ret;
+                    break;
+                }
+                onRead.accept(System.nanoTime());
+                AVPacket queued = avcodec.av_packet_alloc();
+                avcodec.av_packet_move_ref(queued, packet);
+                while (!queue.offer(queued, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        avcodec.av_packet_free(queued);
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            avcodec.av_packet_free(packet);
+            finished = true;
+        }
+    }
+
+    /**
+     * Moves the next packet into the given one, waiting for it.
+     *
+     * @return 0, or the error that ended reading, like {@code av_read_frame}
+     */
+    int read(AVPacket packet) throws InterruptedException {
+        AVPacket next;
+        while ((next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (finished && (next = queue.poll()) == null) {
+                return result < 0 ? result : avutil.AVERROR_EOF;
+            }
+            if (next != null) {
+                break;
+            }
+        }
+        avcodec.av_packet_move_ref(packet, next);
+        avcodec.av_packet_free(next);
+        return 0;
+    }
+
+    // Waits for the reading thread, then frees what it left queued. Call before closing the context,
+    // even when interrupted: the thread may still be inside av_read_frame.
+    @Override
+    public void close() {
+        closed = true;
+        boolean interrupted = false;
+        while (task != null) {
+            try {
+                // The interrupt callback ends a blocked read within its polling interval
+                task.get();
+                task = null;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                System.err.println("Packet reader failed: " + e.getCause());
+                task = null;
+            }
+        }
+        AVPacket packet;
+        while ((packet = queue.poll()) != null) {
+            avcodec.av_packet_free(packet);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays one recorded segment as {@link VideoFrame}s, the same frames a live session publishes.
+ *
+ * A decode thread runs ahead, queueing a few retained decoder frames, and a present thread hands
+ * them to the listener at their timestamps, so a slow GOP start does not stall the picture. Scrubbing shows
+ * only the keyframe before each position, a seek then decodes forward to the exact frame. Fast
+ * forward decodes every picture at 2x and converts only those the display can show, from 4x it
+ * decodes keyframes only. Audio is not played.
+ */
+public class PlaybackEngine implements AutoCloseable {
+
+    public enum State {
+        STOPPED,
+        PLAYING,
+        PAUSED
+    }
+
+    public interface Listener {
+        // Called on the present thread, the frame is only valid during the call unless retained
+        void onFrame(PlaybackEngine engine, VideoFrame frame);
+
+        // Position and length from the start of the file, a few times a second while playing
+        void onProgress(PlaybackEngine engine, long positionMicros, long durationMicros);
+
+        void onStateChanged(PlaybackEngine engine, State state);
+    }
+
+    public static final int[] SPEEDS = {1, 2, 4, 8};
+
+    private static final int QUEUE_FRAMES = 8;
+    private static final int DECODER_THREADS = 2;
+    private static final long DISPLAY_INTERVAL_MICROS = 1_000_000 / 60; // Closer frames would never reach the screen
+    private static final long LATE_FRAME_NANOS = 100_000_000L;
+    private static final long RESYNC_NANOS = 1_000_000_000L;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+    private static final long POLL_MILLIS = 10;
+
+    // A decoded frame, retained until presented, tagged with the seek it belongs to
+    private static class QueuedFrame {
+        final VideoFrame frame;
+        final long generation;
+        final boolean still; // Result of a seek or scrub, shown straight away
+
+        QueuedFrame(VideoFrame frame, long generation, boolean still) {
+            this.frame = frame;
+            this.generation = generation;
+            this.still = still;
+        }
+    }
+
+    private static class SeekRequest {
+        final long positionMicros;
+        final boolean exact;
+
+        SeekRequest(long positionMicros, boolean exact) {
+            this.positionMicros = positionMicros;
+            this.exact = exact;
+        }
+    }
+
+    private final Path file;
+    private final Listener listener;
+    private final KeyframeIndex index;
+    private final ArrayBlockingQueue<QueuedFrame> decodedFrames = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+    // Only the newest request matters, one arriving while another is pending replaces it
+    private final AtomicReference<SeekRequest> pendingSeek = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean running = false;
+    private volatile State state = State.PAUSED;
+    private volatile int speed = 1;
+    private volatile boolean ended = false;
+    private volatile long startMicros = 0;
+    private volatile long durationMicros = 0;
+    private volatile long positionMicros = 0;
+    private Future<?> decodeTask;
+    private Future<?> presentTask;
+
+    public PlaybackEngine(Path file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+        this.index = openIndex(file);
+    }
+
+    // Seeks work without the sidecar too, they just land on whatever keyframe FFmpeg finds
+    private static KeyframeIndex openIndex(Path file) {
+        Path indexFile = KeyframeIndex.sidecarFor(file);
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try {
+            return KeyframeIndex.open(indexFile);
+        } catch (Exception e) {
+            System.err.println("Error reading keyframe index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Opens the file paused on its first frame
+    public synchronized void start(ExecutorService executorService) {
+        if (running) {
+            return;
+        }
+        running = true;
+        pendingSeek.set(new SeekRequest(0, true));
+        decodeTask = executorService.submit(this::decodeLoop);
+        presentTask = executorService.submit(this::presentLoop);
+    }
+
+    public void play() {
+        if (ended && decodedFrames.isEmpty()) {
+            // Played to the end, start over
+            seek(0);
+        }
+        setState(State.PLAYING);
+    }
+
+    public void pause() {
+        setState(State.PAUSED);
+    }
+
+    public void stop() {
+        setState(State.STOPPED);
+        seek(0);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // One of SPEEDS, takes effect from the next packet
+    public void setSpeed(int speed) {
+        this.speed = Math.max(1, speed);
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    // Frame-accurate: decodes from the keyframe before the position up to it
+    public void seek(long positionMicros) {
+        pendingSeek.set(new SeekRequest(positionMicros, true));
+    }
+
+    // For slider drags: shows the keyframe at or before the position, nothing else is decoded
+    public void scrub(long positionMicros) {
+        pendingSeek.set(new SeekRequest(positionMicros, false));
+    }
+
+    public long getPositionMicros() {
+        return positionMicros;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    private void setState(State newState) {
+        if (state != newState) {
+            state = newState;
+            listener.onStateChanged(this, newState);
+        }
+    }
+
+    private void decodeLoop() {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file.toString());
+        VideoDecoder decoder = null;
+        try {
+            // Packets are decoded by our own VideoDecoder, the grabber's decoder stays idle
+            grabber.setVideoOption("threads", "1");
+            grabber.start();
+
+            AVFormatContext formatContext = grabber.getFormatContext();
+            AVStream videoStream = CameraSession.findVideoStream(grabber);
+            decoder = new VideoDecoder(videoStream, DECODER_THREADS);
+            startMicros = formatContext.start_time() == avutil.AV_NOPTS_VALUE ? 0 : formatContext.start_time();
+            long indexedMicros = index != null && index.size() > 0 ? index.getPtsMicros(index.size() - 1) : 0;
+            // A fragmented file still being written may not know its length yet
+            durationMicros = Math.max(formatContext.duration() == avutil.AV_NOPTS_VALUE ? 0 : formatContext.duration(),
+                    indexedMicros);
+
+            long currentGeneration = generation.get();
+            long convertFromMicros = Long.MIN_VALUE;
+            long exactTargetMicros = Long.MIN_VALUE;
+            long scrubbedKeyFrameMicros = -1;
+            int appliedSpeed = 0;
+
+            while (running && !Thread.currentThread().isInterrupted()) {
+                SeekRequest seek = pendingSeek.getAndSet(null);
+                if (seek != null) {
+                    long target = Math.max(0, durationMicros > 0 ? Math.min(seek.positionMicros, durationMicros) : seek.positionMicros);
+                    long keyFrameMicros = findKeyFrame(target);
+                    if (!seek.exact && keyFrameMicros == scrubbedKeyFrameMicros) {
+                        // Still inside the GOP already on screen
+                        continue;
+                    }
+
+                    // Frames decoded for the old position are dropped by the present thread
+                    currentGeneration = generation.incrementAndGet();
+                    seekTo(formatContext, decoder, keyFrameMicros);
+                    ended = false;
+                    if (seek.exact) {
+                        exactTargetMicros = startMicros + target;
+                        convertFromMicros = exactTargetMicros;
+                        scrubbedKeyFrameMicros = -1;
+                    } else {
+                        showKeyFrame(grabber, decoder, videoStream.index(), currentGeneration);
+                        // Decoding resumes from a clean keyframe rather than mid-GOP
+                        seekTo(formatContext, decoder, keyFrameMicros);
+                        scrubbedKeyFrameMicros = keyFrameMicros;
+                        convertFromMicros = Long.MIN_VALUE;
+                    }
+                    continue;
+                }
+
+                if (ended) {
+                    Thread.sleep(POLL_MILLIS);
+                    continue;
+                }
+
+                AVPacket packet = grabber.grabPacket();
+                if (packet == null) {
+                    // Drain the frames the decoder still holds
+                    VideoFrame last = decoder.decode(null, convertFromMicros);
+                    if (last != null) {
+                        queueFrame(last, currentGeneration, exactTargetMicros != Long.MIN_VALUE);
+                    }
+                    ended = true;
+                    continue;
+                }
+
+                try {
+                    if (packet.stream_index() != videoStream.index()) {
+                        continue;
+                    }
+
+                    // An exact seek needs every picture up to its target. At 2x every picture is decoded:
+                    // camera H.264 has no B-frames, each P-frame is a reference, so discarding non-reference
+                    // pictures would skip nothing. Only the conversion is skipped, by timestamp below.
+                    int currentSpeed = exactTargetMicros != Long.MIN_VALUE ? 1 : speed;
+                    if (currentSpeed != appliedSpeed) {
+                        appliedSpeed = currentSpeed;
+                        decoder.setSkipFrame(currentSpeed >= 4 ? avcodec.AVDISCARD_NONKEY : avcodec.AVDISCARD_DEFAULT);
+                    }
+                    boolean keyPacket = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+                    if (currentSpeed >= 4 && !keyPacket) {
+                        // Never reaches the decoder
+                        continue;
+                    }
+
+                    VideoFrame frame = decoder.decode(packet, convertFromMicros);
+                    if (frame != null) {
+                        boolean still = exactTargetMicros != Long.MIN_VALUE;
+                        exactTargetMicros = Long.MIN_VALUE;
+                        // Frames closer together than the display can show are decoded but not converted
+                        convertFromMicros = frame.getTimestampMicros() + DISPLAY_INTERVAL_MICROS * currentSpeed;
+                        queueFrame(frame, currentGeneration, still);
+                    }
+                } finally {
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Playback error (" + file.getFileName() + "): " + e.getMessage());
+            setState(State.STOPPED);
+        } finally {
+            // Frames the present thread will never take, it releases the one it holds
+            QueuedFrame queued;
+            while ((queued = decodedFrames.poll()) != null) {
+                queued.frame.release();
+            }
+            if (decoder != null) {
+                // Frames still retained outlive it
+                decoder.close();
+            }
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                System.err.println("Error stopping playback grabber: " + e.getMessage());
+            }
+        }
+    }
+
+    // Position of the keyframe to start decoding at, exact with an index
+    private long findKeyFrame(long targetMicros) {
+        if (index == null) {
+            return targetMicros;
+        }
+        int keyFrame = index.findAtOrBeforePts(targetMicros);
+        return keyFrame >= 0 ? index.getPtsMicros(keyFrame) : 0;
+    }
+
+    private void seekTo(AVFormatContext formatContext, VideoDecoder decoder, long positionMicros) throws Exception {
+        int ret = avformat.av_seek_frame(formatContext, -1, startMicros + positionMicros, avformat.AVSEEK_FLAG_BACKWARD);
+        if (ret < 0) {
+            throw new Exception("avformat.av_seek_frame() error " + ret);
+        }
+        decoder.flush();
+    }
+
+    // Decodes the first keyframe from the current position on its own
+    private void showKeyFrame(FFmpegFrameGrabber grabber, VideoDecoder decoder, int videoStreamIndex, long frameGeneration)
+            throws Exception {
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            try {
+                if (packet.stream_index() != videoStreamIndex || (packet.flags() & avcodec.AV_PKT_FLAG_KEY) == 0) {
+                    continue;
+                }
+                VideoFrame frame = decoder.decode(packet, Long.MIN_VALUE);
+                if (frame == null) {
+                    // Frame threading holds the picture back until it is drained
+                    frame = decoder.decode(null, Long.MIN_VALUE);
+                }
+                if (frame != null) {
+                    queueFrame(frame, frameGeneration, true);
+                }
+                return;
+            } finally {
+                avcodec.av_packet_unref(packet);
+            }
+        }
+    }
+
+    // Queues the decoder's own frame, retained rather than copied, waiting while the queue is
+    // full unless a seek or close arrives
+    private void queueFrame(VideoFrame frame, long frameGeneration, boolean still) throws InterruptedException {
+        QueuedFrame queued = new QueuedFrame(frame.retain(), frameGeneration, still);
+        while (!decodedFrames.offer(queued, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!running || pendingSeek.get() != null) {
+                frame.release();
+                return;
+            }
+        }
+    }
+
+    private void presentLoop() {
+        QueuedFrame held = null;
+        boolean anchored = false;
+        long anchorMicros = 0;
+        long anchorNanos = 0;
+        int anchorSpeed = 0;
+        long lastProgressNanos = 0;
+
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                if (held == null) {
+                    held = decodedFrames.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (held == null) {
+                    if (ended && state == State.PLAYING && pendingSeek.get() == null) {
+                        // Played to the end
+                        setState(State.PAUSED);
+                        listener.onProgress(this, durationMicros, durationMicros);
+                    }
+                    continue;
+                }
+
+                if (held.generation != generation.get()) {
+                    held.frame.release();
+                    held = null;
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                if (!held.still) {
+                    if (state != State.PLAYING) {
+                        // Keep the frame for when playback resumes
+                        anchored = false;
+                        Thread.sleep(POLL_MILLIS);
+                        continue;
+                    }
+
+                    int currentSpeed = speed;
+                    long dueNanos = anchorNanos + (held.frame.getTimestampMicros() - anchorMicros) * 1000 / Math.max(1, anchorSpeed);
+                    if (!anchored || currentSpeed != anchorSpeed || dueNanos - now > RESYNC_NANOS) {
+                        anchorMicros = held.frame.getTimestampMicros();
+                        anchorNanos = now;
+                        anchorSpeed = currentSpeed;
+                        anchored = true;
+                        dueNanos = now;
+                    }
+
+                    if (dueNanos > now) {
+                        // Short sleeps so a pause or seek is picked up while waiting
+                        Thread.sleep(Math.min(POLL_MILLIS, (dueNanos - now) / 1_000_000L), (int) ((dueNanos - now) % 1_000_000L));
+                        continue;
+                    }
+                    if (now - dueNanos > LATE_FRAME_NANOS && !decodedFrames.isEmpty()) {
+                        // Behind, skip to a frame that is still on time
+                        held.frame.release();
+                        held = null;
+                        continue;
+                    }
+                } else {
+                    anchored = false;
+                }
+
+                positionMicros = Math.max(0, held.frame.getTimestampMicros() - startMicros);
+                listener.onFrame(this, held.frame);
+                if (held.still || now - lastProgressNanos >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgressNanos = now;
+                    listener.onProgress(this, positionMicros, Math.max(durationMicros, positionMicros));
+                }
+                held.frame.release();
+                held = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (held != null) {
+                held.frame.release();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (decodeTask != null) {
+            decodeTask.cancel(true);
+            presentTask.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+
+/**
+ * Keeps the last few seconds of one camera's packets so a recording can start before its trigger.
+ *
+ * Packet data lives in one fixed native block and packet fields in preallocated arrays, so the
+ * memory used per camera is set up front and buffering a packet allocates nothing on the heap.
+ * The buffer always starts at a video keyframe: the oldest GOP is dropped as a whole when time
+ * or space runs out.
+ *
+ * A triggered recorder is filled from the buffer on the ingest thread and then attached to the
+ * session, so the pre-event footage and the live packets join without a gap or a duplicate.
+ */
+public class PreEventBuffer implements CameraSession.PacketConsumer {
+
+    // Sizes the packet tables so a block full of packets this small still has a slot for each
+    private static final int MIN_AVERAGE_PACKET_BYTES = 512;
+
+    private final long windowNanos;
+    private final int capacity;
+    private final BytePointer data;
+    private final AVPacket scratch;
+
+    private final int[] offset;
+    private final int[] size;
+    private final int[] streamIndex;
+    private final int[] flags;
+    private final long[] pts;
+    private final long[] dts;
+    private final long[] duration;
+    private final long[] arrivalNanos;
+    private int head = 0;
+    private int count = 0;
+    private int writePosition = 0;
+
+    // Slots of the buffered video keyframes, oldest first
+    private final int[] keyFrames;
+    private int keyHead = 0;
+    private int keyCount = 0;
+
+    private AVFormatContext formatContext;
+    private int videoStreamIndex = -1;
+    private SegmentRecorder pendingRecorder;
+    private long overflows = 0;
+    private boolean closed = false;
+
+    public PreEventBuffer(long windowMillis, long capacityBytes) {
+        this.windowNanos = windowMillis * 1_000_000L;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, capacityBytes);
+        this.data = new BytePointer(capacity);
+
+        int slots = Math.max(1024, capacity / MIN_AVERAGE_PACKET_BYTES);
+        offset = new int[slots];
+        size = new int[slots];
+        streamIndex = new int[slots];
+        flags = new int[slots];
+        pts = new long[slots];
+        dts = new long[slots];
+        duration = new long[slots];
+        arrivalNanos = new long[slots];
+        keyFrames = new int[slots];
+
+        scratch = avcodec.av_packet_alloc();
+    }
+
+    /**
+     * Hands the buffered packets to the recorder at the next packet, then attaches it to the
+     * session for the live ones.
+     */
+    public synchronized void trigger(SegmentRecorder recorder) {
+        pendingRecorder = recorder;
+    }
+
+    // Withdraws a trigger that has not been served yet
+    public synchronized void cancel(SegmentRecorder recorder) {
+        if (pendingRecorder == recorder) {
+            pendingRecorder = null;
+        }
+    }
+
+    @Override
+    public synchronized void onStreamStart(CameraSession session, AVFormatContext context) {
+        // Packets of an earlier connection cannot be muxed with this one's stream parameters
+        clear();
+        formatContext = context;
+        videoStreamIndex = CameraSession.findVideoStreamIndex(context);
+    }
+
+    @Override
+    public synchronized void onPacket(CameraSession session, AVPacket packet) {
+        if (closed || formatContext == null) {
+            return;
+        }
+
+        append(packet);
+
+        if (pendingRecorder != null) {
+            SegmentRecorder recorder = pendingRecorder;
+            pendingRecorder = null;
+            flushTo(session, recorder);
+            // The session's packet loop has already passed its consumer list for this packet
+            session.addPacketConsumer(recorder);
+        }
+    }
+
+    @Override
+    public synchronized void onStreamEnd(CameraSession session) {
+        clear();
+        formatContext = null;
+    }
+
+    private void append(AVPacket packet) {
+        int packetSize = packet.size();
+        boolean keyFrame = isVideoKeyFrame(packet.stream_index(), packet.flags());
+        if (packetSize <= 0) {
+            return;
+        }
+        if (packetSize > capacity) {
+            // Nothing could be kept across this packet
+            overflows++;
+            clear();
+            return;
+        }
+        if (count == 0 && !keyFrame) {
+            // The buffer starts at a keyframe
+            return;
+        }
+
+        long now = System.nanoTime();
+        trimToWindow(now);
+
+        int position;
+        while ((position = findSpace(packetSize)) < 0 || count == offset.length) {
+            overflows++;
+            dropOldestGop();
+            if (count == 0 && !keyFrame) {
+                return;
+            }
+        }
+
+        int slot = (head + count) % offset.length;
+        Pointer.memcpy(data.position(position), packet.data(), packetSize);
+        data.position(0);
+        offset[slot] = position;
+        size[slot] = packetSize;
+        streamIndex[slot] = packet.stream_index();
+        flags[slot] = packet.flags();
+        pts[slot] = packet.pts();
+        dts[slot] = packet.dts();
+        duration[slot] = packet.duration();
+        arrivalNanos[slot] = now;
+        count++;
+        writePosition = position + packetSize;
+
+        if (keyFrame) {
+            keyFrames[(keyHead + keyCount) % keyFrames.length] = slot;
+            keyCount++;
+        }
+    }
+
+    // Start of a free run of packetSize bytes, or -1 if older packets have to go first
+    private int findSpace(int packetSize) {
+        if (count == 0) {
+            writePosition = 0;
+            return 0;
+        }
+        int oldest = offset[head];
+        if (writePosition > oldest) {
+            // Free space is after the newest packet and before the oldest one
+            if (capacity - writePosition >= packetSize) {
+                return writePosition;
+            }
+            return oldest >= packetSize ? 0 : -1;
+        }
+        // Wrapped, free space is between the newest and the oldest packet
+        return oldest - writePosition >= packetSize ? writePosition : -1;
+    }
+
+    // Keeps the newest keyframe at or before the start of the window
+    private void trimToWindow(long now) {
+        long start = now - windowNanos;
+        while (keyCount >= 2 && arrivalNanos[keyFrames[(keyHead + 1) % keyFrames.length]] <= start) {
+            dropOldestGop();
+        }
+    }
+
+    private void dropOldestGop() {
+        dropOldest();
+        while (count > 0 && !isVideoKeyFrame(streamIndex[head], flags[head])) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        if (keyCount > 0 && keyFrames[keyHead] == head) {
+            keyHead = (keyHead + 1) % keyFrames.length;
+            keyCount--;
+        }
+        head = (head + 1) % offset.length;
+        count--;
+    }
+
+    private boolean isVideoKeyFrame(int stream, int packetFlags) {
+        return stream == videoStreamIndex && (packetFlags & avcodec.AV_PKT_FLAG_KEY) != 0;
+    }
+
+    private void flushTo(CameraSession session, SegmentRecorder recorder) {
+        recorder.onStreamStart(session, formatContext);
+        long nowMillis = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % offset.length;
+            if (avcodec.av_new_packet(scratch, size[slot]) < 0) {
+                System.err.println("Error copying pre-event packet: out of memory");
+                break;
+            }
+            Pointer.memcpy(scratch.data(), data.position(offset[slot]), size[slot]);
+            data.position(0);
+            scratch.stream_index(streamIndex[slot]);
+            scratch.flags(flags[slot]);
+            scratch.pts(pts[slot]);
+            scratch.dts(dts[slot]);
+            scratch.duration(duration[slot]);
+            recorder.onBufferedPacket(scratch, nowMillis - (nowNanos - arrivalNanos[slot]) / 1_000_000L);
+            avcodec.av_packet_unref(scratch);
+        }
+    }
+
+    private void clear() {
+        head = 0;
+        count = 0;
+        keyHead = 0;
+        keyCount = 0;
+        writePosition = 0;
+    }
+
+    // Buffered footage in milliseconds
+    public synchronized long getBufferedMillis() {
+        if (count == 0) {
+            return 0;
+        }
+        int newest = (head + count - 1) % offset.length;
+        return (arrivalNanos[newest] - arrivalNanos[head]) / 1_000_000L;
+    }
+
+    public synchronized int getPacketCount() {
+        return count;
+    }
+
+    // Times older footage was dropped for space rather than age, a sign the buffer is too small
+    public synchronized long getOverflows() {
+        return overflows;
+    }
+
+    // Native memory held for the life of the buffer
+    public long getCapacityBytes() {
+        return capacity;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pendingRecorder = null;
+        clear();
+        data.deallocate();
+        avcodec.av_packet_free(scratch);
+    }
+}
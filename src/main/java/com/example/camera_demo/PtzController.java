@@ -0,0 +1,288 @@
+package com.example.camera_demo;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pan, tilt and zoom commands for cameras with the {@code /cgi-bin/ptz.cgi} interface.
+ *
+ * Each camera has its own pipeline with at most one move in flight. Moves wait in a single slot,
+ * so a newer move replaces one not yet sent and a slow camera never builds up a backlog. While a
+ * direction is held the move is repeated every {@link #REPEAT_MILLIS}, counted from the previous
+ * send and never before its response. A stop is sent at once, alongside whatever is in flight,
+ * and again if a move that was in flight is answered after it.
+ *
+ * Requests are sent asynchronously over HTTP/1.1 keep-alive connections, no thread ever waits
+ * on a camera.
+ */
+public class PtzController {
+
+    public static final long REPEAT_MILLIS = 100;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    // Where and how to reach one camera, the authorization header is built once
+    public static class Camera {
+        final String host;
+        final String baseUrl;
+        final String authorization;
+
+        /**
+         * @param host host or host:port of the camera's web interface
+         */
+        public Camera(String host, String username, String password) {
+            this.host = host;
+            this.baseUrl = "http://" + host + "/cgi-bin/ptz.cgi";
+            this.authorization = username != null
+                    ? "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8))
+                    : null;
+        }
+
+        public String getHost() {
+            return host;
+        }
+    }
+
+    // Guarded by its own lock, requests are sent outside it
+    private class Pipeline {
+        final Camera camera;
+        String heldCommand;            // Direction held down, repeated until stop
+        int heldSpeed;
+        HttpRequest pending;           // Next move, replaced by newer ones until it is sent
+        boolean moveInFlight = false;
+        boolean stopAfterMove = false; // A stop overtook the move in flight
+        long lastSendNanos;
+        HttpRequest pressRequest;      // First move of the held direction, null once answered
+        long pressNanos;
+        String pressCommand;
+        ScheduledFuture<?> repeat;
+        double lastPressMillis;
+        double averagePressMillis;
+
+        Pipeline(Camera camera) {
+            this.camera = camera;
+        }
+
+        synchronized void press(String command, int speed) {
+            heldCommand = command;
+            heldSpeed = speed;
+            pressNanos = System.nanoTime();
+            pressCommand = command;
+            pressRequest = request(camera, command, speed);
+            queue(pressRequest);
+        }
+
+        synchronized void setSpeed(int speed) {
+            if (heldCommand != null && speed != heldSpeed) {
+                heldSpeed = speed;
+                HttpRequest request = request(camera, heldCommand, speed);
+                if (pressRequest != null && pending == pressRequest) {
+                    // The press is measured on the move that carries it to the camera
+                    pressRequest = request;
+                }
+                queue(request);
+            }
+        }
+
+        synchronized void once(String command, int speed) {
+            queue(request(camera, command, speed));
+        }
+
+        synchronized void stop() {
+            heldCommand = null;
+            pending = null;
+            pressRequest = null;
+            cancelRepeat();
+            // The camera may still act on the move in flight, so it is stopped again after that
+            stopAfterMove = moveInFlight;
+            send(request(camera, "stop", 0), false);
+        }
+
+        // Latest wins: the slot holds one move, sent as soon as nothing is in flight
+        private void queue(HttpRequest request) {
+            cancelRepeat();
+            // Sent after the move in flight is answered, so it is the camera's last command anyway
+            stopAfterMove = false;
+            pending = request;
+            if (!moveInFlight) {
+                sendPending();
+            }
+        }
+
+        private void sendPending() {
+            HttpRequest request = pending;
+            pending = null;
+            moveInFlight = true;
+            lastSendNanos = System.nanoTime();
+            send(request, true);
+        }
+
+        private void send(HttpRequest request, boolean move) {
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error != null) {
+                            System.err.println("Error sending PTZ command to " + camera.host + ": " + error.getMessage());
+                        } else if (response.statusCode() != 200) {
+                            System.out.println("PTZ command failed on " + camera.host + ": " + response.statusCode());
+                        }
+                        if (move) {
+                            onMoveAnswered(request, error == null && response.statusCode() == 200);
+                        }
+                    });
+        }
+
+        private synchronized void onMoveAnswered(HttpRequest request, boolean succeeded) {
+            moveInFlight = false;
+            if (request == pressRequest) {
+                pressRequest = null;
+                if (succeeded) {
+                    lastPressMillis = (System.nanoTime() - pressNanos) / 1e6;
+                    averagePressMillis = averagePressMillis == 0 ? lastPressMillis : averagePressMillis * 0.8 + lastPressMillis * 0.2;
+                    System.out.printf("PTZ %s on %s answered %.0f ms after the press%n", pressCommand, camera.host, lastPressMillis);
+                }
+            }
+            if (stopAfterMove) {
+                stopAfterMove = false;
+                send(request(camera, "stop", 0), false);
+            } else if (pending != null) {
+                sendPending();
+            } else if (heldCommand != null) {
+                long waitNanos = TimeUnit.MILLISECONDS.toNanos(REPEAT_MILLIS) - (System.nanoTime() - lastSendNanos);
+                repeat = scheduler.schedule(this::repeatHeld, Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private synchronized void repeatHeld() {
+            repeat = null;
+            if (heldCommand != null && pending == null && !moveInFlight) {
+                pending = request(camera, heldCommand, heldSpeed);
+                sendPending();
+            }
+        }
+
+        private void cancelRepeat() {
+            if (repeat != null) {
+                repeat.cancel(false);
+                repeat = null;
+            }
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Pipeline> pipelines = new HashMap<>();
+
+    public PtzController() {
+        // HTTP/1.1 keeps connections alive without the h2c upgrade cameras tend to mishandle
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ptz-repeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private synchronized Pipeline pipeline(Camera camera) {
+        return pipelines.computeIfAbsent(camera.host, host -> new Pipeline(camera));
+    }
+
+    /**
+     * Starts moving and keeps moving until {@link #stop}. Commands are up, down, left, right,
+     * zoomIn and zoomOut, speed is the camera's 0 to 8.
+     */
+    public void press(Camera camera, String command, int speed) {
+        pipeline(camera).press(command, speed);
+    }
+
+    // Applies to the direction held down, if any
+    public void setSpeed(Camera camera, int speed) {
+        pipeline(camera).setSpeed(speed);
+    }
+
+    // A single command, home goes to preset 1
+    public void send(Camera camera, String command, int speed) {
+        pipeline(camera).once(command, speed);
+    }
+
+    public void stop(Camera camera) {
+        pipeline(camera).stop();
+    }
+
+    // Stops every camera that is moving, for shutdown
+    public synchronized void stopAll() {
+        for (Pipeline pipeline : pipelines.values()) {
+            synchronized (pipeline) {
+                if (pipeline.heldCommand != null || pipeline.moveInFlight) {
+                    pipeline.stop();
+                }
+            }
+        }
+    }
+
+    // Press to first answered move, the latency a user feels on this camera
+    public double getLastPressMillis(Camera camera) {
+        Pipeline pipeline = pipeline(camera);
+        synchronized (pipeline) {
+            return pipeline.lastPressMillis;
+        }
+    }
+
+    public double getAveragePressMillis(Camera camera) {
+        Pipeline pipeline = pipeline(camera);
+        synchronized (pipeline) {
+            return pipeline.averagePressMillis;
+        }
+    }
+
+    private static HttpRequest request(Camera camera, String command, int speed) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(camera.baseUrl + "?" + query(command, speed)))
+                .timeout(REQUEST_TIMEOUT)
+                .GET();
+        if (camera.authorization != null) {
+            builder.header("Authorization", camera.authorization);
+        }
+        return builder.build();
+    }
+
+    // These might need adjusting for a specific camera model
+    private static String query(String command, int speed) {
+        String arguments = "&arg1=" + speed + "&arg2=" + speed;
+        switch (command) {
+            case "up":
+                return "action=start&channel=0&code=Up" + arguments;
+            case "down":
+                return "action=start&channel=0&code=Down" + arguments;
+            case "left":
+                return "action=start&channel=0&code=Left" + arguments;
+            case "right":
+                return "action=start&channel=0&code=Right" + arguments;
+            case "zoomIn":
+                return "action=start&channel=0&code=ZoomTele" + arguments;
+            case "zoomOut":
+                return "action=start&channel=0&code=ZoomWide" + arguments;
+            case "home":
+                return "action=start&channel=0&code=GotoPreset&arg1=1&arg2=1";
+            case "stop":
+                return "action=stop&channel=0&code=Up";
+            default:
+                throw new IllegalArgumentException("Unknown PTZ command: " + command);
+        }
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.camera_demo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Retry timing for everything that reconnects: the control WebSocket and every camera session.
+ *
+ * A target waits its policy's base delay doubled per consecutive failure, up to the cap, and a
+ * random half of that wait is dropped, so cameras that went offline together do not all retry at
+ * the same moment. A target has at most one pending attempt; asking again while one is pending
+ * changes nothing. Waiting holds no thread: a single timer thread starts the attempts, which must
+ * hand anything blocking to their own executor.
+ *
+ * Failures are only forgotten once a connection has held for {@link #STABLE_MILLIS}, so a server
+ * that accepts and drops connections is retried with growing delays too.
+ */
+public class ReconnectScheduler {
+
+    public static final long STABLE_MILLIS = 30_000;
+
+    public static class Policy {
+        final long baseMillis;
+        final long maxMillis;
+
+        public Policy(long baseMillis, long maxMillis) {
+            this.baseMillis = Math.max(1, baseMillis);
+            this.maxMillis = Math.max(this.baseMillis, maxMillis);
+        }
+    }
+
+    public static final Policy WEBSOCKET = new Policy(1000, 30_000);
+    public static final Policy CAMERA = new Policy(2000, 60_000);
+
+    private static class Target {
+        int failures = 0;
+        long connectedMillis = 0; // 0 while not connected
+        ScheduledFuture<?> pending;
+    }
+
+    private final LongSupplier clock;
+    private final Map<Object, Target> targets = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reconnect-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReconnectScheduler() {
+        this(System::currentTimeMillis);
+    }
+
+    // Wall clock in milliseconds for the stability window, tests pass their own
+    ReconnectScheduler(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the attempt on the timer thread after the target's next delay.
+     *
+     * @return the delay in milliseconds, or -1 if an attempt is already pending
+     */
+    public synchronized long schedule(Object key, Policy policy, Runnable attempt) {
+        Target target = targets.computeIfAbsent(key, k -> new Target());
+        if (target.pending != null) {
+            return -1;
+        }
+        long now = clock.getAsLong();
+        if (target.connectedMillis != 0 && now - target.connectedMillis >= STABLE_MILLIS) {
+            target.failures = 0;
+        }
+        target.connectedMillis = 0;
+
+        long delay = delayMillis(policy, target.failures++);
+        target.pending = timer.schedule(() -> fire(key, target, attempt), delay, TimeUnit.MILLISECONDS);
+        return delay;
+    }
+
+    private void fire(Object key, Target target, Runnable attempt) {
+        synchronized (this) {
+            if (targets.get(key) != target || target.pending == null) {
+                return;
+            }
+            target.pending = null;
+        }
+        try {
+            attempt.run();
+        } catch (RuntimeException e) {
+            // The timer thread serves every target
+            System.err.println("Reconnect attempt failed to start: " + e.getMessage());
+        }
+    }
+
+    // The target has a working connection, its failures are forgotten once it holds
+    public synchronized void connected(Object key) {
+        Target target = targets.computeIfAbsent(key, k -> new Target());
+        if (target.connectedMillis == 0) {
+            target.connectedMillis = clock.getAsLong();
+        }
+    }
+
+    // Drops the pending attempt and the target's history
+    public synchronized void cancel(Object key) {
+        Target target = targets.remove(key);
+        if (target != null && target.pending != null) {
+            target.pending.cancel(false);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (Target target : targets.values()) {
+            if (target.pending != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Between half and all of base * 2^failures, capped
+    static long delayMillis(Policy policy, int failures) {
+        long delay = Math.min(policy.maxMillis, policy.baseMillis << Math.min(failures, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    public void close() {
+        synchronized (this) {
+            for (Target target : targets.values()) {
+                if (target.pending != null) {
+                    target.pending.cancel(false);
+                }
+            }
+            targets.clear();
+        }
+        timer.shutdownNow();
+    }
+}
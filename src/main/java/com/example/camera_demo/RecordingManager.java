@@ -0,0 +1,221 @@
+package com.example.camera_demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Continuous recording of any set of cameras, independent of what is on screen.
+ *
+ * Each recorded camera holds its own reference on the shared session, so switching the live
+ * view or the grid layout never interrupts a recording. A session nobody is watching still
+ * demuxes every packet for the recorder but only decodes keyframes.
+ *
+ * With pre-event buffering on, every buffered camera keeps its last seconds in a
+ * {@link PreEventBuffer} and a recording started on it begins with that footage. Buffering is
+ * off until a length is set, since it reserves memory and holds a session open per camera.
+ */
+public class RecordingManager {
+
+    public static final long DEFAULT_SEGMENT_MILLIS = 5 * 60 * 1000;
+    public static final long DEFAULT_SEGMENT_BYTES = 512L * 1024 * 1024;
+    public static final int DEFAULT_PRE_EVENT_SECONDS = 0;
+    public static final int DEFAULT_PRE_EVENT_MEGABYTES = 32;
+
+    private final CameraStreamManager streamManager;
+    private final SegmentRecorder.Listener listener;
+    private final Map<String, SegmentRecorder> recorders = new HashMap<>();
+    private final Map<String, PreEventBuffer> buffers = new HashMap<>();
+    private List<String> bufferedUrls = new ArrayList<>();
+    private int preEventSeconds = DEFAULT_PRE_EVENT_SECONDS;
+    private long preEventBytes = DEFAULT_PRE_EVENT_MEGABYTES * 1024L * 1024;
+    private Path recordingFolder;
+    private SegmentRecorder.Container container = SegmentRecorder.Container.MP4;
+
+    public RecordingManager(CameraStreamManager streamManager, Path recordingFolder, SegmentRecorder.Listener listener) {
+        this.streamManager = streamManager;
+        this.recordingFolder = recordingFolder;
+        this.listener = listener;
+    }
+
+    public synchronized void startRecording(String cameraUrl) {
+        if (recorders.containsKey(cameraUrl)) {
+            return;
+        }
+        SegmentRecorder recorder = new SegmentRecorder(cameraUrl, recordingFolder, container,
+                DEFAULT_SEGMENT_MILLIS, DEFAULT_SEGMENT_BYTES, listener);
+        CameraSession session = streamManager.openSession(cameraUrl);
+        PreEventBuffer buffer = buffers.get(cameraUrl);
+        if (buffer != null) {
+            // Attached by the buffer once it has written what it holds
+            buffer.trigger(recorder);
+        } else {
+            session.addPacketConsumer(recorder);
+        }
+        recorders.put(cameraUrl, recorder);
+    }
+
+    public synchronized void stopRecording(String cameraUrl) {
+        SegmentRecorder recorder = recorders.remove(cameraUrl);
+        if (recorder == null) {
+            return;
+        }
+        PreEventBuffer buffer = buffers.get(cameraUrl);
+        if (buffer != null) {
+            buffer.cancel(recorder);
+        }
+        CameraSession session = streamManager.getSession(cameraUrl);
+        if (session != null) {
+            session.removePacketConsumer(recorder);
+        }
+        recorder.close();
+        streamManager.closeSession(cameraUrl);
+    }
+
+    /**
+     * Keeps the last seconds of exactly these cameras, each in its own fixed-size native buffer.
+     * Buffering holds the camera's session open like a recording does.
+     */
+    public synchronized void bufferOnly(List<String> cameraUrls) {
+        bufferedUrls = new ArrayList<>(cameraUrls);
+        Set<String> wanted = preEventSeconds > 0 ? new HashSet<>(cameraUrls) : new HashSet<>();
+        for (String url : new ArrayList<>(buffers.keySet())) {
+            if (!wanted.contains(url)) {
+                stopBuffering(url);
+            }
+        }
+        for (String url : wanted) {
+            if (!buffers.containsKey(url)) {
+                PreEventBuffer buffer = new PreEventBuffer(preEventSeconds * 1000L, preEventBytes);
+                streamManager.openSession(url).addPacketConsumer(buffer);
+                buffers.put(url, buffer);
+            }
+        }
+    }
+
+    private void stopBuffering(String cameraUrl) {
+        PreEventBuffer buffer = buffers.remove(cameraUrl);
+        if (buffer == null) {
+            return;
+        }
+        CameraSession session = streamManager.getSession(cameraUrl);
+        if (session != null) {
+            session.removePacketConsumer(buffer);
+        }
+        buffer.close();
+        streamManager.closeSession(cameraUrl);
+    }
+
+    // Zero seconds turns buffering off, running buffers are replaced with the new size
+    public synchronized void setPreEventBuffer(int seconds, long bytesPerCamera) {
+        if (seconds == preEventSeconds && bytesPerCamera == preEventBytes) {
+            return;
+        }
+        for (String url : new ArrayList<>(buffers.keySet())) {
+            stopBuffering(url);
+        }
+        preEventSeconds = seconds;
+        preEventBytes = bytesPerCamera;
+        bufferOnly(bufferedUrls);
+    }
+
+    // Native memory reserved by all pre-event buffers
+    public synchronized long getPreEventMemory() {
+        long total = 0;
+        for (PreEventBuffer buffer : buffers.values()) {
+            total += buffer.getCapacityBytes();
+        }
+        return total;
+    }
+
+    // Records exactly these cameras, keeping recordings that are already running
+    public synchronized void recordOnly(List<String> cameraUrls) {
+        Set<String> wanted = new HashSet<>(cameraUrls);
+        for (String url : new ArrayList<>(recorders.keySet())) {
+            if (!wanted.contains(url)) {
+                stopRecording(url);
+            }
+        }
+        for (String url : cameraUrls) {
+            startRecording(url);
+        }
+    }
+
+    public synchronized void stopAll() {
+        for (String url : new ArrayList<>(recorders.keySet())) {
+            stopRecording(url);
+        }
+        for (String url : new ArrayList<>(buffers.keySet())) {
+            stopBuffering(url);
+        }
+    }
+
+    public synchronized boolean isRecording(String cameraUrl) {
+        return recorders.containsKey(cameraUrl);
+    }
+
+    public synchronized List<String> getRecordingUrls() {
+        return new ArrayList<>(recorders.keySet());
+    }
+
+    public synchronized Path getRecordingFolder() {
+        return recordingFolder;
+    }
+
+    // Running recordings move to the new folder at their next segment
+    public synchronized void setRecordingFolder(Path folder) {
+        recordingFolder = folder;
+        for (SegmentRecorder recorder : recorders.values()) {
+            recorder.setFolder(folder);
+        }
+    }
+
+    // Applies to recordings started afterwards
+    public synchronized void setContainer(SegmentRecorder.Container container) {
+        this.container = container;
+    }
+
+    // Every segment under the recording folder, newest first
+    public List<Path> listRecordings() {
+        Path folder = getRecordingFolder();
+        if (folder == null || !Files.isDirectory(folder)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.walk(folder, 2)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(RecordingManager::isRecordingFile)
+                    .sorted(Comparator.comparing(RecordingManager::lastModified).reversed())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("Error listing recordings: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    static boolean isRecordingFile(Path file) {
+        String name = file.getFileName().toString();
+        for (SegmentRecorder.Container container : SegmentRecorder.Container.values()) {
+            if (name.endsWith("." + container.extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
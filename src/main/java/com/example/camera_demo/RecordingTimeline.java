@@ -0,0 +1,163 @@
+package com.example.camera_demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * All recorded segments of one camera as a single wall-clock timeline.
+ *
+ * Segments are ordered by the start time in their names, so finding the segment for a time is a
+ * binary search over names and finding the keyframe is a binary search in that segment's mapped
+ * {@link KeyframeIndex}. Indexes are mapped on first use. The newest segment may still be growing,
+ * so its index is mapped again on every seek.
+ */
+public class RecordingTimeline {
+
+    // Where playback should open and start decoding for a requested time
+    public static class Position {
+        private final Path segment;
+        private final long wallMillis;
+        private final long ptsMicros;
+
+        Position(Path segment, long wallMillis, long ptsMicros) {
+            this.segment = segment;
+            this.wallMillis = wallMillis;
+            this.ptsMicros = ptsMicros;
+        }
+
+        public Path getSegment() {
+            return segment;
+        }
+
+        // Wall-clock time of the keyframe, at or before the requested time
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        // Keyframe time from the segment's first keyframe
+        public long getPtsMicros() {
+            return ptsMicros;
+        }
+    }
+
+    private final List<Path> segments;
+    private final long[] startMillis;
+    private final KeyframeIndex[] indexes;
+
+    private RecordingTimeline(List<Path> segments, long[] startMillis) {
+        this.segments = segments;
+        this.startMillis = startMillis;
+        this.indexes = new KeyframeIndex[segments.size()];
+    }
+
+    // Segments of one camera, as written by SegmentRecorder into its directory
+    public static RecordingTimeline load(Path cameraDirectory) throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(cameraDirectory)) {
+            segments = files.filter(RecordingManager::isRecordingFile)
+                    .filter(file -> parseStartMillis(file) >= 0)
+                    .sorted(Comparator.comparing(file -> file.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+        long[] startMillis = new long[segments.size()];
+        for (int i = 0; i < startMillis.length; i++) {
+            startMillis[i] = parseStartMillis(segments.get(i));
+        }
+        return new RecordingTimeline(segments, startMillis);
+    }
+
+    // Start time from a segment's name, or -1 for a file SegmentRecorder did not write
+    static long parseStartMillis(Path segment) {
+        String name = segment.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        try {
+            LocalDateTime start = LocalDateTime.parse(dot > 0 ? name.substring(0, dot) : name, SegmentRecorder.FILE_TIME);
+            return start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    public List<Path> getSegments() {
+        return new ArrayList<>(segments);
+    }
+
+    public long getStartMillis() {
+        return startMillis.length > 0 ? startMillis[0] : -1;
+    }
+
+    /**
+     * The keyframe to start from to show the given time. Times before the first recording give
+     * its first keyframe, times in a gap give the last keyframe before it. Null with no segments.
+     */
+    public Position seek(long wallMillis) {
+        if (segments.isEmpty()) {
+            return null;
+        }
+
+        int segment = findSegment(wallMillis);
+        KeyframeIndex index = getIndex(segment);
+        if (index == null || index.size() == 0) {
+            return new Position(segments.get(segment), startMillis[segment], 0);
+        }
+
+        int keyFrame = index.findAtOrBefore(wallMillis);
+        if (keyFrame < 0) {
+            // Names are the first packet's arrival, the time may fall just before this segment's first keyframe
+            KeyframeIndex previous = segment > 0 ? getIndex(segment - 1) : null;
+            if (previous != null && previous.size() > 0) {
+                return position(segment - 1, previous, previous.size() - 1);
+            }
+            keyFrame = 0;
+        }
+        return position(segment, index, keyFrame);
+    }
+
+    private Position position(int segment, KeyframeIndex index, int keyFrame) {
+        return new Position(segments.get(segment), index.getWallMillis(keyFrame), index.getPtsMicros(keyFrame));
+    }
+
+    // Last segment starting at or before the time, or the first one
+    private int findSegment(long wallMillis) {
+        int low = 0;
+        int high = startMillis.length - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (startMillis[mid] <= wallMillis) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private KeyframeIndex getIndex(int segment) {
+        boolean newest = segment == segments.size() - 1;
+        if (indexes[segment] != null && !newest) {
+            return indexes[segment];
+        }
+        Path indexFile = KeyframeIndex.sidecarFor(segments.get(segment));
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try {
+            indexes[segment] = KeyframeIndex.open(indexFile);
+        } catch (IOException e) {
+            System.err.println("Error reading keyframe index: " + e.getMessage());
+            return null;
+        }
+        return indexes[segment];
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVOutputFormat;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Records one camera by remuxing its packets into a sequence of files, no decoding or encoding.
+ *
+ * Each segment starts on a video keyframe so it plays on its own, and rolls over at the first
+ * keyframe after the duration or size limit. Files are written sequentially through a large
+ * {@link BufferedOutputStream}. MP4 segments are fragmented, so they need no seeking to finalise
+ * and stay playable up to the last fragment if the application dies mid-segment. A camera whose
+ * audio MP4 cannot carry, such as G.711, is recorded to MKV instead.
+ *
+ * Every segment gets a {@link KeyframeIndex} sidecar, appended to at each keyframe, so playback
+ * can seek by wall-clock time without scanning the file.
+ *
+ * Called on the session's ingest thread, closed from any thread.
+ */
+public class SegmentRecorder implements CameraSession.PacketConsumer {
+
+    public enum Container {
+        MP4("mp4", "mp4"),
+        MKV("matroska", "mkv");
+
+        final String format;
+        final String extension;
+
+        Container(String format, String extension) {
+            this.format = format;
+            this.extension = extension;
+        }
+    }
+
+    public interface Listener {
+        void onSegmentWritten(Path segment);
+    }
+
+    private static final int OUTPUT_BUFFER_BYTES = 1024 * 1024;
+    // Millisecond names, so a segment restarted within a second never lands on its predecessor.
+    // Names of second resolution still parse.
+    static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss[-SSS]");
+    private static final int MAX_NAME_ATTEMPTS = 10;
+
+    private final String cameraUrl;
+    private final Container container;
+    private final long maxSegmentMillis;
+    private final long maxSegmentBytes;
+    private final Listener listener;
+    private volatile Path folder;
+
+    private AVFormatContext formatContext;
+    private Container streamContainer; // The configured container, unless this connection's codecs need MKV
+    private int videoStreamIndex = -1;
+    private int width;
+    private int height;
+    private AVRational videoTimeBase;
+    private final AVRational microseconds = avutil.av_make_q(1, 1_000_000);
+
+    private FFmpegFrameRecorder recorder;
+    private OutputStream output;
+    private KeyframeIndex.Writer index;
+    private Path segmentPath;
+    private long segmentStartMillis;
+    private long segmentFirstPts;
+    private long segmentBytes;
+    private boolean closed = false;
+
+    public SegmentRecorder(String cameraUrl, Path folder, Container container, long maxSegmentMillis,
+                           long maxSegmentBytes, Listener listener) {
+        this.cameraUrl = cameraUrl;
+        this.folder = folder;
+        this.container = container;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.listener = listener;
+    }
+
+    public String getCameraUrl() {
+        return cameraUrl;
+    }
+
+    // Takes effect from the next segment
+    public void setFolder(Path folder) {
+        this.folder = folder;
+    }
+
+    // One directory per camera, named without the credentials in the URL
+    static String cameraDirectoryName(String cameraUrl) {
+        String name = StreamMetrics.displayName(cameraUrl).replaceFirst("^[a-z]+://", "");
+        return name.replaceAll("[^A-Za-z0-9._-]+", "_");
+    }
+
+    @Override
+    public synchronized void onStreamStart(CameraSession session, AVFormatContext context) {
+        formatContext = context;
+        streamContainer = containerFor(context);
+        videoStreamIndex = CameraSession.findVideoStreamIndex(context);
+        if (videoStreamIndex >= 0) {
+            AVStream stream = context.streams(videoStreamIndex);
+            width = stream.codecpar().width();
+            height = stream.codecpar().height();
+            videoTimeBase = stream.time_base();
+        }
+    }
+
+    // MP4 takes the H.264, H.265 and AAC of most cameras but not G.711 audio, MKV takes anything
+    private Container containerFor(AVFormatContext context) {
+        if (container != Container.MP4) {
+            return container;
+        }
+        AVOutputFormat mp4 = avformat.av_guess_format("mp4", null, null);
+        for (int i = 0; i < context.nb_streams(); i++) {
+            int type = context.streams(i).codecpar().codec_type();
+            if (type != avutil.AVMEDIA_TYPE_VIDEO && type != avutil.AVMEDIA_TYPE_AUDIO) {
+                continue;
+            }
+            int codecId = context.streams(i).codecpar().codec_id();
+            if (avformat.avformat_query_codec(mp4, codecId, AVCodecContext.FF_COMPLIANCE_NORMAL) != 1) {
+                System.out.println("Recording " + StreamMetrics.displayName(cameraUrl) + " as MKV, MP4 cannot carry "
+                        + avcodec.avcodec_get_name(codecId).getString());
+                return Container.MKV;
+            }
+        }
+        return Container.MP4;
+    }
+
+    @Override
+    public synchronized void onPacket(CameraSession session, AVPacket packet) {
+        record(packet, System.currentTimeMillis());
+    }
+
+    // A packet that arrived earlier, such as one replayed from a pre-event buffer
+    synchronized void onBufferedPacket(AVPacket packet, long arrivalMillis) {
+        record(packet, arrivalMillis);
+    }
+
+    private void record(AVPacket packet, long arrivalMillis) {
+        if (closed || formatContext == null || videoStreamIndex < 0) {
+            return;
+        }
+
+        boolean keyFrame = packet.stream_index() == videoStreamIndex && (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+        if (recorder != null && keyFrame && (arrivalMillis - segmentStartMillis >= maxSegmentMillis
+                || segmentBytes >= maxSegmentBytes)) {
+            closeSegment();
+        }
+        if (recorder == null) {
+            if (!keyFrame) {
+                // A segment that starts mid-GOP cannot be played until its first keyframe
+                return;
+            }
+            openSegment(arrivalMillis, presentationTime(packet));
+            if (recorder == null) {
+                return;
+            }
+        }
+
+        // recordPacket rewrites timestamps and the muxer takes ownership, so it gets its own reference
+        AVPacket copy = avcodec.av_packet_clone(packet);
+        try {
+            recorder.recordPacket(copy);
+            segmentBytes += packet.size();
+            if (keyFrame) {
+                indexKeyFrame(arrivalMillis, presentationTime(packet));
+            }
+        } catch (Exception e) {
+            System.err.println("Recording error (" + StreamMetrics.displayName(cameraUrl) + "): " + e.getMessage());
+            // Starts again on the next keyframe
+            closeSegment();
+        } finally {
+            avcodec.av_packet_free(copy);
+        }
+    }
+
+    @Override
+    public synchronized void onStreamEnd(CameraSession session) {
+        closeSegment();
+        formatContext = null;
+    }
+
+    private long presentationTime(AVPacket packet) {
+        return packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+    }
+
+    private void indexKeyFrame(long wallMillis, long pts) {
+        if (index == null || pts == avutil.AV_NOPTS_VALUE) {
+            return;
+        }
+        try {
+            long ptsMicros = avutil.av_rescale_q(pts - segmentFirstPts, videoTimeBase, microseconds);
+            index.append(wallMillis, ptsMicros);
+        } catch (IOException e) {
+            // The segment is still fine, it just seeks the slow way
+            System.err.println("Error writing keyframe index: " + e.getMessage());
+            closeIndex();
+        }
+    }
+
+    // Named after the first packet's arrival, which is before the trigger for pre-event footage
+    private void openSegment(long startMillis, long firstPts) {
+        try {
+            Path directory = folder.resolve(cameraDirectoryName(cameraUrl));
+            Files.createDirectories(directory);
+            output = new BufferedOutputStream(createSegmentFile(directory, startMillis), OUTPUT_BUFFER_BYTES);
+
+            recorder = new FFmpegFrameRecorder(output, width, height, 0);
+            recorder.setFormat(streamContainer.format);
+            if (streamContainer == Container.MP4) {
+                // Written front to back with no seek back to a moov atom
+                recorder.setOption("movflags", "frag_keyframe+empty_moov+default_base_moof");
+            }
+            // Every segment's timeline starts at zero
+            recorder.setOption("avoid_negative_ts", "make_zero");
+            // Copies codec parameters of every input stream, packets are muxed as they arrive
+            recorder.start(formatContext);
+
+            segmentStartMillis = startMillis;
+            segmentFirstPts = firstPts;
+            segmentBytes = 0;
+            openIndex();
+            System.out.println("Recording " + segmentPath);
+        } catch (Exception e) {
+            System.err.println("Error starting recording segment: " + e.getMessage());
+            closeSegment();
+        }
+    }
+
+    // Never truncates an existing segment, a taken name moves on by a millisecond
+    private OutputStream createSegmentFile(Path directory, long startMillis) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            LocalDateTime startTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(startMillis + attempt), ZoneId.systemDefault());
+            Path path = directory.resolve(startTime.format(FILE_TIME) + "." + streamContainer.extension);
+            try {
+                OutputStream stream = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                segmentPath = path;
+                return stream;
+            } catch (FileAlreadyExistsException e) {
+                if (attempt + 1 >= MAX_NAME_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void openIndex() {
+        try {
+            index = new KeyframeIndex.Writer(KeyframeIndex.sidecarFor(segmentPath));
+        } catch (IOException e) {
+            // Recording goes on without fast seek
+            System.err.println("Error creating keyframe index: " + e.getMessage());
+            index = null;
+        }
+    }
+
+    private void closeIndex() {
+        try {
+            if (index != null) {
+                index.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing keyframe index: " + e.getMessage());
+        }
+        index = null;
+    }
+
+    private void closeSegment() {
+        if (recorder == null && output == null) {
+            return;
+        }
+        try {
+            if (recorder != null) {
+                recorder.stop();
+                recorder.release();
+            }
+        } catch (Exception e) {
+            System.err.println("Error closing recording segment: " + e.getMessage());
+        }
+        try {
+            if (output != null) {
+                output.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing recording file: " + e.getMessage());
+        }
+
+        closeIndex();
+
+        recorder = null;
+        output = null;
+        if (segmentPath != null && listener != null) {
+            listener.onSegmentWritten(segmentPath);
+        }
+        segmentPath = null;
+    }
+
+    // Finishes the current segment, packets arriving afterwards are ignored
+    public synchronized void close() {
+        closed = true;
+        closeSegment();
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Still images of cameras, encoded from the pictures the engine already decodes.
+ *
+ * A camera with a running session is captured from the last picture it published, at the size the
+ * session decodes for its views, or from its next one if it has published none yet. Requests that
+ * arrive while a capture is pending, or before the session has published another picture, share
+ * that capture, and each format is encoded once per capture. A camera without a session is
+ * connected once and its first keyframe decoded.
+ */
+public class SnapshotService {
+
+    public enum Format {
+        JPEG("jpg", "image/jpeg"),
+        PNG("png", "image/png");
+
+        private final String imageIoName;
+        private final String mimeType;
+
+        Format(String imageIoName, String mimeType) {
+            this.imageIoName = imageIoName;
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        // "jpeg", "jpg" or "png", JPEG for anything else
+        public static Format parse(String name) {
+            return name != null && name.equalsIgnoreCase("png") ? PNG : JPEG;
+        }
+    }
+
+    public static class Snapshot {
+        private final String cameraUrl;
+        private final Format format;
+        private final int width;
+        private final int height;
+        private final long timestampMicros;
+        private final byte[] data;
+
+        Snapshot(String cameraUrl, Format format, int width, int height, long timestampMicros, byte[] data) {
+            this.cameraUrl = cameraUrl;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.timestampMicros = timestampMicros;
+            this.data = data;
+        }
+
+        public String getCameraUrl() {
+            return cameraUrl;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        // Stream time of the picture
+        public long getTimestampMicros() {
+            return timestampMicros;
+        }
+
+        // Encoded image, shared by every request coalesced into it, do not modify
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final long CAPTURE_TIMEOUT_MILLIS = 5000;
+    private static final int ENCODERS = 2;
+
+    // One picture of one camera and the encodings requested of it
+    private class Capture implements CameraSession.FrameConsumer {
+        final String cameraUrl;
+        final CameraSession session; // Null for a one-off keyframe grab
+        final Map<Format, CompletableFuture<Snapshot>> results = new EnumMap<>(Format.class);
+        BufferedImage image;
+        long frameNumber;
+        long timestampMicros;
+        boolean failed;
+
+        Capture(String cameraUrl, CameraSession session) {
+            this.cameraUrl = cameraUrl;
+            this.session = session;
+        }
+
+        // Called on the ingest thread, the frame is only valid for this call
+        @Override
+        public void onFrame(CameraSession source, VideoFrame frame) {
+            synchronized (SnapshotService.this) {
+                if (image != null || failed) {
+                    return;
+                }
+                source.removeConsumer(this);
+                frameNumber = source.getPublishedFrames();
+                capture(frame);
+            }
+        }
+
+        // Copies the picture, then encodes off the calling thread
+        void capture(VideoFrame frame) {
+            image = copy(frame);
+            timestampMicros = frame.getTimestampMicros();
+            for (Map.Entry<Format, CompletableFuture<Snapshot>> result : results.entrySet()) {
+                encodeLater(result.getKey(), result.getValue());
+            }
+        }
+
+        CompletableFuture<Snapshot> result(Format format) {
+            CompletableFuture<Snapshot> result = results.get(format);
+            if (result == null) {
+                result = new CompletableFuture<>();
+                results.put(format, result);
+                if (image != null) {
+                    encodeLater(format, result);
+                }
+            }
+            return result;
+        }
+
+        void encodeLater(Format format, CompletableFuture<Snapshot> result) {
+            encoders.submit(() -> {
+                try {
+                    result.complete(new Snapshot(cameraUrl, format, image.getWidth(), image.getHeight(),
+                            timestampMicros, encode(image, format)));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+
+        void fail(Throwable cause) {
+            failed = true;
+            for (CompletableFuture<Snapshot> result : results.values()) {
+                result.completeExceptionally(cause);
+            }
+        }
+    }
+
+    private final CameraStreamManager streamManager;
+    private final Map<String, Capture> captures = new HashMap<>(); // Latest capture per camera
+    private final ExecutorService encoders = Executors.newFixedThreadPool(ENCODERS, daemon("snapshot-encoder"));
+    private final ExecutorService grabbers = Executors.newCachedThreadPool(daemon("snapshot-grabber"));
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(daemon("snapshot-timeout"));
+
+    public SnapshotService(CameraStreamManager streamManager) {
+        this.streamManager = streamManager;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The camera's most recent picture, or its next one if the connection has not published any yet.
+     * Completes on an encoder thread.
+     */
+    public synchronized CompletableFuture<Snapshot> request(String cameraUrl, Format format) {
+        CameraSession session = streamManager.getSession(cameraUrl);
+        Capture capture = captures.get(cameraUrl);
+        if (capture != null && !capture.failed && capture.session == session && isCurrent(capture)) {
+            return capture.result(format);
+        }
+
+        capture = new Capture(cameraUrl, session);
+        captures.put(cameraUrl, capture);
+        CompletableFuture<Snapshot> result = capture.result(format);
+        if (session != null) {
+            // Counted first, a picture published in between only makes the capture look older
+            long frameNumber = session.getPublishedFrames();
+            VideoFrame latest = session.retainLatestFrame();
+            if (latest != null) {
+                try {
+                    capture.frameNumber = frameNumber;
+                    capture.capture(latest);
+                } finally {
+                    latest.release();
+                }
+            } else {
+                session.addConsumer(capture);
+                Capture pending = capture;
+                timeouts.schedule(() -> expire(pending), CAPTURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            Capture grab = capture;
+            grabbers.submit(() -> grabKeyFrame(grab));
+        }
+        return result;
+    }
+
+    // A pending capture, or a finished one the session has not published anything newer than
+    private static boolean isCurrent(Capture capture) {
+        if (capture.image == null) {
+            return true;
+        }
+        return capture.session != null && capture.session.getPublishedFrames() == capture.frameNumber;
+    }
+
+    private synchronized void expire(Capture capture) {
+        if (capture.image == null && !capture.failed) {
+            capture.session.removeConsumer(capture);
+            capture.fail(new TimeoutException("No picture from " + capture.cameraUrl + " within "
+                    + CAPTURE_TIMEOUT_MILLIS + " ms"));
+        }
+    }
+
+    // For cameras nobody streams: one connection, the first keyframe, nothing else decoded
+    private void grabKeyFrame(Capture capture) {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(capture.cameraUrl);
+        try {
+            grabber.setOption("rtsp_transport", "tcp");
+            grabber.setOption("timeout", "5000000"); // Socket I/O timeout, FFmpeg 5 ignores stimeout
+            grabber.setVideoOption("threads", "1");
+            grabber.start();
+            AVStream videoStream = CameraSession.findVideoStream(grabber);
+
+            try (VideoDecoder decoder = new VideoDecoder(videoStream, 1)) {
+                decoder.setSkipFrame(avcodec.AVDISCARD_NONKEY);
+                long deadline = System.currentTimeMillis() + CAPTURE_TIMEOUT_MILLIS;
+                VideoFrame frame = null;
+                AVPacket packet;
+                while (frame == null && System.currentTimeMillis() < deadline && (packet = grabber.grabPacket()) != null) {
+                    try {
+                        if (packet.stream_index() == videoStream.index() && (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+                            frame = decoder.decode(packet, true);
+                            if (frame == null) {
+                                frame = decoder.decode(null, true);
+                            }
+                        }
+                    } finally {
+                        avcodec.av_packet_unref(packet);
+                    }
+                }
+
+                synchronized (this) {
+                    if (frame != null) {
+                        capture.capture(frame);
+                    } else {
+                        capture.fail(new IOException("No keyframe from " + capture.cameraUrl));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                capture.fail(e);
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                System.err.println("Error stopping snapshot grabber: " + e.getMessage());
+            }
+        }
+    }
+
+    // BGRA read as little-endian ints is ARGB, which the RGB raster takes row by row
+    private static BufferedImage copy(VideoFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] target = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        IntBuffer source = frame.getPixels().duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int strideInts = frame.getStride() / VideoFrame.BYTES_PER_PIXEL;
+        for (int y = 0; y < height; y++) {
+            source.position(y * strideInts);
+            source.get(target, y * width, width);
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, Format format) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        if (!ImageIO.write(image, format.imageIoName, output)) {
+            throw new IOException("No " + format + " encoder");
+        }
+        return output.toByteArray();
+    }
+
+    public synchronized void close() {
+        for (Capture capture : captures.values()) {
+            if (capture.image == null && !capture.failed) {
+                if (capture.session != null) {
+                    capture.session.removeConsumer(capture);
+                }
+                capture.fail(new IOException("Snapshots stopped"));
+            }
+        }
+        captures.clear();
+        timeouts.shutdownNow();
+        grabbers.shutdownNow();
+        encoders.shutdownNow();
+    }
+}
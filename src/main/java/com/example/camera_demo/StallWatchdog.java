@@ -0,0 +1,57 @@
+package com.example.camera_demo;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices camera connections that went quiet without closing.
+ *
+ * A session is watched while a connection is delivering. Every {@link #CHECK_MILLIS} the watchdog
+ * asks it how long ago its last packet and its last decoded frame were; past the session's stall
+ * timeout the session counts a stall and restarts its connection. A read blocked on the silent
+ * socket is ended by the session's FFmpeg interrupt callback, which sees the restart request.
+ */
+public class StallWatchdog {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    static final long CHECK_MILLIS = 100;
+
+    private final Set<CameraSession> watched = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stall-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StallWatchdog() {
+        timer.scheduleWithFixedDelay(this::check, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void watch(CameraSession session) {
+        watched.add(session);
+    }
+
+    void unwatch(CameraSession session) {
+        watched.remove(session);
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (CameraSession session : watched) {
+            try {
+                session.checkStall(now);
+            } catch (RuntimeException e) {
+                // One session must not stop the checks for the others
+                System.err.println("Stall check failed (" + session.getUrl() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    public void close() {
+        timer.shutdownNow();
+        watched.clear();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.camera_demo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the cameras next to the one on screen connected, so a carousel switch is a consumer swap
+ * instead of an RTSP handshake, stream probing and a wait for the next IDR frame.
+ *
+ * Standby sessions are hidden views of the normal engine sessions: they decode keyframes only and
+ * keep their GOP cache current, so the view gets the current picture from the first packet after a switch.
+ * The pool is bounded by a session count and a memory budget, least recently used sessions go first.
+ */
+public class StandbyPool {
+
+    private final CameraStreamManager streamManager;
+    private final int maxSessions;
+    private final long memoryBudgetBytes;
+
+    // Access ordered, the eldest entry is the least recently prepared camera
+    private final LinkedHashMap<String, CameraSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    public StandbyPool(CameraStreamManager streamManager, int maxSessions, long memoryBudgetBytes) {
+        this.streamManager = streamManager;
+        this.maxSessions = maxSessions;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * Keeps a camera warm at the size it will be shown at, then evicts whatever no longer fits.
+     */
+    public synchronized void prepare(String cameraUrl, StreamPacer.Mode pacingMode, double width, double height) {
+        CameraSession session = sessions.get(cameraUrl);
+        if (session == null) {
+            session = streamManager.openSession(cameraUrl, pacingMode);
+            sessions.put(cameraUrl, session);
+            System.out.println("Standby session opened: " + cameraUrl);
+        }
+
+        session.requestViewport(this, width, height);
+        session.setVisibility(this, CameraSession.Visibility.HIDDEN);
+        trim(cameraUrl);
+    }
+
+    // Never evicts the camera just prepared, the next switch is about to need it
+    private void trim(String prepared) {
+        Iterator<Map.Entry<String, CameraSession>> eldest = sessions.entrySet().iterator();
+        while (eldest.hasNext() && (sessions.size() > maxSessions || getMemoryEstimate() > memoryBudgetBytes)) {
+            Map.Entry<String, CameraSession> entry = eldest.next();
+            if (entry.getKey().equals(prepared)) {
+                // Access ordered, so it is the newest entry and everything else is gone
+                System.out.println("Standby session over the memory budget on its own, kept: " + prepared);
+                return;
+            }
+            eldest.remove();
+            release(entry.getValue());
+            System.out.println("Standby session evicted: " + entry.getKey());
+        }
+    }
+
+    public synchronized void evict(String cameraUrl) {
+        CameraSession session = sessions.remove(cameraUrl);
+        if (session != null) {
+            release(session);
+        }
+    }
+
+    private void release(CameraSession session) {
+        session.releaseViewport(this);
+        // Only stops the stream if no view is showing it
+        streamManager.closeSession(session.getUrl());
+    }
+
+    public synchronized long getMemoryEstimate() {
+        long total = 0;
+        for (CameraSession session : sessions.values()) {
+            total += session.getMemoryEstimate();
+        }
+        return total;
+    }
+
+    public synchronized List<String> getCameraUrls() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    public synchronized void clear() {
+        for (CameraSession session : sessions.values()) {
+            release(session);
+        }
+        sessions.clear();
+    }
+}
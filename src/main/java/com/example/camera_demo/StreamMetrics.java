@@ -0,0 +1,313 @@
+package com.example.camera_demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, rates and timing histograms for one camera session. Updated lock free from the ingest
+ * thread and the views, read by the {@link MetricsRegistry} for JMX, the scrape endpoint and the overlay.
+ *
+ * Frames can be dropped at three stages: late in LIVE pacing, while waiting for a keyframe after
+ * a gap, and at the view (replaced in the mailbox or no free pooled image before the next pulse).
+ */
+public class StreamMetrics implements StreamMetricsMXBean {
+
+    /**
+     * Fixed bucket histogram of durations, cheap enough to record every frame.
+     */
+    public static class Histogram {
+        // Upper bounds in microseconds, the last bucket catches everything slower
+        static final long[] BOUNDS_MICROS = {250, 500, 1000, 2000, 4000, 8000, 16000, 33000, 66000, Long.MAX_VALUE};
+
+        private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MICROS.length);
+        private final AtomicLong sumNanos = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+
+        public void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = 0;
+            while (micros > BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            counts.incrementAndGet(bucket);
+            sumNanos.addAndGet(nanos);
+            count.incrementAndGet();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSumNanos() {
+            return sumNanos.get();
+        }
+
+        long getBucketCount(int bucket) {
+            return counts.get(bucket);
+        }
+
+        public double getMeanMillis() {
+            long n = count.get();
+            return n > 0 ? sumNanos.get() / 1e6 / n : 0;
+        }
+
+        // Upper bound of the bucket holding the given quantile, the slowest bucket reports its lower bound
+        public double getQuantileMillis(double quantile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(n * quantile);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MICROS.length - 1; i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return BOUNDS_MICROS[i] / 1000.0;
+                }
+            }
+            return BOUNDS_MICROS[BOUNDS_MICROS.length - 2] / 1000.0;
+        }
+    }
+
+    /**
+     * Events per second over the last full second.
+     */
+    public static class Meter {
+        private long windowStartNanos = System.nanoTime();
+        private long windowCount = 0;
+        private volatile double rate = 0;
+
+        public void mark() {
+            mark(1);
+        }
+
+        public synchronized void mark(long events) {
+            roll(System.nanoTime());
+            windowCount += events;
+        }
+
+        private void roll(long now) {
+            long elapsed = now - windowStartNanos;
+            if (elapsed >= 1_000_000_000L) {
+                // A window with no events at all reads as 0, not as the last busy second
+                rate = elapsed < 2_000_000_000L ? windowCount * 1e9 / elapsed : 0;
+                windowStartNanos = now;
+                windowCount = 0;
+            }
+        }
+
+        public synchronized double getRate() {
+            roll(System.nanoTime());
+            return rate;
+        }
+    }
+
+    private final String camera;
+    private final LongSupplier latencyMillis;
+
+    final Meter ingestRate = new Meter();
+    final Meter displayRate = new Meter();
+    final Meter byteRate = new Meter();
+    final Histogram decodeTime = new Histogram();
+    final Histogram convertTime = new Histogram();
+
+    private final AtomicLong packetsReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong framesDecoded = new AtomicLong();
+    private final AtomicLong framesPublished = new AtomicLong();
+    private final AtomicLong framesDisplayed = new AtomicLong();
+    private final AtomicLong droppedLate = new AtomicLong();
+    private final AtomicLong droppedAwaitingKeyFrame = new AtomicLong();
+    private final AtomicLong droppedAtView = new AtomicLong();
+    private final AtomicLong decodeErrors = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+
+    public StreamMetrics(String camera, LongSupplier latencyMillis) {
+        this.camera = camera;
+        this.latencyMillis = latencyMillis;
+    }
+
+    // Camera URLs carry credentials, metrics only ever show host and path
+    static String displayName(String url) {
+        int scheme = url.indexOf("://");
+        int at = url.indexOf('@');
+        if (scheme >= 0 && at > scheme) {
+            return url.substring(0, scheme + 3) + url.substring(at + 1);
+        }
+        return url;
+    }
+
+    // Ingest thread
+
+    void recordPacket(int size) {
+        packetsReceived.incrementAndGet();
+        bytesReceived.addAndGet(size);
+        byteRate.mark(size);
+    }
+
+    void recordDecode(long nanos, boolean gotFrame) {
+        decodeTime.record(nanos);
+        if (gotFrame) {
+            framesDecoded.incrementAndGet();
+            ingestRate.mark();
+        }
+    }
+
+    void recordPublished() {
+        framesPublished.incrementAndGet();
+    }
+
+    void recordDroppedLate() {
+        droppedLate.incrementAndGet();
+    }
+
+    void recordDroppedAwaitingKeyFrame() {
+        droppedAwaitingKeyFrame.incrementAndGet();
+    }
+
+    void recordDecodeError() {
+        decodeErrors.incrementAndGet();
+    }
+
+    void recordReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    // Watchdog thread
+    void recordStall() {
+        stalls.incrementAndGet();
+    }
+
+    // Views
+
+    public void recordConvert(long nanos) {
+        convertTime.record(nanos);
+    }
+
+    public void recordDisplayed() {
+        framesDisplayed.incrementAndGet();
+        displayRate.mark();
+    }
+
+    public void recordDroppedAtView() {
+        droppedAtView.incrementAndGet();
+    }
+
+    /**
+     * One line for the live view overlay.
+     */
+    public String summary() {
+        return String.format("%.1f fps in, %.1f shown | decode %.1f ms (p99 %.0f) | latency %d ms | drops %d/%d/%d | %d reconnects, %d stalls | %.1f Mbit/s",
+                getIngestFps(), getDisplayedFps(), getDecodeMeanMillis(), getDecodeP99Millis(), getLatencyMillis(),
+                getDroppedLate(), getDroppedAwaitingKeyFrame(), getDroppedAtView(), getReconnects(), getStalls(), getIngestMbps());
+    }
+
+    // Fits under a wall tile's label
+    public String shortSummary() {
+        return String.format("%.0f fps | %d ms | %d dropped", getIngestFps(), getLatencyMillis(),
+                getDroppedLate() + getDroppedAwaitingKeyFrame() + getDroppedAtView());
+    }
+
+    @Override
+    public String getCamera() {
+        return displayName(camera);
+    }
+
+    @Override
+    public double getIngestFps() {
+        return ingestRate.getRate();
+    }
+
+    @Override
+    public double getDisplayedFps() {
+        return displayRate.getRate();
+    }
+
+    @Override
+    public double getIngestMbps() {
+        return byteRate.getRate() * 8 / 1e6;
+    }
+
+    @Override
+    public double getDecodeMeanMillis() {
+        return decodeTime.getMeanMillis();
+    }
+
+    @Override
+    public double getDecodeP99Millis() {
+        return decodeTime.getQuantileMillis(0.99);
+    }
+
+    @Override
+    public double getConvertMeanMillis() {
+        return convertTime.getMeanMillis();
+    }
+
+    @Override
+    public double getConvertP99Millis() {
+        return convertTime.getQuantileMillis(0.99);
+    }
+
+    // Queueing delay above the best case seen recently, see StreamPacer
+    @Override
+    public long getLatencyMillis() {
+        return latencyMillis.getAsLong();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getFramesDecoded() {
+        return framesDecoded.get();
+    }
+
+    @Override
+    public long getFramesPublished() {
+        return framesPublished.get();
+    }
+
+    @Override
+    public long getFramesDisplayed() {
+        return framesDisplayed.get();
+    }
+
+    @Override
+    public long getDroppedLate() {
+        return droppedLate.get();
+    }
+
+    @Override
+    public long getDroppedAwaitingKeyFrame() {
+        return droppedAwaitingKeyFrame.get();
+    }
+
+    @Override
+    public long getDroppedAtView() {
+        return droppedAtView.get();
+    }
+
+    @Override
+    public long getDecodeErrors() {
+        return decodeErrors.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.get();
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.camera_demo;
+
+/**
+ * JMX view of one camera session's {@link StreamMetrics}.
+ */
+public interface StreamMetricsMXBean {
+
+    String getCamera();
+
+    double getIngestFps();
+
+    double getDisplayedFps();
+
+    double getIngestMbps();
+
+    double getDecodeMeanMillis();
+
+    double getDecodeP99Millis();
+
+    double getConvertMeanMillis();
+
+    double getConvertP99Millis();
+
+    long getLatencyMillis();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getFramesDecoded();
+
+    long getFramesPublished();
+
+    long getFramesDisplayed();
+
+    long getDroppedLate();
+
+    long getDroppedAwaitingKeyFrame();
+
+    long getDroppedAtView();
+
+    long getDecodeErrors();
+
+    long getReconnects();
+
+    long getStalls();
+}
@@ -0,0 +1,120 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.global.avutil;
+
+/**
+ * Paces a grab loop from frame timestamps instead of a fixed sleep, and measures how far
+ * the loop runs behind the camera.
+ *
+ * Latency is estimated from the offset between the wall clock and the frame PTS. The smallest
+ * offset seen recently is taken as "no queueing", anything above it is time the frame spent
+ * waiting in FFmpeg or socket buffers before we decoded it.
+ */
+public class StreamPacer {
+
+    public enum Mode {
+        // Display frames at their PTS rate, sleeping when the stream is ahead of the wall clock
+        TIMESTAMP("Timestamp"),
+        // Never sleep, decode as fast as possible and skip presenting frames that are already late
+        LIVE("Live");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final long RESYNC_MICROS = 1_000_000;      // PTS jumps further than this re-anchor the clock
+    private static final long LATE_FRAME_MICROS = 100_000;    // LIVE mode skips frames queued longer than this
+    private static final long BASELINE_WINDOW_NANOS = 10_000_000_000L;
+
+    private final Mode mode;
+
+    private long anchorTimestamp = -1;
+    private long anchorNanos;
+    private long lastTimestamp;
+
+    // Sliding minimum of (wall clock - PTS), so camera clock drift cannot skew it for long
+    private long baselineOffset = Long.MAX_VALUE;
+    private long windowOffset = Long.MAX_VALUE;
+    private long windowStartNanos;
+
+    private volatile long latencyMicros = 0;
+
+    public StreamPacer(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Called after each decoded frame with its timestamp in microseconds.
+     * In TIMESTAMP mode this sleeps until the frame is due.
+     *
+     * @return false if the frame is late and should be decoded but not presented
+     */
+    public boolean pace(long timestamp) throws InterruptedException {
+        long now = System.nanoTime();
+
+        if (anchorTimestamp < 0 || timestamp < lastTimestamp || timestamp - lastTimestamp > RESYNC_MICROS) {
+            // First frame or a discontinuity (camera restart, PTS wrap)
+            anchorTimestamp = timestamp;
+            anchorNanos = now;
+            baselineOffset = Long.MAX_VALUE;
+            windowOffset = Long.MAX_VALUE;
+            windowStartNanos = now;
+        }
+        lastTimestamp = timestamp;
+
+        long offset = (now - anchorNanos) / 1000 - (timestamp - anchorTimestamp);
+        updateBaseline(offset, now);
+        latencyMicros = offset - baselineOffset;
+
+        if (mode == Mode.TIMESTAMP) {
+            long aheadMicros = -offset;
+            if (aheadMicros > RESYNC_MICROS) {
+                // Stream clock runs far ahead of the wall clock, follow it instead of sleeping for seconds
+                anchorTimestamp = timestamp;
+                anchorNanos = now;
+            } else if (aheadMicros > 0) {
+                Thread.sleep(aheadMicros / 1000, (int) (aheadMicros % 1000) * 1000);
+            }
+            return true;
+        }
+
+        return latencyMicros <= LATE_FRAME_MICROS;
+    }
+
+    private void updateBaseline(long offset, long now) {
+        windowOffset = Math.min(windowOffset, offset);
+        if (now - windowStartNanos > BASELINE_WINDOW_NANOS) {
+            // Roll the window, keep the minimum of the last full window and the current one
+            baselineOffset = windowOffset;
+            windowOffset = offset;
+            windowStartNanos = now;
+        }
+        baselineOffset = Math.min(baselineOffset, windowOffset);
+    }
+
+    // Time the most recent frame spent queued before it was decoded
+    public long getLatencyMillis() {
+        return latencyMicros / 1000;
+    }
+
+    // Low delay demuxer options for LIVE mode, passed to avformat_open_input()
+    public void configure(AVDictionary options) {
+        if (mode == Mode.LIVE) {
+            avutil.av_dict_set(options, "fflags", "nobuffer", 0);
+            avutil.av_dict_set(options, "flags", "low_delay", 0);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.example.camera_demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-serves the cameras this app already ingests, so remote viewers do not each open their own
+ * RTSP connection to the cameras.
+ *
+ * {@code GET /mjpeg/<n>} streams camera n of the current camera list (1-based) as
+ * multipart/x-mixed-replace JPEGs, {@code GET /ws/<n>} upgrades to a WebSocket that sends one
+ * binary message per JPEG, and {@code GET /status} lists the feeds as text to local clients. A
+ * camera is encoded once per frame however many clients watch it, see {@link CameraFeed}. Each
+ * client has its own connection thread, which blocks on that client's socket only.
+ */
+public class StreamServer {
+
+    public static final int DEFAULT_PORT = 8090;
+    public static final int DEFAULT_WIDTH = 1280;
+    public static final int DEFAULT_HEIGHT = 720;
+    public static final int DEFAULT_FPS = 10;
+
+    static final int MAX_SUBSCRIBERS_PER_CAMERA = 128;
+
+    private static final float JPEG_QUALITY = 0.75f;
+    private static final int ENCODERS = 2;
+    private static final int REQUEST_TIMEOUT_MILLIS = 10_000;
+    private static final int MAX_HEADER_BYTES = 8192;
+    private static final long CLIENT_CHECK_MILLIS = 1000; // How often an idle client is checked for a close
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final CameraStreamManager streamManager;
+    private final ServerSocket serverSocket;
+    private final int width;
+    private final int height;
+    private final int maxFps;
+    private final Map<String, CameraFeed> feeds = new HashMap<>();
+    private final ExecutorService connections;
+    private final ExecutorService encoders;
+    private volatile boolean running = false;
+
+    public StreamServer(CameraStreamManager streamManager, int port, int width, int height, int maxFps) throws IOException {
+        this.streamManager = streamManager;
+        this.width = width;
+        this.height = height;
+        this.maxFps = maxFps;
+        // Remote viewers are the point, so every interface is bound
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port), 256);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stream-client-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        encoders = Executors.newFixedThreadPool(ENCODERS, runnable -> {
+            Thread thread = new Thread(runnable, "stream-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        running = true;
+        connections.submit(this::accept);
+        System.out.println("Streams available at http://<host>:" + getPort() + "/mjpeg/<n> and ws://<host>:"
+                + getPort() + "/ws/<n>");
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.submit(() -> handle(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Stream server accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+
+            String[] request = readLine(input).split(" ");
+            Map<String, String> headers = readHeaders(input);
+            if (request.length < 2 || !request[0].equals("GET")) {
+                respond(output, "405 Method Not Allowed", "Only GET is supported\n");
+                return;
+            }
+
+            String path = request[1];
+            if (path.equals("/status")) {
+                // Viewer counts are for the operator, not for everyone who can reach the streams
+                if (!socket.getInetAddress().isLoopbackAddress()) {
+                    respond(output, "403 Forbidden", "Status is only served to this machine\n");
+                    return;
+                }
+                respond(output, "200 OK", renderStatus());
+                return;
+            }
+            boolean webSocket = path.startsWith("/ws/");
+            if (!webSocket && !path.startsWith("/mjpeg/")) {
+                respond(output, "404 Not Found", "Use /mjpeg/<n>, /ws/<n> or /status\n");
+                return;
+            }
+            String cameraUrl = resolveCamera(path.substring(path.lastIndexOf('/') + 1));
+            if (cameraUrl == null) {
+                respond(output, "404 Not Found", "No such camera\n");
+                return;
+            }
+            if (webSocket && !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                respond(output, "400 Bad Request", "WebSocket upgrade expected\n");
+                return;
+            }
+
+            CameraFeed.Subscriber subscriber = new CameraFeed.Subscriber(webSocket);
+            CameraFeed feed = subscribe(cameraUrl, subscriber);
+            if (feed == null) {
+                respond(output, "503 Service Unavailable", "Too many viewers for this camera\n");
+                return;
+            }
+            try {
+                if (webSocket) {
+                    writeAscii(output, "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                            + "Sec-WebSocket-Accept: " + acceptKey(headers.get("sec-websocket-key")) + "\r\n\r\n");
+                } else {
+                    writeAscii(output, "HTTP/1.1 200 OK\r\nContent-Type: multipart/x-mixed-replace; boundary="
+                            + CameraFeed.BOUNDARY + "\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n");
+                }
+                output.flush();
+                stream(subscriber, webSocket, input, output);
+            } finally {
+                unsubscribe(cameraUrl, feed, subscriber);
+            }
+        } catch (IOException e) {
+            // Clients going away is the normal way a stream ends
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sends frames until the client leaves, WebSocket clients are also answered on close and ping
+    private void stream(CameraFeed.Subscriber subscriber, boolean webSocket, InputStream input, OutputStream output)
+            throws IOException, InterruptedException {
+        while (running && !subscriber.isClosed()) {
+            CameraFeed.EncodedFrame frame = subscriber.take(CLIENT_CHECK_MILLIS);
+            if (webSocket && !readControlFrames(input, output)) {
+                return;
+            }
+            if (frame != null) {
+                subscriber.write(frame, output);
+            }
+        }
+    }
+
+    // Reads whatever the client has sent without blocking for more, false once it closed
+    private static boolean readControlFrames(InputStream input, OutputStream output) throws IOException {
+        while (input.available() >= 2) {
+            int opcode = input.read() & 0x0F;
+            int second = input.read();
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = (long) input.read() << 8 | input.read();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = length << 8 | input.read();
+                }
+            }
+            if (length > 125) {
+                // Viewers only send control frames, anything large is not a viewer
+                return false;
+            }
+            byte[] mask = (second & 0x80) != 0 ? input.readNBytes(4) : new byte[4];
+            byte[] payload = input.readNBytes((int) length);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+
+            if (opcode == 0x8) {
+                output.write(new byte[]{(byte) 0x88, 0});
+                output.flush();
+                return false;
+            }
+            if (opcode == 0x9) {
+                output.write(new byte[]{(byte) 0x8A, (byte) payload.length});
+                output.write(payload);
+                output.flush();
+            }
+        }
+        return true;
+    }
+
+    private String resolveCamera(String position) {
+        List<String> urls = streamManager.getCameraUrls();
+        try {
+            int index = Integer.parseInt(position);
+            return index >= 1 && index <= urls.size() ? urls.get(index - 1) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // The first viewer of a camera opens its session and asks for pictures at the serving size
+    private synchronized CameraFeed subscribe(String cameraUrl, CameraFeed.Subscriber subscriber) {
+        CameraFeed feed = feeds.get(cameraUrl);
+        if (feed == null) {
+            feed = new CameraFeed(cameraUrl, encoders, maxFps, JPEG_QUALITY);
+            CameraSession session = streamManager.openSession(cameraUrl);
+            session.requestViewport(feed, width, height);
+            session.addConsumer(feed);
+            feeds.put(cameraUrl, feed);
+        } else if (feed.getSubscriberCount() >= MAX_SUBSCRIBERS_PER_CAMERA) {
+            return null;
+        }
+        feed.addSubscriber(subscriber);
+        return feed;
+    }
+
+    private synchronized void unsubscribe(String cameraUrl, CameraFeed feed, CameraFeed.Subscriber subscriber) {
+        feed.removeSubscriber(subscriber);
+        if (feed.getSubscriberCount() == 0 && feeds.get(cameraUrl) == feed) {
+            closeFeed(feed);
+            feeds.remove(cameraUrl);
+        }
+    }
+
+    private void closeFeed(CameraFeed feed) {
+        CameraSession session = streamManager.getSession(feed.getCameraUrl());
+        if (session != null) {
+            session.removeConsumer(feed);
+            session.releaseViewport(feed);
+        }
+        streamManager.closeSession(feed.getCameraUrl());
+        feed.close();
+    }
+
+    public synchronized String renderStatus() {
+        StringBuilder text = new StringBuilder();
+        for (CameraFeed feed : feeds.values()) {
+            // Camera URLs carry their credentials
+            text.append(StreamMetrics.displayName(feed.getCameraUrl())).append(": ").append(feed.getSubscriberCount()).append(" viewers, ")
+                    .append(feed.getEncodedFrames()).append(" frames encoded, ")
+                    .append(feed.getSkippedFrames()).append(" skipped while encoding\n");
+        }
+        return text.length() > 0 ? text.toString() : "No viewers\n";
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = input.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_HEADER_BYTES) {
+                throw new IOException("Request header too long");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    // Header names in lower case
+    private static Map<String, String> readHeaders(InputStream input) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(input)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static String acceptKey(String key) throws IOException {
+        if (key == null) {
+            throw new IOException("Missing Sec-WebSocket-Key");
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void respond(OutputStream output, String status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        writeAscii(output, "HTTP/1.1 " + status + "\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+                + bytes.length + "\r\nConnection: close\r\n\r\n");
+        output.write(bytes);
+        output.flush();
+    }
+
+    private static void writeAscii(OutputStream output, String text) throws IOException {
+        output.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing stream server: " + e.getMessage());
+        }
+        synchronized (this) {
+            for (CameraFeed feed : feeds.values()) {
+                closeFeed(feed);
+            }
+            feeds.clear();
+        }
+        connections.shutdownNow();
+        encoders.shutdownNow();
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.camera_demo;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preview images for recorded segments, made from each segment's first keyframe in the background.
+ *
+ * Decoded thumbnails stay in a bounded LRU in memory and are saved as small JPEGs under the
+ * recording folder, so they are decoded once per segment rather than once per run. Requests are
+ * served newest first and dropped once their list cell shows another segment, so scrolling through
+ * a long list only ever works on the rows on screen.
+ */
+public class ThumbnailCache {
+
+    public static final int THUMBNAIL_WIDTH = 160;
+
+    private static final String CACHE_DIRECTORY = ".thumbnails";
+    private static final int MEMORY_ENTRIES = 512;  // About 30 MB of 160x90 images
+    private static final int MAX_PENDING = 128;     // Older requests are rows scrolled past long ago
+    private static final int WORKERS = 2;
+
+    /**
+     * Where a thumbnail is shown, typically a list cell that is reused for other segments.
+     * Both methods are called off the FX thread.
+     */
+    public interface Target {
+        // The segment this target shows now, requests for anything else are dropped
+        Path getWantedRecording();
+
+        // Delivered on the FX thread
+        void showThumbnail(Path recording, Image thumbnail);
+    }
+
+    private static class Request {
+        final Path recording;
+        final Target target;
+
+        Request(Path recording, Target target) {
+            this.recording = recording;
+            this.target = target;
+        }
+    }
+
+    private final Map<Path, Image> memory = new LinkedHashMap<>(MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Image> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private final LinkedBlockingDeque<Request> pending = new LinkedBlockingDeque<>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    // Daemon threads, they block on the queue for the life of the app and must not keep it running
+    private final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-" + workerCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Path recordingFolder;
+
+    public ThumbnailCache(Path recordingFolder) {
+        this.recordingFolder = recordingFolder;
+        for (int i = 0; i < WORKERS; i++) {
+            workers.submit(this::work);
+        }
+    }
+
+    public void setRecordingFolder(Path folder) {
+        recordingFolder = folder;
+    }
+
+    // Memory only, cheap enough for every cell update
+    public synchronized Image getCached(Path recording) {
+        return memory.get(recording);
+    }
+
+    // Queues a thumbnail ahead of earlier requests, the target is called back if it still wants it
+    public void request(Path recording, Target target) {
+        pending.offerFirst(new Request(recording, target));
+        while (pending.size() > MAX_PENDING) {
+            pending.pollLast();
+        }
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Request request = pending.takeFirst();
+                if (!request.recording.equals(request.target.getWantedRecording())) {
+                    // The cell has been reused for another row
+                    continue;
+                }
+
+                Image thumbnail = getCached(request.recording);
+                if (thumbnail == null) {
+                    thumbnail = load(request.recording);
+                }
+                if (thumbnail != null) {
+                    Image image = thumbnail;
+                    Platform.runLater(() -> request.target.showThumbnail(request.recording, image));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Image load(Path recording) {
+        Path cacheFile = cacheFileFor(recording);
+        Image thumbnail = null;
+        if (cacheFile != null && Files.exists(cacheFile)) {
+            thumbnail = new Image(cacheFile.toUri().toString(), 0, 0, true, true, false);
+            if (thumbnail.isError()) {
+                thumbnail = null;
+            }
+        }
+        if (thumbnail == null) {
+            thumbnail = generate(recording, cacheFile);
+        }
+        if (thumbnail != null) {
+            synchronized (this) {
+                memory.put(recording, thumbnail);
+            }
+        }
+        return thumbnail;
+    }
+
+    // Mirrors the recording folder, e.g. .thumbnails/camera/20240101-120000-000.mp4.jpg
+    private Path cacheFileFor(Path recording) {
+        Path folder = recordingFolder;
+        if (folder == null || !recording.startsWith(folder)) {
+            return null;
+        }
+        return folder.resolve(CACHE_DIRECTORY).resolve(folder.relativize(recording) + ".jpg");
+    }
+
+    // Decodes only the first keyframe, scaled down by swscale while converting
+    private Image generate(Path recording, Path cacheFile) {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(recording.toString());
+        try {
+            grabber.setVideoOption("threads", "1");
+            grabber.start();
+            AVStream videoStream = CameraSession.findVideoStream(grabber);
+
+            try (VideoDecoder decoder = new VideoDecoder(videoStream, 1)) {
+                decoder.setSkipFrame(avcodec.AVDISCARD_NONKEY);
+                int height = Math.max(2, THUMBNAIL_WIDTH * decoder.getNativeHeight() / Math.max(1, decoder.getNativeWidth()) & ~1);
+                decoder.setOutputSize(THUMBNAIL_WIDTH, height);
+
+                VideoFrame frame = null;
+                AVPacket packet;
+                while (frame == null && (packet = grabber.grabPacket()) != null) {
+                    try {
+                        if (packet.stream_index() == videoStream.index() && (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+                            frame = decoder.decode(packet, true);
+                            if (frame == null) {
+                                // Frame threading holds the picture back until it is drained
+                                frame = decoder.decode(null, true);
+                            }
+                        }
+                    } finally {
+                        avcodec.av_packet_unref(packet);
+                    }
+                }
+                if (frame == null) {
+                    return null;
+                }
+
+                if (cacheFile != null) {
+                    save(frame, cacheFile);
+                }
+                WritableImage image = new WritableImage(frame.getWidth(), frame.getHeight());
+                image.getPixelWriter().setPixels(0, 0, frame.getWidth(), frame.getHeight(),
+                        PixelFormat.getByteBgraPreInstance(), frame.getPixels(), frame.getStride());
+                return image;
+            }
+        } catch (Exception e) {
+            // A segment still being written may not have a readable keyframe yet, it is tried again later
+            System.err.println("Thumbnail not available for " + recording.getFileName() + ": " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                System.err.println("Error stopping thumbnail grabber: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void save(VideoFrame frame, Path cacheFile) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        ByteBuffer pixels = frame.getPixels();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            int row = y * frame.getStride();
+            for (int x = 0; x < width; x++) {
+                int i = row + x * VideoFrame.BYTES_PER_PIXEL;
+                int rgb = (pixels.get(i + 2) & 0xFF) << 16 | (pixels.get(i + 1) & 0xFF) << 8 | (pixels.get(i) & 0xFF);
+                image.setRGB(x, y, rgb);
+            }
+        }
+
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            // Written aside and moved, so a crash never leaves a half-written thumbnail
+            Path temporary = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+            ImageIO.write(image, "jpg", temporary.toFile());
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error saving thumbnail: " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        workers.shutdownNow();
+    }
+}
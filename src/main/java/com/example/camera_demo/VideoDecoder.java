@@ -0,0 +1,258 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+/**
+ * Decodes the packets of one video stream to BGRA, scaled to the requested output size.
+ *
+ * Owning the decoder, rather than letting {@code FFmpegFrameGrabber.grab()} decode, is what lets
+ * a session read raw packets with {@code av_read_frame}, cache them in a {@link GopCache} and prime
+ * the decoder from that cache. Playback feeds it packets from {@code grabPacket()} the same way.
+ * Not thread safe, used only by the loop that feeds it.
+ */
+public class VideoDecoder implements AutoCloseable {
+
+    private final AVCodecContext codecContext;
+    private final AVFrame picture;
+    private final AVRational timeBase;
+    private final AVRational microseconds = avutil.av_make_q(1, 1_000_000);
+    private final int nativeWidth;
+    private final int nativeHeight;
+
+    private int requestedWidth = 0;
+    private int requestedHeight = 0;
+    private SwsContext swsContext;
+    // Each picture is converted into a frame of its own, a retained one is never overwritten
+    private final FramePool framePool = new FramePool();
+    private FramePool.PooledFrame output;
+    private final PointerPointer<BytePointer> outputPlanes = new PointerPointer<>(1);
+    private final IntPointer outputStride = new IntPointer(1);
+
+    // Small grayscale copy of the luma plane for analysis, made alongside the BGRA conversion or alone
+    private int lumaWidth = 0;
+    private int lumaHeight = 0;
+    private SwsContext lumaContext;
+    private BytePointer lumaBuffer;
+    private PointerPointer<BytePointer> lumaPlanes;
+    private IntPointer lumaStride;
+    private boolean lumaRequested = false;
+    private boolean lumaValid = false;
+    private boolean pictureDecoded = false;
+
+    public VideoDecoder(AVStream stream, int threads) throws Exception {
+        AVCodec codec = avcodec.avcodec_find_decoder(stream.codecpar().codec_id());
+        if (codec == null) {
+            throw new Exception("No decoder for codec id " + stream.codecpar().codec_id());
+        }
+
+        codecContext = avcodec.avcodec_alloc_context3(codec);
+        if (avcodec.avcodec_parameters_to_context(codecContext, stream.codecpar()) < 0) {
+            avcodec.avcodec_free_context(codecContext);
+            throw new Exception("Could not copy codec parameters");
+        }
+        codecContext.thread_count(threads);
+        codecContext.pkt_timebase(stream.time_base());
+
+        int ret = avcodec.avcodec_open2(codecContext, codec, (PointerPointer) null);
+        if (ret < 0) {
+            avcodec.avcodec_free_context(codecContext);
+            throw new Exception("avcodec.avcodec_open2() error " + ret);
+        }
+
+        picture = avutil.av_frame_alloc();
+        timeBase = stream.time_base();
+        nativeWidth = stream.codecpar().width();
+        nativeHeight = stream.codecpar().height();
+    }
+
+    public int getNativeWidth() {
+        return nativeWidth;
+    }
+
+    public int getNativeHeight() {
+        return nativeHeight;
+    }
+
+    // 0 keeps the decoded size, the scaler is rebuilt on the next frame
+    public void setOutputSize(int width, int height) {
+        requestedWidth = width;
+        requestedHeight = height;
+    }
+
+    /**
+     * Size of the grayscale luma copy made by {@link #requestLuma()}, 0 releases it.
+     */
+    public void setLumaOutput(int width, int height) {
+        if (width == lumaWidth && height == lumaHeight) {
+            return;
+        }
+        releaseLuma();
+        lumaWidth = width;
+        lumaHeight = height;
+        if (width > 0 && height > 0) {
+            lumaBuffer = new BytePointer((long) width * height);
+            lumaPlanes = new PointerPointer<>(lumaBuffer);
+            lumaStride = new IntPointer(width);
+        }
+    }
+
+    // The next decoded picture is scaled to a luma copy, once, whether or not it is converted
+    public void requestLuma() {
+        lumaRequested = lumaBuffer != null;
+    }
+
+    /**
+     * Copies the luma of the last decoded picture into destination, which holds at least
+     * width * height bytes of {@link #setLumaOutput}.
+     *
+     * @return false if the last decode made no luma copy
+     */
+    public boolean copyLuma(byte[] destination) {
+        if (!lumaValid) {
+            return false;
+        }
+        lumaBuffer.position(0).get(destination, 0, lumaWidth * lumaHeight);
+        return true;
+    }
+
+    /**
+     * Sends one packet to the decoder, or null at end of stream to drain it.
+     *
+     * @param convert false while priming, when only the last picture of a replay is shown
+     * @return the newest decoded picture, valid until the next call unless retained, or null if
+     *         the decoder needs more input (frame threading holds back up to one frame per thread)
+     */
+    public VideoFrame decode(AVPacket packet, boolean convert) throws Exception {
+        return decode(packet, convert ? Long.MIN_VALUE : Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #decode(AVPacket, boolean)}, converting only pictures timed at or after
+     * convertFromMicros. Seeking and fast playback decode every picture but show few of them.
+     */
+    public VideoFrame decode(AVPacket packet, long convertFromMicros) throws Exception {
+        int ret = avcodec.avcodec_send_packet(codecContext, packet);
+        if (ret < 0 && ret != avutil.AVERROR_EAGAIN() && !(packet == null && ret == avutil.AVERROR_EOF)) {
+            throw new Exception("avcodec.avcodec_send_packet() error " + ret);
+        }
+
+        VideoFrame frame = null;
+        lumaValid = false;
+        pictureDecoded = false;
+        while (avcodec.avcodec_receive_frame(codecContext, picture) >= 0) {
+            pictureDecoded = true;
+            if (convertFromMicros != Long.MAX_VALUE && pictureTimestamp() >= convertFromMicros) {
+                frame = convert();
+            } else if (lumaRequested) {
+                // Motion detection on a picture nobody shows, no BGRA conversion
+                scaleLuma();
+            }
+        }
+        return frame;
+    }
+
+    // Whether the last decode call produced a picture, converted or not
+    public boolean hasDecodedPicture() {
+        return pictureDecoded;
+    }
+
+    // Pictures the decoder may drop unseen, one of avcodec.AVDISCARD_*
+    public void setSkipFrame(int discard) {
+        codecContext.skip_frame(discard);
+    }
+
+    // Drops references and queued pictures, called before replaying a GOP
+    public void flush() {
+        avcodec.avcodec_flush_buffers(codecContext);
+    }
+
+    private VideoFrame convert() {
+        int width = requestedWidth > 0 ? requestedWidth : picture.width();
+        int height = requestedHeight > 0 ? requestedHeight : picture.height();
+        int stride = width * VideoFrame.BYTES_PER_PIXEL;
+
+        // Consumers that retained the previous picture keep it, this one goes elsewhere
+        releaseOutput();
+        // Tightly packed, so FXFrameConverter copies it in one go
+        output = framePool.acquire(width, height);
+        outputPlanes.put(0, output.memory);
+        outputStride.put(0, stride);
+
+        swsContext = swscale.sws_getCachedContext(swsContext, picture.width(), picture.height(), picture.format(),
+                width, height, avutil.AV_PIX_FMT_BGRA, swscale.SWS_BILINEAR, null, null, (DoublePointer) null);
+        swscale.sws_scale(swsContext, picture.data(), picture.linesize(), 0, picture.height(), outputPlanes, outputStride);
+
+        output.timestampMicros = pictureTimestamp();
+        output.keyFrame = picture.key_frame() != 0;
+
+        if (lumaRequested) {
+            scaleLuma();
+        }
+        return output;
+    }
+
+    // Gray output from YUV is the Y plane alone, averaged down by the area filter
+    private void scaleLuma() {
+        lumaRequested = false;
+        lumaContext = swscale.sws_getCachedContext(lumaContext, picture.width(), picture.height(), picture.format(),
+                lumaWidth, lumaHeight, avutil.AV_PIX_FMT_GRAY8, swscale.SWS_AREA, null, null, (DoublePointer) null);
+        swscale.sws_scale(lumaContext, picture.data(), picture.linesize(), 0, picture.height(), lumaPlanes, lumaStride);
+        lumaValid = true;
+    }
+
+    private void releaseLuma() {
+        if (lumaBuffer != null) {
+            lumaPlanes.close();
+            lumaStride.close();
+            lumaBuffer.close();
+            lumaBuffer = null;
+        }
+        lumaRequested = false;
+        lumaValid = false;
+    }
+
+    private long pictureTimestamp() {
+        long pts = picture.best_effort_timestamp();
+        return pts == avutil.AV_NOPTS_VALUE ? 0 : avutil.av_rescale_q(pts, timeBase, microseconds);
+    }
+
+    private void releaseOutput() {
+        if (output != null) {
+            output.release();
+            output = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        releaseOutput();
+        // Retained frames are freed by their last release
+        framePool.close();
+        outputPlanes.close();
+        outputStride.close();
+        releaseLuma();
+        if (swsContext != null) {
+            swscale.sws_freeContext(swsContext);
+            swsContext = null;
+        }
+        if (lumaContext != null) {
+            swscale.sws_freeContext(lumaContext);
+            lumaContext = null;
+        }
+        avutil.av_frame_free(picture);
+        avcodec.avcodec_free_context(codecContext);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.camera_demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A decoded picture as packed BGRA, with no JavaFX or JavaCV types so the engine can run headless.
+ *
+ * Consumers get the decoder's own buffer, it is not copied per consumer. It is valid for the
+ * duration of {@link CameraSession.FrameConsumer#onFrame}; to keep it longer without a copy,
+ * {@link #retain()} it and {@link #release()} it when done. The decoder writes its next pictures
+ * into other buffers meanwhile, and the memory outlives the decoder until the last release.
+ */
+public class VideoFrame {
+
+    public static final int BYTES_PER_PIXEL = 4;
+
+    int width;
+    int height;
+    int stride;
+    ByteBuffer pixels;
+    long timestampMicros;
+    boolean keyFrame;
+    // The producer holds the first reference, frames it does not pool are never freed
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Bytes per row, at least width * 4
+    public int getStride() {
+        return stride;
+    }
+
+    // Read with absolute gets only, the buffer is shared between consumers
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    public boolean isKeyFrame() {
+        return keyFrame;
+    }
+
+    // Any thread, every retain needs exactly one release
+    public VideoFrame retain() {
+        while (true) {
+            int count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame retained after its last release");
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            recycle();
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame released more often than retained");
+        }
+    }
+
+    // The last reference is gone, pooled frames hand their memory back
+    void recycle() {
+    }
+
+    // The producer takes a recycled frame for its next picture
+    void reuse() {
+        references.set(1);
+    }
+}
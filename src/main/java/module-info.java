@@ -5,8 +5,11 @@ module com.example.camera_demo {
     requires java.base;
     requires javafx.media;
     requires org.bytedeco.javacv;
+    requires org.bytedeco.ffmpeg;
     requires javax.websocket.client.api;
     requires java.net.http;
+    requires java.management;
+    requires jdk.httpserver;
 
 
     opens com.example.camera_demo to javafx.fxml;
@@ -0,0 +1,99 @@
+package com.example.camera_demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CameraSessionTest {
+
+    // Frames as they were published, copied out of the shared buffer
+    private static class Published {
+        final long timestampMicros;
+        final boolean keyFrame;
+        final int level;
+        final long nanos = System.nanoTime();
+
+        Published(VideoFrame frame) {
+            this.timestampMicros = frame.getTimestampMicros();
+            this.keyFrame = frame.isKeyFrame();
+            this.level = TestClips.centerLevel(frame);
+        }
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "test-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ReconnectScheduler reconnects = new ReconnectScheduler();
+    private final StallWatchdog watchdog = new StallWatchdog();
+    private final BlockingQueue<Published> published = new LinkedBlockingQueue<>();
+
+    private CameraSession session;
+    private LiveSource source;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // A single 10 s GOP, so every picture after the first is mid-GOP with no keyframe to wait for
+        File file = TestClips.write("mpegts", 250, 250);
+        assertEquals(List.of(0), TestClips.keyFrames(file), "Keyframes of the test clip");
+        byte[] clip = Files.readAllBytes(file.toPath());
+        file.delete();
+        source = new LiveSource(clip, 10_000, 10_000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (session != null) {
+            session.stop();
+        }
+        source.close();
+        watchdog.close();
+        reconnects.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void viewShownMidGopIsPrimedFromTheCache() throws Exception {
+        session = new CameraSession(source.getUrl(), StreamPacer.Mode.TIMESTAMP, 1,
+                (s, status) -> System.out.println("Test session: " + status), reconnects, watchdog);
+        Object viewer = new Object();
+        session.setVisibility(viewer, CameraSession.Visibility.HIDDEN);
+        session.addConsumer((s, frame) -> published.add(new Published(frame)));
+        session.start(executor);
+
+        // Hidden sessions decode and publish the keyframe only
+        Published key = published.poll(10, TimeUnit.SECONDS);
+        assertNotNull(key, "The hidden session published no keyframe");
+        assertTrue(key.keyFrame);
+
+        Thread.sleep(1000);
+        assertTrue(published.isEmpty(), "A hidden session published a frame without a keyframe");
+        long shownNanos = System.nanoTime();
+        session.setVisibility(viewer, CameraSession.Visibility.VISIBLE);
+
+        Published first = published.poll(2, TimeUnit.SECONDS);
+        assertNotNull(first, "The view got no picture until the next keyframe");
+        assertFalse(first.keyFrame);
+        // The replayed GOP leaves the decoder with every reference, so the picture is the right one
+        int frameIndex = (int) Math.round((first.timestampMicros - key.timestampMicros) * TestClips.FPS / 1e6);
+        assertTrue(frameIndex > 0, "Primed to frame " + frameIndex);
+        assertEquals(TestClips.level(frameIndex), first.level, TestClips.TOLERANCE);
+        assertTrue(first.nanos - shownNanos < TimeUnit.MILLISECONDS.toNanos(500),
+                "The primed picture took " + (first.nanos - shownNanos) / 1_000_000 + " ms");
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.camera_demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CameraStreamManagerTest {
+
+    private static final int CAMERAS = 200;
+    private static final long OBSERVE_MILLIS = 10_000;
+    // Connecting and the stand-in's pause before it drops add to every gap
+    private static final long SLACK_MILLIS = 500;
+
+    private static final CameraStreamManager.CameraStreamListener QUIET = new CameraStreamManager.CameraStreamListener() {
+        @Override
+        public void onSessionStatus(CameraSession session, String status) {
+        }
+
+        @Override
+        public void onWebSocketStatusUpdate(String status) {
+        }
+
+        @Override
+        public void onCameraListReceived(List<String> cameras) {
+        }
+    };
+
+    private WebSocketStandIn webSocket;
+    private CameraStreamManager manager;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (manager != null) {
+            manager.cleanup();
+        }
+        if (webSocket != null) {
+            webSocket.close();
+        }
+    }
+
+    @Test
+    void outageBacksOffWithoutHoldingThreads() throws Exception {
+        int closedPort;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = unused.getLocalPort();
+        }
+        webSocket = new WebSocketStandIn();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+
+        long start = System.nanoTime();
+        manager = new CameraStreamManager(QUIET, webSocket.getUrl());
+        manager.initialize();
+        for (int i = 0; i < CAMERAS; i++) {
+            manager.openSession("rtsp://127.0.0.1:" + closedPort + "/cam" + i);
+        }
+
+        ReconnectScheduler scheduler = manager.getReconnectScheduler();
+        int steadyPending = CAMERAS + 1;
+        int steadyBusy = 0;
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(OBSERVE_MILLIS)) {
+            int pending = scheduler.getPendingCount();
+            // One attempt per camera and one for the WebSocket, however often each failed
+            assertTrue(pending <= CAMERAS + 1, pending + " attempts pending");
+            if (System.nanoTime() - start > TimeUnit.SECONDS.toNanos(5)) {
+                steadyPending = Math.min(steadyPending, pending);
+                steadyBusy = Math.max(steadyBusy, sessionThreadsInCameraSession(threads));
+            }
+            Thread.sleep(100);
+        }
+        int peakThreads = threads.getPeakThreadCount();
+
+        // A refused connect fails at once, so nearly every camera is waiting on the timer, not on a thread
+        assertTrue(steadyPending >= CAMERAS - 20, "Only " + steadyPending + " attempts pending after the first wave");
+        assertTrue(steadyBusy <= 20, steadyBusy + " threads still inside a session while waiting");
+        assertTrue(peakThreads <= threadsBefore + CAMERAS + 30,
+                "Peak " + peakThreads + " threads, " + threadsBefore + " before the outage");
+
+        // The flapping WebSocket is retried after roughly doubling gaps
+        List<Long> connections = new ArrayList<>(webSocket.connections);
+        assertTrue(connections.size() >= 4, "Only " + connections.size() + " WebSocket connections");
+        for (int i = 1; i < connections.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(connections.get(i) - connections.get(i - 1));
+            long full = Math.min(ReconnectScheduler.WEBSOCKET.maxMillis, ReconnectScheduler.WEBSOCKET.baseMillis << (i - 1));
+            assertTrue(gap >= full / 2 && gap <= full + SLACK_MILLIS,
+                    "Gap " + i + " was " + gap + " ms, expected " + full / 2 + "-" + full + " ms");
+        }
+    }
+
+    private static int sessionThreadsInCameraSession(ThreadMXBean threads) {
+        int busy = 0;
+        for (ThreadInfo info : threads.dumpAllThreads(false, false)) {
+            if (info == null || !info.getThreadName().startsWith("camera-session-")) {
+                continue;
+            }
+            for (StackTraceElement element : info.getStackTrace()) {
+                if (element.getClassName().equals(CameraSession.class.getName())) {
+                    busy++;
+                    break;
+                }
+            }
+        }
+        return busy;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.camera_demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FramePoolTest {
+
+    private static final int RACES = 10_000;
+
+    // Counts how often its memory would have gone back
+    private static class CountingFrame extends VideoFrame {
+        final AtomicInteger recycles = new AtomicInteger();
+
+        @Override
+        void recycle() {
+            recycles.incrementAndGet();
+        }
+    }
+
+    @Test
+    void retainRacingTheLastReleaseEitherWinsOrFails() throws Exception {
+        ExecutorService leaser = Executors.newSingleThreadExecutor();
+        int leased = 0;
+        try {
+            for (int i = 0; i < RACES; i++) {
+                CountingFrame frame = new CountingFrame();
+                CountDownLatch go = new CountDownLatch(1);
+                Future<Boolean> lease = leaser.submit(() -> {
+                    go.await();
+                    try {
+                        frame.retain();
+                    } catch (IllegalStateException e) {
+                        return false; // Too late, the frame is gone
+                    }
+                    // A lease is never handed memory that already went back
+                    assertEquals(0, frame.recycles.get());
+                    frame.release();
+                    return true;
+                });
+                go.countDown();
+                frame.release();
+                if (lease.get(5, TimeUnit.SECONDS)) {
+                    leased++;
+                }
+                assertEquals(1, frame.recycles.get(), "Race " + i);
+            }
+        } finally {
+            leaser.shutdownNow();
+        }
+        System.out.println("Retain won " + leased + " of " + RACES + " races");
+    }
+
+    @Test
+    void frameReleasedAfterThePoolClosedIsFreed() {
+        FramePool pool = new FramePool();
+        FramePool.PooledFrame frame = pool.acquire(320, 180);
+        frame.retain();
+        frame.release(); // The decoder moves on
+        pool.close();
+        // Still leased: the memory outlives the pool
+        assertFalse(frame.memory.isNull());
+        frame.getPixels().put(0, (byte) 1);
+
+        frame.release();
+        assertTrue(frame.memory.isNull());
+        // A closed pool only hands out new frames
+        FramePool.PooledFrame next = pool.acquire(320, 180);
+        assertNotSame(frame, next);
+        next.release();
+        assertTrue(next.memory.isNull());
+    }
+
+    @Test
+    void spareBuffersFollowAViewportChange() {
+        FramePool pool = new FramePool();
+        FramePool.PooledFrame small = pool.acquire(320, 180);
+        small.release();
+        // Unleased: the decoder converts into the same buffer every time
+        assertSame(small, pool.acquire(320, 180));
+        small.release();
+
+        FramePool.PooledFrame large = pool.acquire(640, 360);
+        assertNotSame(small, large);
+        assertTrue(small.memory.isNull(), "The old size's spare was kept");
+        assertEquals(640, large.getWidth());
+        assertEquals(360, large.getHeight());
+        assertEquals(640 * VideoFrame.BYTES_PER_PIXEL, large.getStride());
+        assertEquals(640 * 360 * VideoFrame.BYTES_PER_PIXEL, large.getPixels().capacity());
+        large.release();
+        assertSame(large, pool.acquire(640, 360));
+        large.release();
+        pool.close();
+        assertTrue(large.memory.isNull());
+    }
+
+    @Test
+    void overReleaseThrows() {
+        FramePool pool = new FramePool();
+        FramePool.PooledFrame frame = pool.acquire(320, 180);
+        frame.retain();
+        frame.release();
+        frame.release();
+        assertThrows(IllegalStateException.class, frame::release);
+        assertThrows(IllegalStateException.class, frame::retain);
+        pool.close();
+    }
+}
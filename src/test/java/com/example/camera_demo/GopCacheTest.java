@@ -0,0 +1,117 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GopCacheTest {
+
+    // A 100 byte packet, the cache keeps its own reference
+    private static void add(GopCache cache, boolean key) {
+        AVPacket packet = avcodec.av_packet_alloc();
+        avcodec.av_new_packet(packet, 100);
+        if (key) {
+            packet.flags(avcodec.AV_PKT_FLAG_KEY);
+        }
+        cache.add(packet);
+        avcodec.av_packet_free(packet);
+    }
+
+    @Test
+    void cachesFromTheLatestKeyframe() throws Exception {
+        GopCache cache = new GopCache(1024 * 1024, 100);
+        // Joined mid-GOP: nothing to decode against yet
+        add(cache, false);
+        assertEquals(0, cache.getPacketCount());
+
+        for (int i = 0; i < 5; i++) {
+            add(cache, i == 0);
+        }
+        add(cache, true);
+        add(cache, false);
+        assertEquals(2, cache.getPacketCount());
+        assertEquals(200, cache.getBytes());
+
+        List<Boolean> keys = new ArrayList<>();
+        List<Boolean> lasts = new ArrayList<>();
+        assertTrue(cache.replay((packet, last) -> {
+            keys.add((packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0);
+            lasts.add(last);
+        }));
+        assertEquals(List.of(true, false), keys);
+        assertEquals(List.of(false, true), lasts);
+        cache.clear();
+    }
+
+    @Test
+    void dropsAnOversizedGopUntilTheNextKeyframe() throws Exception {
+        GopCache cache = new GopCache(1024 * 1024, 10);
+        for (int i = 0; i < 20; i++) {
+            add(cache, i % 15 == 0);
+        }
+        // Packets 0-9 cached, packet 10 overflowed, caching resumed at the keyframe 15
+        assertEquals(1, cache.getOverflows());
+        assertEquals(5, cache.getPacketCount());
+
+        cache.clear();
+        assertFalse(cache.replay((packet, last) -> {
+        }));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    void replayReachesTheCurrentPictureMidGop() throws Exception {
+        int joinedAt = 37;
+        File file = TestClips.write("mp4", 60, 50);
+        assertEquals(List.of(0, 50), TestClips.keyFrames(file), "Keyframes of the test clip");
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        GopCache cache = new GopCache(1024 * 1024, 1000);
+        grabber.start();
+        try {
+            AVFormatContext formatContext = grabber.getFormatContext();
+            AVStream stream = formatContext.streams(CameraSession.findVideoStreamIndex(formatContext));
+            int videoPackets = 0;
+            while (videoPackets <= joinedAt) {
+                AVPacket packet = grabber.grabPacket();
+                assertNotNull(packet);
+                if (packet.stream_index() == stream.index()) {
+                    cache.add(packet);
+                    videoPackets++;
+                }
+                avcodec.av_packet_unref(packet);
+            }
+            assertEquals(joinedAt + 1, cache.getPacketCount());
+
+            // A decoder that has seen nothing of this GOP
+            try (VideoDecoder decoder = new VideoDecoder(stream, 1)) {
+                VideoFrame[] latest = new VideoFrame[1];
+                cache.replay((packet, last) -> {
+                    VideoFrame frame = decoder.decode(packet, last);
+                    if (frame != null) {
+                        latest[0] = frame;
+                    }
+                });
+                assertNotNull(latest[0], "No picture from the replayed GOP");
+                assertFalse(latest[0].isKeyFrame());
+                assertEquals(TestClips.level(joinedAt), TestClips.centerLevel(latest[0]), TestClips.TOLERANCE);
+            }
+        } finally {
+            cache.clear();
+            grabber.stop();
+            grabber.release();
+            file.delete();
+        }
+    }
+}
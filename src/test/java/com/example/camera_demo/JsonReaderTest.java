@@ -0,0 +1,43 @@
+package com.example.camera_demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonReaderTest {
+
+    @Test
+    void escapedStringsReadBackUnchanged() {
+        String value = "tab\there \"quoted\" back\\slash\nline\rreturn \u0001\u001f end";
+        String json = CameraStreamManager.jsonString(value);
+        for (char c : json.toCharArray()) {
+            assertFalse(c < 0x20, "Unescaped control character " + (int) c + " in " + json);
+        }
+        assertTrue(json.contains("\\u0009"));
+
+        JsonReader reader = new JsonReader(json);
+        assertEquals(value, reader.nextString());
+        reader.endDocument();
+    }
+
+    @Test
+    void readsNestedValues() {
+        JsonReader reader = new JsonReader("{\"type\": \"cameras\", \"added\": [\"rtsp://a\", \"rtsp://b\"],"
+                + " \"id\": 42, \"zoom\": 1.5, \"live\": true, \"extra\": null}");
+        Object value = reader.readValue();
+        reader.endDocument();
+
+        Map<?, ?> message = (Map<?, ?>) value;
+        assertEquals("cameras", message.get("type"));
+        assertEquals(List.of("rtsp://a", "rtsp://b"), message.get("added"));
+        assertEquals(42L, message.get("id"));
+        assertEquals(1.5, message.get("zoom"));
+        assertEquals(true, message.get("live"));
+        assertTrue(message.containsKey("extra"));
+    }
+}
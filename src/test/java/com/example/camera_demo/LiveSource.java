@@ -0,0 +1,79 @@
+package com.example.camera_demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A local HTTP camera serving an MPEG-TS clip at its real-time rate, one client at a time.
+ * After {@code sendMillis} it stops sending but holds the socket open, as a frozen camera does.
+ */
+class LiveSource implements AutoCloseable {
+
+    private static final long CHUNK_MILLIS = 40;
+
+    private final byte[] clip;
+    private final long clipMillis;
+    private final long sendMillis;
+    private final ServerSocket server;
+    // Arrival time of every connection
+    final BlockingQueue<Long> connections = new LinkedBlockingQueue<>();
+    volatile long lastByteNanos;
+
+    LiveSource(byte[] clip, long clipMillis, long sendMillis) throws IOException {
+        this.clip = clip;
+        this.clipMillis = clipMillis;
+        this.sendMillis = Math.min(sendMillis, clipMillis);
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::serve, "live-source");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/camera.ts";
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections.add(System.nanoTime());
+                InputStream input = socket.getInputStream();
+                byte[] request = new byte[4096];
+                if (input.read(request) <= 0) {
+                    continue;
+                }
+                OutputStream output = socket.getOutputStream();
+                output.write("HTTP/1.1 200 OK\r\nContent-Type: video/mp2t\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                int chunk = (int) Math.max(188, clip.length * CHUNK_MILLIS / clipMillis);
+                int end = (int) (clip.length * sendMillis / clipMillis);
+                for (int offset = 0; offset < end; offset += chunk) {
+                    output.write(clip, offset, Math.min(chunk, end - offset));
+                    output.flush();
+                    Thread.sleep(CHUNK_MILLIS);
+                }
+                lastByteNanos = System.nanoTime();
+                // Quiet until the client hangs up
+                while (input.read(request) >= 0) {
+                    // Discards anything the client sends
+                }
+            } catch (IOException e) {
+                // The client closing its end, or the source closing
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.camera_demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReconnectSchedulerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final ReconnectScheduler scheduler = new ReconnectScheduler(clock::get);
+    private final Semaphore fired = new Semaphore(0);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    // Schedules the target's next attempt and waits for it to run
+    private long retry(Object key, ReconnectScheduler.Policy policy) throws InterruptedException {
+        long delay = scheduler.schedule(key, policy, fired::release);
+        assertTrue(delay >= 0, "An attempt was already pending");
+        assertTrue(fired.tryAcquire(5, TimeUnit.SECONDS), "The attempt never ran");
+        return delay;
+    }
+
+    private static void assertJittered(long delay, long full) {
+        assertTrue(delay >= full / 2 && delay <= full, "Delay " + delay + " ms outside " + full / 2 + "-" + full + " ms");
+    }
+
+    @Test
+    void keepsOneAttemptPendingPerTarget() {
+        ReconnectScheduler.Policy slow = new ReconnectScheduler.Policy(60_000, 60_000);
+        assertTrue(scheduler.schedule("camera", slow, fired::release) >= 0);
+        // onError and onClose for one failure, or a second failure report
+        assertEquals(-1, scheduler.schedule("camera", slow, fired::release));
+        assertEquals(-1, scheduler.schedule("camera", slow, fired::release));
+        assertTrue(scheduler.schedule("websocket", slow, fired::release) >= 0);
+        assertEquals(2, scheduler.getPendingCount());
+
+        scheduler.cancel("camera");
+        assertEquals(1, scheduler.getPendingCount());
+        assertTrue(scheduler.schedule("camera", slow, fired::release) >= 0);
+        assertEquals(2, scheduler.getPendingCount());
+    }
+
+    @Test
+    void delaysDoubleWithJitterUpToTheCap() throws InterruptedException {
+        ReconnectScheduler.Policy policy = new ReconnectScheduler.Policy(20, 160);
+        for (int failures = 0; failures < 6; failures++) {
+            assertJittered(retry("camera", policy), Math.min(160, 20L << failures));
+        }
+
+        ReconnectScheduler.Policy camera = ReconnectScheduler.CAMERA;
+        for (int failures = 0; failures < 40; failures++) {
+            long full = Math.min(camera.maxMillis, camera.baseMillis << Math.min(failures, 30));
+            Set<Long> delays = new HashSet<>();
+            for (int i = 0; i < 50; i++) {
+                long delay = ReconnectScheduler.delayMillis(camera, failures);
+                assertJittered(delay, full);
+                delays.add(delay);
+            }
+            // Cameras that failed together do not retry together
+            assertTrue(delays.size() > 10, "Only " + delays.size() + " distinct delays");
+        }
+    }
+
+    @Test
+    void forgetsFailuresOnlyAfterTheStabilityWindow() throws InterruptedException {
+        ReconnectScheduler.Policy policy = new ReconnectScheduler.Policy(10, 10_000);
+        assertJittered(retry("camera", policy), 10);
+        assertJittered(retry("camera", policy), 20);
+
+        // Accepted, then dropped just before the window: still backing off
+        scheduler.connected("camera");
+        clock.addAndGet(ReconnectScheduler.STABLE_MILLIS - 1);
+        assertJittered(retry("camera", policy), 40);
+
+        // Held for the whole window: the next failure starts over
+        scheduler.connected("camera");
+        clock.addAndGet(ReconnectScheduler.STABLE_MILLIS);
+        assertJittered(retry("camera", policy), 10);
+        assertJittered(retry("camera", policy), 20);
+    }
+}
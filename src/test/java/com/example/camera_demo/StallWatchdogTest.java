@@ -0,0 +1,84 @@
+package com.example.camera_demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StallWatchdogTest {
+
+    private static final long CLIP_MILLIS = 10_000;
+    private static final long SEND_MILLIS = 3000;
+    private static final long STALL_MILLIS = 500;
+    // Demuxer buffering and scheduling, well below the connect timeout that would otherwise end the read
+    private static final long MARGIN_MILLIS = 500;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "test-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ReconnectScheduler reconnects = new ReconnectScheduler();
+    private final StallWatchdog watchdog = new StallWatchdog();
+
+    private CameraSession session;
+    private LiveSource source;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        File file = TestClips.write("mpegts", 250, 25);
+        byte[] clip = Files.readAllBytes(file.toPath());
+        file.delete();
+        // Stops sending mid-clip and holds the socket open, as a frozen camera does
+        source = new LiveSource(clip, CLIP_MILLIS, SEND_MILLIS);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (session != null) {
+            session.stop();
+        }
+        source.close();
+        watchdog.close();
+        reconnects.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void frozenCameraIsRestartedWithinTheStallTimeoutWhilePacing() throws Exception {
+        // The paced loop runs behind the data, the stall clock must not
+        assertRestartedWithinTheStallTimeout(StreamPacer.Mode.TIMESTAMP);
+    }
+
+    @Test
+    void frozenCameraIsRestartedWithinTheStallTimeoutLive() throws Exception {
+        assertRestartedWithinTheStallTimeout(StreamPacer.Mode.LIVE);
+    }
+
+    private void assertRestartedWithinTheStallTimeout(StreamPacer.Mode mode) throws Exception {
+        session = new CameraSession(source.getUrl(), mode, 1,
+                (s, status) -> System.out.println("Test session: " + status), reconnects, watchdog);
+        session.setStallTimeout(STALL_MILLIS);
+        session.setVisibility(this, CameraSession.Visibility.VISIBLE);
+        session.start(executor);
+
+        assertNotNull(source.connections.poll(5, TimeUnit.SECONDS), "The session never connected");
+        Long reconnected = source.connections.poll(SEND_MILLIS + 5000, TimeUnit.MILLISECONDS);
+        assertNotNull(reconnected, "The session was not restarted after the source froze");
+
+        // The read blocked on the silent socket is interrupted, not left to the socket timeout
+        long restartMillis = TimeUnit.NANOSECONDS.toMillis(reconnected - source.lastByteNanos);
+        long deadlineMillis = STALL_MILLIS + StallWatchdog.CHECK_MILLIS + MARGIN_MILLIS;
+        assertTrue(restartMillis <= deadlineMillis,
+                "Reconnected " + restartMillis + " ms after the last byte, deadline " + deadlineMillis + " ms");
+        assertTrue(session.getMetrics().getStalls() >= 1, "No stall was counted");
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.camera_demo;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Short H.264 clips whose pictures can be told apart: every frame has a flat gray block in the
+ * centre at its own level, so a decoded picture shows which frame it is, and a picture decoded
+ * without its references shows the wrong level. Encoded without B-frames like an IP camera, so decode order is display order.
+ */
+final class TestClips {
+
+    static final int WIDTH = 320;
+    static final int HEIGHT = 180;
+    static final int FPS = 25;
+    // Levels a decoded picture may differ from its source by after the YUV round trip
+    static final int TOLERANCE = 3;
+    // Only a centre block changes. Whole pictures changing level make the encoder's scene change
+    // detection start a GOP every few frames, which OpenH264 in the bundled LGPL FFmpeg cannot turn off.
+    private static final int BLOCK_WIDTH = 64;
+    private static final int BLOCK_HEIGHT = 32;
+    private static final int BACKGROUND = 128;
+
+    private TestClips() {
+    }
+
+    // Gray level of frame i, neighbouring frames are 7 levels apart
+    static int level(int frame) {
+        return 32 + frame * 7 % 180;
+    }
+
+    static File write(String format, int frames, int gopSize) throws Exception {
+        File file = File.createTempFile("camera-test-", "." + ("mpegts".equals(format) ? "ts" : format));
+        file.deleteOnExit();
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, WIDTH, HEIGHT);
+        recorder.setFormat(format);
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(FPS);
+        recorder.setGopSize(gopSize);
+        recorder.setVideoOption("preset", "ultrafast");
+        recorder.setVideoOption("tune", "zerolatency");
+        recorder.start();
+
+        Frame frame = new Frame(WIDTH, HEIGHT, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        byte[] row = new byte[WIDTH * 3];
+        Arrays.fill(row, (byte) BACKGROUND);
+        for (int y = 0; y < HEIGHT; y++) {
+            pixels.put(y * frame.imageStride, row);
+        }
+        byte[] block = new byte[BLOCK_WIDTH * 3];
+        int left = (WIDTH - BLOCK_WIDTH) / 2 * 3;
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(block, (byte) level(i));
+            for (int y = (HEIGHT - BLOCK_HEIGHT) / 2; y < (HEIGHT + BLOCK_HEIGHT) / 2; y++) {
+                pixels.put(y * frame.imageStride + left, block);
+            }
+            recorder.record(frame);
+        }
+        recorder.stop();
+        recorder.release();
+        return file;
+    }
+
+    // Indices of the clip's video packets that are keyframes, for tests that rely on the GOP layout
+    static List<Integer> keyFrames(File file) throws Exception {
+        List<Integer> keyFrames = new ArrayList<>();
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        grabber.start();
+        try {
+            AVFormatContext formatContext = grabber.getFormatContext();
+            int videoStream = CameraSession.findVideoStreamIndex(formatContext);
+            int index = 0;
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.stream_index() == videoStream) {
+                    if ((packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+                        keyFrames.add(index);
+                    }
+                    index++;
+                }
+                avcodec.av_packet_unref(packet);
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+        return keyFrames;
+    }
+
+    // Green of the centre pixel, the BGRA picture is gray so any channel will do
+    static int centerLevel(VideoFrame frame) {
+        int offset = frame.getHeight() / 2 * frame.getStride() + frame.getWidth() / 2 * VideoFrame.BYTES_PER_PIXEL;
+        return frame.getPixels().get(offset + 1) & 0xFF;
+    }
+}
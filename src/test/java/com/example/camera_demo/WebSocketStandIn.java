@@ -0,0 +1,71 @@
+package com.example.camera_demo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A control server that accepts every WebSocket upgrade and drops the connection at once, as a
+ * crashing server would. The nanoTime of every accepted connection is queued on {@link #connections}.
+ */
+class WebSocketStandIn implements AutoCloseable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    final BlockingQueue<Long> connections = new LinkedBlockingQueue<>();
+    private final ServerSocket server;
+
+    WebSocketStandIn() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptAndDrop, "websocket-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getUrl() {
+        return "ws://127.0.0.1:" + server.getLocalPort() + "/";
+    }
+
+    // Answers the upgrade, then closes without a close frame
+    private void acceptAndDrop() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                String key = null;
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                        key = line.substring(colon + 1).trim();
+                    }
+                }
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+                OutputStream output = socket.getOutputStream();
+                output.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Accept: " + Base64.getEncoder().encodeToString(digest) + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+                connections.add(System.nanoTime());
+                Thread.sleep(50); // Lets the client see the connection open before it drops
+            } catch (IOException e) {
+                // Closed at the end of the test
+            } catch (Exception e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}